@@ -4,6 +4,7 @@ import java.awt.Graphics2D;
 
 import MaastCTS2.controller.IController;
 import MaastCTS2.controller.MctsController;
+import MaastCTS2.controller.TimeBufferCalibrator;
 import MaastCTS2.heuristics.states.GvgAiEvaluation;
 import MaastCTS2.heuristics.states.IPlayoutEvaluation;
 import MaastCTS2.move_selection.IMoveSelectionStrategy;
@@ -18,7 +19,7 @@ import ontology.Types.ACTIONS;
 import tools.ElapsedCpuTimer;
 
 public class Agent extends AbstractPlayer {
-	public static IController controller;
+	private final IController controller;
 
 	/**
 	 * constructor for competition
@@ -27,7 +28,11 @@ public class Agent extends AbstractPlayer {
 	 * @param elapsedTimer
 	 */
 	public Agent(StateObservation so, ElapsedCpuTimer elapsedTimer) {
-		MctsController.TIME_BUFFER_MILLISEC = 8;	// shorter time buffer because better hardware on official competition server
+		if(MctsController.TIME_BUFFER_CALIBRATOR == null){
+			// start with a shorter time buffer because better hardware on official competition server, 
+			// but adapt it to the actual hardware throughout the games played in this JVM
+			MctsController.setTimeBufferCalibrator(new TimeBufferCalibrator(8, null));
+		}
 		controller = new MctsController(new ProgressiveHistory(0.6, 1.0), new NstPlayout(10, 0.5, 7.0, 3), 
 				new MaxAvgScore(), new GvgAiEvaluation(), true, true, true, true, true, 0.6, 3, true, false);
 		controller.init(so, elapsedTimer);
@@ -46,7 +51,7 @@ public class Agent extends AbstractPlayer {
 	}
 	
 	public Agent(StateObservation so, ElapsedCpuTimer elapsedTimer, IController controller){
-		Agent.controller = controller;
+		this.controller = controller;
 		controller.init(so,  elapsedTimer);
 	}
 
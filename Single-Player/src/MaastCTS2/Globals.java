@@ -14,15 +14,48 @@ public class Globals {
 	/** A large constant score added to winning game states and subtracted from losing game states */
 	public static final double HUGE_ENDGAME_SCORE = 10000000.0;
 	
-	/** Random Number Generator */
-	public static final XorShift64StarRandom RNG = new XorShift64StarRandom();
+	/** 
+	 * Random Number Generators, one per thread. XorShift64StarRandom is not thread-safe, and sharing a single
+	 * generator would also make the sequence of random numbers seen by any single search thread depend on 
+	 * the scheduling of other threads
+	 */
+	private static final ThreadLocal<XorShift64StarRandom> RNG = new ThreadLocal<XorShift64StarRandom>(){
+		@Override
+		protected XorShift64StarRandom initialValue(){
+			return new XorShift64StarRandom();
+		}
+	};
 	
-	/** Knowledge Base for the current game/level */
+	/** 
+	 * Knowledge Base for the current game/level. There is only one per JVM, replaced by every call to 
+	 * MctsController.init(), and all the threads of an agent (search, pondering, pipeline and safety check 
+	 * threads) share it. This means that only a single agent per JVM is supported: running multiple 
+	 * agents at the same time in one JVM (for instance, two-player games with MaastCTS2 against itself, 
+	 * or multiple games in parallel) would make them overwrite each other's knowledge
+	 */
 	public static KnowledgeBase knowledgeBase;
 	
 	/** If true, we'll draw some stuff for debugging */
 	public static final boolean DEBUG_DRAW = false;
 	
+	/**
+	 * Returns the Random Number Generator for the calling thread
+	 * 
+	 * @return
+	 */
+	public static XorShift64StarRandom getRNG(){
+		return RNG.get();
+	}
+	
+	/**
+	 * Seeds the Random Number Generator of the calling thread
+	 * 
+	 * @param seed
+	 */
+	public static void seedRNG(long seed){
+		RNG.get().setSeed(seed);
+	}
+	
 	public static boolean isMovementAction(ACTIONS action){
 		return (action != ACTIONS.ACTION_ESCAPE &&
 				action != ACTIONS.ACTION_NIL &&
@@ -89,7 +122,7 @@ public class Globals {
 	 * @return
 	 */
 	public static double smallNoise(){
-		return (RNG.nextDouble() - 0.5) * 0.000001;
+		return (RNG.get().nextDouble() - 0.5) * 0.000001;
 	}
 
 }
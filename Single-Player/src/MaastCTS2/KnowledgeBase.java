@@ -18,6 +18,7 @@ import MaastCTS2.gnu.trove.map.hash.TIntIntHashMap;
 import MaastCTS2.heuristics.events.EventKnowledge;
 import MaastCTS2.utils.OrderedIntPair;
 import MaastCTS2.utils.Pathfinder;
+import MaastCTS2.utils.StateFingerprint;
 import core.game.Event;
 import core.game.Observation;
 import core.game.StateObservation;
@@ -29,6 +30,14 @@ import tools.Vector2d;
 /**
  * A knowledge base that can be queried for information that has been gathered so far
  * on the game and/or level currently being played.
+ * 
+ * <p> A single knowledge base is shared by all search threads of the agent. Methods that modify
+ * the gathered knowledge are synchronized. The knowledge-based evaluation computes its distance 
+ * features (the expensive part, with A* for every type) without locking, from an immutable snapshot of 
+ * the knowledge it needs (EvalKnowledge). Every modification of that knowledge discards the snapshot, 
+ * and the next evaluation builds a new one, so evaluations always use the latest knowledge. Only the 
+ * normalisation at the end of an evaluation (which updates normalisation bounds), and registering new 
+ * sprite types, are synchronized.
  *
  * @author Dennis Soemers
  */
@@ -138,16 +147,25 @@ public class KnowledgeBase {
 	private double MIN_BLOCKING_OBSERVATIONS_EVAL = 0.0;
 	private double MAX_BLOCKING_OBSERVATIONS_EVAL = 0.0;
 	
-	/** The pathfinder we'll use to compute distances */
+	/** The pathfinder we'll use to compute distances (only modified during init(), afterwards safe to use in any thread) */
 	private Pathfinder pathfinder;
 	
+	/** 
+	 * Snapshot of the knowledge used by the distance features of knowledgeBasedEval(). Set to null whenever
+	 * any of that knowledge is modified, and built again by the next evaluation (see getEvalKnowledge())
+	 */
+	private volatile EvalKnowledge evalKnowledge = null;
+	
 	private TIntArrayList rootShortestDistances;
 	private TIntArrayList rootNumObservationsPerType;
 	private HashMap<Integer, Integer> rootResources;
 	
 	private GameClassifications gameClassification = GameClassifications.NONDETERMINISTIC;
 	
-	public void init(StateObservation stateObs, boolean detectDeterministicGames){
+	/** If false, addEventKnowledge() does nothing (because knowledge-based evaluations are not used anyway) */
+	private boolean collectEventKnowledge = true;
+	
+	public void init(StateObservation stateObs, boolean detectDeterministicGames, boolean collectEventKnowledge){
 		//System.out.println("INIT KB");
 		Dimension pixels = stateObs.getWorldDimension();
 		pixelsPerBlock = stateObs.getBlockSize();
@@ -158,6 +176,8 @@ public class KnowledgeBase {
 		
 		maxDistance = mapHeightBlocks * mapWidthBlocks;
 		
+		this.collectEventKnowledge = collectEventKnowledge;
+		
 		typesToIndexMap = new TIntIntHashMap(8, Constants.DEFAULT_LOAD_FACTOR, -1, -1);
 		indicesToTypesList = new TIntArrayList();
 		
@@ -177,6 +197,8 @@ public class KnowledgeBase {
 		pathfinder = new Pathfinder();
 		pathfinder.init(stateObs);
 		
+		evalKnowledge = null;
+		
 		gameClassification = GameClassifications.NONDETERMINISTIC;
 		if(detectDeterministicGames){
 			classifyGame(stateObs);
@@ -206,11 +228,11 @@ public class KnowledgeBase {
 	 * @param previousNumEvents
 	 * @param newState
 	 */
-	public void addEventKnowledge(double previousScore, int previousNumEvents, Vector2d previousAvatarPos, 
+	public synchronized void addEventKnowledge(double previousScore, int previousNumEvents, Vector2d previousAvatarPos, 
 									Vector2d previousAvatarOrientation, ACTIONS action, StateObservation newState,
 									HashMap<Integer, Integer> previousResources, HashMap<Integer, Integer> newResources,
 									boolean playout){
-		if(!((MctsController)(Agent.controller)).allowsKnowledgeBasedEvaluation()){
+		if(!collectEventKnowledge){
 			return;
 		}
 		
@@ -411,6 +433,9 @@ public class KnowledgeBase {
 					}
 				}
 			}
+			
+			// weights, interaction distances and movement blockers may have changed
+			evalKnowledge = null;
 		}		
 	}
 	
@@ -453,13 +478,14 @@ public class KnowledgeBase {
 	 * 				but then the caller should make sure that it is not an avatar or from-avatar category
 	 * @return
 	 */
-	public int getIndexForType(int type, int category){
+	public synchronized int getIndexForType(int type, int category){
 		int idx = typesToIndexMap.get(type);
 		
 		if(idx >= 0){	// valid idx
-			if(category > -1){
+			if(category > -1 && typeCategories.getQuick(idx) != category){
 				// we might have previously set an invalid category, so fix that here
 				typeCategories.setQuick(idx, category);
+				evalKnowledge = null;
 			}
 			
 			return idx;
@@ -487,6 +513,7 @@ public class KnowledgeBase {
 			
 			indicesToTypesList.add(type);
 			
+			evalKnowledge = null;
 			return idx;
 		}
 	}
@@ -532,7 +559,7 @@ public class KnowledgeBase {
 	 * 
 	 * @return
 	 */
-	public TIntArrayList getMovementBlockers(){
+	public synchronized TIntArrayList getMovementBlockers(){
 		TIntArrayList movementBlockers = new TIntArrayList(Constants.DEFAULT_CAPACITY, -1);
 		
 		for(int i = 0; i < eventKnowledge.size(); ++i){
@@ -652,12 +679,16 @@ public class KnowledgeBase {
 	 * @return
 	 */
 	public double knowledgeBasedEval(StateObservation state){
+		// the distance features are computed without locking, from a snapshot of the knowledge they need
+		EvalKnowledge knowledge = getEvalKnowledge();
+		final int numTypes = knowledge.distFeatureWeights.length;
+		
 		// array to store best distance for every type TODO dont think we actually still need this array
-		TIntArrayList minDistances = new TIntArrayList(typesToIndexMap.size());
+		TIntArrayList minDistances = new TIntArrayList(numTypes);
 		// will store here, at index i, an ArrayList of all cells in which we observed objects of type i
-		ArrayList<ArrayList<OrderedIntPair>> observationCells = new ArrayList<ArrayList<OrderedIntPair>>(typesToIndexMap.size());
+		ArrayList<ArrayList<OrderedIntPair>> observationCells = new ArrayList<ArrayList<OrderedIntPair>>(numTypes);
 		
-		for(int i = 0; i < typesToIndexMap.size(); ++i){
+		for(int i = 0; i < numTypes; ++i){
 			minDistances.add(maxDistance);		// max possible distance as initial value for every type
 			observationCells.add(new ArrayList<OrderedIntPair>());
 		}
@@ -669,10 +700,10 @@ public class KnowledgeBase {
 		int height = observationGrid[0].length;
 		
 		boolean[][] blockedGrid = new boolean[width][height];
-		TIntArrayList movementBlockers = getMovementBlockers();
+		final TIntArrayList movementBlockers = knowledge.movementBlockers;
 		
-		TIntArrayList numObservationsPerType = new TIntArrayList(maxNumObservationsPerType.size(), -1);
-		numObservationsPerType.fill(0, maxNumObservationsPerType.size(), 0);
+		TIntArrayList numObservationsPerType = new TIntArrayList(numTypes, -1);
+		numObservationsPerType.fill(0, numTypes, 0);
 		
 		// will collect cells in which Movables are located in this arraylist
 		ArrayList<OrderedIntPair> movablesCells = new ArrayList<OrderedIntPair>();
@@ -695,10 +726,19 @@ public class KnowledgeBase {
 						blockedGrid[x][y] = true;
 					}
 					
-					int typeIdx = getIndexForType(type, category);
+					int typeIdx = knowledge.typesToIndexMap.get(type);
 					
-					if(typeIdx == minDistances.size()){
-						// didn't encounter sprites of this type yet, so add new entries
+					if(typeIdx < 0 ? !(isAvatarCategory(category) || isFromAvatarCategory(category)) 
+								   : (category > -1 && knowledge.typeCategories[typeIdx] != category)){
+						// a new type, or a type of which the category was not known yet, so need to update the
+						// knowledge base (rare), and continue with a snapshot that includes the update
+						typeIdx = getIndexForType(type, category);
+						knowledge = getEvalKnowledge();
+					}
+					
+					while(typeIdx >= minDistances.size()){
+						// didn't encounter sprites of this type yet (other threads may also have registered new types 
+						// since we took our snapshot), so add new entries
 						minDistances.add(maxDistance);
 						observationCells.add(new ArrayList<OrderedIntPair>());
 						numObservationsPerType.add(0);
@@ -726,7 +766,7 @@ public class KnowledgeBase {
 						movablesCells.add(cell);
 					}
 					
-					if(getDistFeatureWeight(typeIdx) > 0.5){
+					if(knowledge.distFeatureWeights[typeIdx] > 0.5){
 						// seems like a good object to collide with, so it's important
 						importantCells.add(cell);
 					}
@@ -739,11 +779,11 @@ public class KnowledgeBase {
 		
 		//System.out.println();
 		for(int i = 0; i < minDistances.size(); ++i){
-			if(isWeightRelevant(i, 0.0001)){
+			if(Math.abs(knowledge.distFeatureWeights[i]) >= 0.0001){
 				// this type has a relevant weight, so need to compute minimum distance for it
 				ArrayList<OrderedIntPair> obsList = observationCells.get(i);
 				
-				if(averageInteractionDistances.getQuick(i) < 3.0){
+				if(knowledge.averageInteractionDistances[i] < 3.0){
 					// cannot interact from distance, so need exact distances
 					
 					// some code to print what our lists that we want to sort look like
@@ -799,124 +839,131 @@ public class KnowledgeBase {
 					}
 				}
 				
-				double weight = getDistFeatureWeight(i);
+				double weight = knowledge.distFeatureWeights[i];
 				//System.out.println("Weight for type " + indicesToTypesList.get(i) + " = " + distFeatureWeights.get(i));
-				double deltaDistance = rootShortestDistances.getQuick(i) - minDistances.getQuick(i);
+				double deltaDistance = knowledge.rootShortestDistances[i] - minDistances.getQuick(i);
 				//System.out.println("modifying eval by (" + weight + " * " + deltaDistance + ") for type " + indicesToTypesList.getQuick(i));
 				eval += (weight * deltaDistance);
 			}
 		}
 		//System.out.println();
 		
-		MIN_KB_EVAL = Math.min(MIN_KB_EVAL, eval);
-		MAX_KB_EVAL = Math.max(MAX_KB_EVAL, eval);
-		
-		// normalise event-based eval to [0.0, 0.5]
-		eval = 0.5 * Globals.normalise(eval, MIN_KB_EVAL, MAX_KB_EVAL);
+		// normalisation bounds (and the maximum numbers of observations per type) are updated by every evaluation
+		double blockingObservationsEval;
+		double resourceEval;
+		double dangerousObservationsEval;
 		
-		// compute eval for num observations of blocking types
-		double blockingObservationsEval = 0.0;
-		boolean fewerBlockingsThanRoot = false;
-				
-		for(int i = 0; i < movementBlockers.size(); ++i){
-			int blockingType = movementBlockers.getQuick(i);
+		synchronized(this){
+			MIN_KB_EVAL = Math.min(MIN_KB_EVAL, eval);
+			MAX_KB_EVAL = Math.max(MAX_KB_EVAL, eval);
+			
+			// normalise event-based eval to [0.0, 0.5]
+			eval = 0.5 * Globals.normalise(eval, MIN_KB_EVAL, MAX_KB_EVAL);
+			
+			// compute eval for num observations of blocking types
+			blockingObservationsEval = 0.0;
+			boolean fewerBlockingsThanRoot = false;
 					
-			if(blockingType != 0){	// dont want to take walls into account here
-				int blockingTypeIdx = typesToIndexMap.get(blockingType);
-				int numObservations = numObservationsPerType.getQuick(blockingTypeIdx);
-				int maxNumObservations = maxNumObservationsPerType.getQuick(blockingTypeIdx);
+			for(int i = 0; i < movementBlockers.size(); ++i){
+				int blockingType = movementBlockers.getQuick(i);
 						
-				if(numObservations > maxNumObservations){
-					maxNumObservations = numObservations;
-					maxNumObservationsPerType.setQuick(i, numObservations);
-				}
-				
-				if(numObservations < rootNumObservationsPerType.getQuick(blockingTypeIdx)){
-					fewerBlockingsThanRoot = true;
+				if(blockingType != 0){	// dont want to take walls into account here
+					int blockingTypeIdx = typesToIndexMap.get(blockingType);
+					int numObservations = numObservationsPerType.getQuick(blockingTypeIdx);
+					int maxNumObservations = maxNumObservationsPerType.getQuick(blockingTypeIdx);
+							
+					if(numObservations > maxNumObservations){
+						maxNumObservations = numObservations;
+						maxNumObservationsPerType.setQuick(i, numObservations);
+					}
+					
+					if(numObservations < rootNumObservationsPerType.getQuick(blockingTypeIdx)){
+						fewerBlockingsThanRoot = true;
+					}
+							
+					blockingObservationsEval += (double)numObservations / maxNumObservations;
 				}
-						
-				blockingObservationsEval += (double)numObservations / maxNumObservations;
 			}
-		}
-						
-		// normalise to [0.0, 0.05]
-		MIN_BLOCKING_OBSERVATIONS_EVAL = Math.min(MIN_BLOCKING_OBSERVATIONS_EVAL, blockingObservationsEval);
-		MAX_BLOCKING_OBSERVATIONS_EVAL = Math.max(MAX_BLOCKING_OBSERVATIONS_EVAL, blockingObservationsEval);
-		blockingObservationsEval = Globals.normalise(blockingObservationsEval, MIN_BLOCKING_OBSERVATIONS_EVAL, MAX_BLOCKING_OBSERVATIONS_EVAL) * 0.05;
-		
-		// also include resources in evaluation
-		double resourceEval = 0.0;
-		int numResources = 0;
-		
-		HashMap<Integer, Integer> resources = state.getAvatarResources();
-		for(java.util.Map.Entry<Integer, Integer> entry : resources.entrySet()){
-			int key = entry.getKey();
-			int value = entry.getValue();
+							
+			// normalise to [0.0, 0.05]
+			MIN_BLOCKING_OBSERVATIONS_EVAL = Math.min(MIN_BLOCKING_OBSERVATIONS_EVAL, blockingObservationsEval);
+			MAX_BLOCKING_OBSERVATIONS_EVAL = Math.max(MAX_BLOCKING_OBSERVATIONS_EVAL, blockingObservationsEval);
+			blockingObservationsEval = Globals.normalise(blockingObservationsEval, MIN_BLOCKING_OBSERVATIONS_EVAL, MAX_BLOCKING_OBSERVATIONS_EVAL) * 0.05;
+			
+			// also include resources in evaluation
+			resourceEval = 0.0;
+			int numResources = 0;
 			
-			if(fewerBlockingsThanRoot){
-				// we reduced the number of blocking objects on the map in comparison to the root state
-				// this means that we don't want to punish any resource going 1 lower than in root state,
-				// because that is likely some kind of key we have used
-				Integer rootValue = rootResources.get(key);
-				if(rootValue != null){
-					if(value == rootValue - 1){
-						value = rootValue;
+			HashMap<Integer, Integer> resources = state.getAvatarResources();
+			for(java.util.Map.Entry<Integer, Integer> entry : resources.entrySet()){
+				int key = entry.getKey();
+				int value = entry.getValue();
+				
+				if(fewerBlockingsThanRoot){
+					// we reduced the number of blocking objects on the map in comparison to the root state
+					// this means that we don't want to punish any resource going 1 lower than in root state,
+					// because that is likely some kind of key we have used
+					Integer rootValue = rootResources.get(key);
+					if(rootValue != null){
+						if(value == rootValue - 1){
+							value = rootValue;
+						}
 					}
 				}
+				
+				int minValue = minResourceValues.containsKey(key) ? Math.min(value, minResourceValues.get(key)) : value;
+				int maxValue = maxResourceValues.containsKey(key) ? Math.max(value, maxResourceValues.get(key)) : value;
+				
+				minResourceValues.put(key, minValue);
+				maxResourceValues.put(key, maxValue);
+				
+				resourceEval += Globals.normalise(value, minValue, maxValue);
+				++numResources;
 			}
 			
-			int minValue = minResourceValues.containsKey(key) ? Math.min(value, minResourceValues.get(key)) : value;
-			int maxValue = maxResourceValues.containsKey(key) ? Math.max(value, maxResourceValues.get(key)) : value;
+			int hp = state.getAvatarHealthPoints();
+			minHealthValue = Math.min(hp, minHealthValue);
+			maxHealthValue = Math.max(hp, maxHealthValue);
 			
-			minResourceValues.put(key, minValue);
-			maxResourceValues.put(key, maxValue);
+			if(minHealthValue < maxHealthValue){
+				resourceEval += Globals.normalise(hp, minHealthValue, maxHealthValue);
+				++numResources;
+			}
 			
-			resourceEval += Globals.normalise(value, minValue, maxValue);
-			++numResources;
-		}
-		
-		int hp = state.getAvatarHealthPoints();
-		minHealthValue = Math.min(hp, minHealthValue);
-		maxHealthValue = Math.max(hp, maxHealthValue);
-		
-		if(minHealthValue < maxHealthValue){
-			resourceEval += Globals.normalise(hp, minHealthValue, maxHealthValue);
-			++numResources;
-		}
-		
-		// compute average resource value
-		if(numResources > 0){
-			resourceEval /= numResources;
-		}
+			// compute average resource value
+			if(numResources > 0){
+				resourceEval /= numResources;
+			}
 
-		// normalise resource-based eval to [0.0, 0.25]
-		resourceEval *= 0.25;
-		
-		// compute eval for num observations of dangerous types
-		double dangerousObservationsEval = 0.0;
-		
-		for(int i = 0; i < numObservationsPerType.size(); ++i){
-			double weight = distFeatureWeights.getQuick(i);
-			int numObservations = numObservationsPerType.getQuick(i);
-			int maxNumObservations = maxNumObservationsPerType.getQuick(i);
+			// normalise resource-based eval to [0.0, 0.25]
+			resourceEval *= 0.25;
 			
-			if(numObservations > maxNumObservations){
-				maxNumObservations = numObservations;
-				maxNumObservationsPerType.setQuick(i, numObservations);
-			}
+			// compute eval for num observations of dangerous types
+			dangerousObservationsEval = 0.0;
 			
-			if(weight < 0.0){	// dangerous type
-				// the difference will be negative if we reduce the number of dangerous types there are
-				// multiplied by a negative weight, this will give us a positive reward
-				dangerousObservationsEval += (numObservations - maxNumObservations) * weight;
+			for(int i = 0; i < numObservationsPerType.size(); ++i){
+				double weight = distFeatureWeights.getQuick(i);
+				int numObservations = numObservationsPerType.getQuick(i);
+				int maxNumObservations = maxNumObservationsPerType.getQuick(i);
+				
+				if(numObservations > maxNumObservations){
+					maxNumObservations = numObservations;
+					maxNumObservationsPerType.setQuick(i, numObservations);
+				}
+				
+				if(weight < 0.0){	// dangerous type
+					// the difference will be negative if we reduce the number of dangerous types there are
+					// multiplied by a negative weight, this will give us a positive reward
+					dangerousObservationsEval += (numObservations - maxNumObservations) * weight;
+				}
 			}
+			
+			// normalise to [0.0, 0.05]
+			MIN_DANGEROUS_TYPES_EVAL = Math.min(MIN_DANGEROUS_TYPES_EVAL, dangerousObservationsEval);
+			MAX_DANGEROUS_TYPES_EVAL = Math.max(MAX_DANGEROUS_TYPES_EVAL, dangerousObservationsEval);
+			dangerousObservationsEval = Globals.normalise(dangerousObservationsEval, MIN_DANGEROUS_TYPES_EVAL, MAX_DANGEROUS_TYPES_EVAL) * 0.05;
 		}
 		
-		// normalise to [0.0, 0.05]
-		MIN_DANGEROUS_TYPES_EVAL = Math.min(MIN_DANGEROUS_TYPES_EVAL, dangerousObservationsEval);
-		MAX_DANGEROUS_TYPES_EVAL = Math.max(MAX_DANGEROUS_TYPES_EVAL, dangerousObservationsEval);
-		dangerousObservationsEval = Globals.normalise(dangerousObservationsEval, MIN_DANGEROUS_TYPES_EVAL, MAX_DANGEROUS_TYPES_EVAL) * 0.05;
-		
 		// with this, we'll punish movables that are touching obstacles, because them touching obstacles makes
 		// it more difficult for us to push them around (which may be necessary for victory)
 		double obstacleTouchingMovablesPenalty = 0.0;
@@ -988,6 +1035,46 @@ public class KnowledgeBase {
 		return eval + resourceEval + dangerousObservationsEval - obstacleTouchingMovablesPenalty - stuckObjectsPenalty - blockingObservationsEval;
 	}
 	
+	/**
+	 * Returns the snapshot of the knowledge used by the distance features of knowledgeBasedEval(), building
+	 * a new one if the knowledge was modified since the last snapshot was built
+	 * 
+	 * @return
+	 */
+	private EvalKnowledge getEvalKnowledge(){
+		EvalKnowledge knowledge = evalKnowledge;
+		
+		if(knowledge == null){
+			synchronized(this){
+				knowledge = evalKnowledge;
+				
+				if(knowledge == null){
+					final int numTypes = typesToIndexMap.size();
+					TIntIntHashMap typesToIndexMapCopy = new TIntIntHashMap(2 * numTypes + 8, Constants.DEFAULT_LOAD_FACTOR, -1, -1);
+					typesToIndexMapCopy.putAll(typesToIndexMap);
+					
+					double[] weights = new double[numTypes];
+					double[] interactionDistances = new double[numTypes];
+					int[] shortestDistances = new int[numTypes];
+					int[] categories = new int[numTypes];
+					
+					for(int i = 0; i < numTypes; ++i){
+						weights[i] = getDistFeatureWeight(i);
+						interactionDistances[i] = averageInteractionDistances.getQuick(i);
+						shortestDistances[i] = rootShortestDistances.getQuick(i);
+						categories[i] = typeCategories.getQuick(i);
+					}
+					
+					knowledge = new EvalKnowledge(typesToIndexMapCopy, weights, interactionDistances, shortestDistances, 
+												  categories, getMovementBlockers());
+					evalKnowledge = knowledge;
+				}
+			}
+		}
+		
+		return knowledge;
+	}
+	
 	public OrderedIntPair positionToCell(Vector2d position){
 		int x = ((int) position.x) / pixelsPerBlock;
 		int y = ((int) position.y) / pixelsPerBlock;
@@ -1018,19 +1105,21 @@ public class KnowledgeBase {
 				")]";
 	}
 	
-	public void update(StateObservation stateObs){
+	public synchronized void update(StateObservation stateObs){
 		// slightly increase all the distance feature weights over time to reward exploration
 		for(int i = 0; i < distFeatureWeights.size(); ++i){
 			distFeatureWeights.set(i, distFeatureWeights.get(i) + 0.0001);
 		}
 		
+		evalKnowledge = null;
+		
 		OrderedIntPair avatarCell = positionToCell(stateObs.getAvatarPosition());
 		if(isValidCell(avatarCell)){
 			pheromones[avatarCell.first][avatarCell.second] += 1;
 		}
 	}
 	
-	public void updateRoot(StateObservation rootState){
+	public synchronized void updateRoot(StateObservation rootState){
 		rootResources = rootState.getAvatarResources();
 		
 		// we'll compute the current shortest distances to objects of every type so we can compute change in distances
@@ -1139,6 +1228,8 @@ public class KnowledgeBase {
 				}
 			}
 		}
+		
+		evalKnowledge = null;
 	}
 	
 	private void classifyGame(StateObservation initialGameState){
@@ -1166,16 +1257,14 @@ public class KnowledgeBase {
 		// generate the action sequences
 		for(int i = 0; i < numRandomActionSequences; ++i){
 			for(int j = 0; j < randomActionSequenceLength; ++j){
-				randomActionSequences[i][j] = actions.get(Globals.RNG.nextInt(numActions));
+				randomActionSequences[i][j] = actions.get(Globals.getRNG().nextInt(numActions));
 			}
 		}
 		
 		// play out the random sequences and see if resulting state observations are equivalent
-		// (using hash values for ''equality'')
-		final int prime = 31;
-		
+		// (using fingerprints for ''equality'')
 		for(int seq = 0; seq < numRandomActionSequences; ++seq){
-			int[] finalStateHashValues = new int[numRepetitionsPerActionSequence];
+			long[] finalStateFingerprints = new long[numRepetitionsPerActionSequence];
 			
 			for(int rep = 0; rep < numRepetitionsPerActionSequence; ++rep){
 				StateObservation state = initialGameState.copy();
@@ -1188,9 +1277,7 @@ public class KnowledgeBase {
 					++actionIdx;
 				}
 				
-				// compute hash value for this state
-				int hash = 1;
-				
+				// check for NPCs that spawned
 				ArrayList<Observation>[][] observationGrid = state.getObservationGrid();
 				int width = observationGrid.length;
 				int height = observationGrid[0].length;
@@ -1207,18 +1294,15 @@ public class KnowledgeBase {
 								gameClassification = GameClassifications.NONDETERMINISTIC;
 								return;
 							}
-							
-							// incorporate this observation's location and type in our hash value
-							hash = prime * hash + (positionToInt(observation.position) * observation.itype);
 						}
 					}
 				}
 				
-				finalStateHashValues[rep] = hash;
+				finalStateFingerprints[rep] = StateFingerprint.compute(state);
 				
 				if(rep > 0){
-					// compare hash value with previous hash value; if not equal, we have a nondeterministic game
-					if(finalStateHashValues[rep] != finalStateHashValues[rep - 1]){
+					// compare fingerprint with previous fingerprint; if not equal, we have a nondeterministic game
+					if(finalStateFingerprints[rep] != finalStateFingerprints[rep - 1]){
 						gameClassification = GameClassifications.NONDETERMINISTIC;
 						return;
 					}
@@ -1322,4 +1406,33 @@ public class KnowledgeBase {
 		}*/
 	}
 
+	/**
+	 * Immutable snapshot of the knowledge used by the distance features of knowledgeBasedEval(), such that
+	 * evaluations can compute them without holding our lock
+	 */
+	private static final class EvalKnowledge {
+		/** Copy of typesToIndexMap */
+		public final TIntIntHashMap typesToIndexMap;
+		/** At index i, the weight of the distance feature for the type indexed by i (see getDistFeatureWeight()) */
+		public final double[] distFeatureWeights;
+		/** Copy of averageInteractionDistances */
+		public final double[] averageInteractionDistances;
+		/** Copy of rootShortestDistances */
+		public final int[] rootShortestDistances;
+		/** Copy of typeCategories */
+		public final int[] typeCategories;
+		/** The types that are considered to block movement (see getMovementBlockers()) */
+		public final TIntArrayList movementBlockers;
+		
+		public EvalKnowledge(TIntIntHashMap typesToIndexMap, double[] distFeatureWeights, double[] averageInteractionDistances,
+							 int[] rootShortestDistances, int[] typeCategories, TIntArrayList movementBlockers){
+			this.typesToIndexMap = typesToIndexMap;
+			this.distFeatureWeights = distFeatureWeights;
+			this.averageInteractionDistances = averageInteractionDistances;
+			this.rootShortestDistances = rootShortestDistances;
+			this.typeCategories = typeCategories;
+			this.movementBlockers = movementBlockers;
+		}
+	}
+
 }
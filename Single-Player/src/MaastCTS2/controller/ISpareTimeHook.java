@@ -0,0 +1,27 @@
+package MaastCTS2.controller;
+
+import ontology.Types.ACTIONS;
+import tools.ElapsedCpuTimer;
+import core.game.StateObservation;
+
+/**
+ * Interface for work that MctsController can do with the time that is left after terminating a search early,
+ * because the decision in the root was already settled
+ *
+ * @author Dennis Soemers
+ */
+public interface ISpareTimeHook {
+	
+	/**
+	 * Called at the end of chooseAction(), after a search was terminated early. Should return before the given
+	 * timer runs out (taking into account MctsController.TIME_BUFFER_MILLISEC)
+	 * 
+	 * @param controller The controller that terminated its search early
+	 * @param rootStateObs The state from which the search started. May be modified
+	 * @param chosenAction The action that will be played
+	 * @param elapsedTimer The timer of chooseAction()
+	 */
+	public void useSpareTime(MctsController controller, StateObservation rootStateObs, ACTIONS chosenAction, 
+								ElapsedCpuTimer elapsedTimer);
+
+}
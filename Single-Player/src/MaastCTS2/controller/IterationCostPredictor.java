@@ -0,0 +1,175 @@
+package MaastCTS2.controller;
+
+/**
+ * Streaming model of the durations of MCTS iterations, used by MctsController to decide whether there is still
+ * enough time left for another iteration.
+ *
+ * <p> Durations are collected in a histogram with logarithmically sized buckets (4 buckets per doubling of
+ * the duration, so every bucket is at most 25% wide), which allows for cheap estimates of high quantiles of
+ * the cost of an iteration. Predictions are rounded up to the upper bound of a bucket. Whenever a new search
+ * starts, the weights of all previous durations are decayed, so that the model follows changes in the cost of
+ * iterations throughout a game without forgetting about rare expensive iterations immediately.
+ *
+ * <p> Not thread-safe. Every controller has its own predictor.
+ *
+ * @author Dennis Soemers
+ *
+ */
+public class IterationCostPredictor {
+
+	/** The number of buckets per doubling of the duration */
+	private static final int BUCKETS_PER_DOUBLING = 4;
+	/** log2(BUCKETS_PER_DOUBLING) */
+	private static final int LOG2_BUCKETS_PER_DOUBLING = 2;
+	/** Enough buckets for durations of up to 2^40 nanoseconds (about 18 minutes) */
+	private static final int NUM_BUCKETS = 41 * BUCKETS_PER_DOUBLING;
+
+	/** (Decayed) number of observed durations per bucket */
+	private final double[] bucketWeights = new double[NUM_BUCKETS];
+	/** Sum of all the bucket weights */
+	private double totalWeight;
+	/** Index of the highest bucket with a non-zero weight */
+	private int maxBucket;
+
+	/** The quantile of the cost of an iteration that we predict */
+	private final double quantile;
+	/** Factor by which the weights of old durations are multiplied when a new search starts */
+	private final double decay;
+	/** The predicted cost (in nanoseconds) as long as we have not observed any iterations yet */
+	private final long priorNanos;
+
+	/** Cached prediction, or -1 if it needs to be recomputed */
+	private long predictionNanos;
+
+	/**
+	 * Creates a predictor of the 99th percentile of the cost of an iteration, which halves the weights of old
+	 * durations whenever a new search starts, and predicts 12 milliseconds before it observed any iterations
+	 * (this corresponds to the safety margin that used to be taken for the first iteration)
+	 */
+	public IterationCostPredictor(){
+		this(0.99, 0.5, 12000000L);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param quantile The quantile of the cost of an iteration to predict (e.g. 0.99)
+	 * @param decay Factor in [0, 1] by which the weights of old durations are multiplied when a new search starts
+	 * @param priorNanos The prediction (in nanoseconds) as long as no iterations have been observed
+	 */
+	public IterationCostPredictor(double quantile, double decay, long priorNanos){
+		this.quantile = quantile;
+		this.decay = decay;
+		this.priorNanos = priorNanos;
+		reset();
+	}
+
+	/**
+	 * Forgets all observed durations
+	 */
+	public void reset(){
+		for(int i = 0; i <= maxBucket; ++i){
+			bucketWeights[i] = 0.0;
+		}
+
+		totalWeight = 0.0;
+		maxBucket = 0;
+		predictionNanos = -1L;
+	}
+
+	/**
+	 * Should be called at the start of every search (every call to chooseAction()). Decays the weights of
+	 * the durations observed in previous searches.
+	 */
+	public void startSearch(){
+		totalWeight = 0.0;
+
+		for(int i = 0; i <= maxBucket; ++i){
+			bucketWeights[i] *= decay;
+			totalWeight += bucketWeights[i];
+		}
+
+		predictionNanos = -1L;
+	}
+
+	/**
+	 * Records the duration of a completed iteration
+	 *
+	 * @param nanos
+	 */
+	public void addSample(long nanos){
+		int bucket = getBucket(nanos);
+		bucketWeights[bucket] += 1.0;
+		totalWeight += 1.0;
+		maxBucket = Math.max(maxBucket, bucket);
+		predictionNanos = -1L;
+	}
+
+	/**
+	 * @return The predicted quantile (in nanoseconds) of the cost of the next iteration
+	 */
+	public long predictNanos(){
+		if(predictionNanos < 0L){
+			predictionNanos = computeQuantileNanos(quantile);
+		}
+
+		return predictionNanos;
+	}
+
+	/**
+	 * Computes an upper bound on the given quantile of all observed durations
+	 *
+	 * @param q
+	 * @return
+	 */
+	public long computeQuantileNanos(double q){
+		if(totalWeight <= 0.0){
+			return priorNanos;
+		}
+
+		double targetWeight = q * totalWeight;
+		double cumulativeWeight = 0.0;
+
+		for(int i = 0; i < maxBucket; ++i){
+			cumulativeWeight += bucketWeights[i];
+
+			if(cumulativeWeight >= targetWeight){
+				return getBucketUpperBound(i);
+			}
+		}
+
+		return getBucketUpperBound(maxBucket);
+	}
+
+	/**
+	 * Computes the index of the bucket for the given duration. Durations in [2^k, 2^(k+1)) for k >= 2 are split
+	 * into 4 equally sized buckets, based on the 2 bits after the highest bit.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static int getBucket(long nanos){
+		if(nanos < BUCKETS_PER_DOUBLING){
+			return 0;
+		}
+
+		int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) ((nanos >>> (highestBit - LOG2_BUCKETS_PER_DOUBLING)) & (BUCKETS_PER_DOUBLING - 1));
+		return Math.min(NUM_BUCKETS - 1, (highestBit - 1) * BUCKETS_PER_DOUBLING + subBucket);
+	}
+
+	/**
+	 * @param bucket
+	 * @return The (exclusive) upper bound of the durations in the given bucket
+	 */
+	private static long getBucketUpperBound(int bucket){
+		if(bucket == 0){
+			return BUCKETS_PER_DOUBLING;
+		}
+
+		int highestBit = bucket / BUCKETS_PER_DOUBLING + 1;
+		int subBucket = bucket % BUCKETS_PER_DOUBLING;
+		return ((long) (BUCKETS_PER_DOUBLING + subBucket + 1)) << (highestBit - LOG2_BUCKETS_PER_DOUBLING);
+	}
+
+}
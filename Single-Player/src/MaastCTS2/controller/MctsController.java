@@ -1,17 +1,33 @@
 package MaastCTS2.controller;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import MaastCTS2.Globals;
 import MaastCTS2.KnowledgeBase;
 import MaastCTS2.gnu.trove.list.array.TIntArrayList;
 import MaastCTS2.heuristics.states.IPlayoutEvaluation;
-import MaastCTS2.model.ActionLocation;
-import MaastCTS2.model.ActionNGram;
+import MaastCTS2.model.ActionNGramTrie;
+import MaastCTS2.model.ActionStatisticsTable;
+import MaastCTS2.model.CheckpointPolicy;
 import MaastCTS2.model.MctNode;
-import MaastCTS2.model.Score;
+import MaastCTS2.model.MctNodePool;
+import MaastCTS2.model.StateCacheManager;
 import MaastCTS2.model.StateObs;
+import MaastCTS2.model.TransitionCache;
+import MaastCTS2.model.TranspositionTable;
 import MaastCTS2.move_selection.IMoveSelectionStrategy;
 import MaastCTS2.playout.IPlayoutStrategy;
 import MaastCTS2.selection.ISelectionStrategy;
@@ -21,16 +37,26 @@ import core.game.StateObservation;
 import ontology.Types.ACTIONS;
 import ontology.Types.WINNER;
 import tools.ElapsedCpuTimer;
+import tools.ElapsedCpuTimer.TimerType;
 
 public class MctsController implements IController {
 	
 	/** Buffer (in milliseconds) of the thinking time per cycle that will not be used (to make sure that an action is returned in time) */
 	public static int TIME_BUFFER_MILLISEC = 10;
 	
+	/** If not null, this calibrates TIME_BUFFER_MILLISEC based on the time at which every call to chooseAction() returns */
+	public static TimeBufferCalibrator TIME_BUFFER_CALIBRATOR = null;
+	
 	/** 
 	 * The maximum number of states we'll generate per action in the level below root for safety prepruning 
 	 */
 	public static int MAX_NUM_SAFETY_CHECKS = 3;
+	
+	/** The maximum number of entries in the transposition table (only used if the transposition table is enabled) */
+	public static int TRANSPOSITION_TABLE_CAPACITY = 1 << 16;
+	
+	/** The maximum (estimated) number of bytes used by states in the transition cache (only used if the transition cache is enabled) */
+	public static long TRANSITION_CACHE_MAX_BYTES = 32L * 1024L * 1024L;
 
 	/** Total number of iterations of the main loop of MCTS in an entire match */
 	public static int TOTAL_ITERATIONS;
@@ -38,6 +64,56 @@ public class MctsController implements IController {
 	public static int MIN_ITERATIONS_PER_GAME;
 	/** The maximum number of iterations of the main loop of MCTS in a single cycle of the match */
 	public static int MAX_ITERATIONS_PER_GAME;
+	/** Total number of searches in an entire match that were terminated early because the decision in the root was settled */
+	public static int TOTAL_SETTLED_SEARCHES;
+	/** Total time (in milliseconds) left in calls to chooseAction() in which the search was terminated early, in an entire match */
+	public static long TOTAL_SPARE_MILLISEC;
+	/** Total number of iterations of MCTS performed while pondering (in between calls to chooseAction()) in an entire match */
+	public static int TOTAL_PONDERING_ITERATIONS;
+	/** Total number of nodes taken from the pool of discarded nodes in an entire match (only with node recycling) */
+	public static long TOTAL_RECYCLED_NODES;
+	/** Total number of nodes allocated because the pool of discarded nodes was empty in an entire match (only with node recycling) */
+	public static long TOTAL_ALLOCATED_NODES;
+	/** Total time (in milliseconds) spent in garbage collection during calls to chooseAction() in an entire match */
+	public static long TOTAL_GC_MILLISEC;
+	/** Total number of lookups in the transposition table in an entire match (only with a transposition table) */
+	public static long TOTAL_TRANSPOSITION_LOOKUPS;
+	/** Total number of lookups in the transposition table that found a transposition in an entire match (only with a transposition table) */
+	public static long TOTAL_TRANSPOSITION_HITS;
+	/** Total number of entries of the transposition table that were replaced in an entire match (only with a transposition table) */
+	public static long TOTAL_TRANSPOSITION_REPLACEMENTS;
+	/** Total number of transitions found in the transition cache in an entire match (only with a transition cache) */
+	public static long TOTAL_TRANSITION_CACHE_HITS;
+	/** Total number of transitions not found in the transition cache in an entire match (only with a transition cache) */
+	public static long TOTAL_TRANSITION_CACHE_MISSES;
+	/** Total number of transitions evicted from the transition cache in an entire match (only with a transition cache) */
+	public static long TOTAL_TRANSITION_CACHE_EVICTIONS;
+	/** Total number of states admitted by the state cache manager in an entire match (only with a budget for cached states) */
+	public static long TOTAL_STATE_CACHE_ADMISSIONS;
+	/** Total number of states rejected by the state cache manager in an entire match (only with a budget for cached states) */
+	public static long TOTAL_STATE_CACHE_REJECTIONS;
+	/** Total number of states evicted by the state cache manager in an entire match (only with a budget for cached states) */
+	public static long TOTAL_STATE_CACHE_EVICTIONS;
+	/** Total number of safety prepruning runs (one per tick at most) with sequential safety testing in an entire match */
+	public static int TOTAL_SEQUENTIAL_SAFETY_TESTS;
+	/** Total number of safety checks skipped by sequential safety testing in an entire match */
+	public static long TOTAL_SKIPPED_SAFETY_CHECKS;
+	/** Total number of steps of losing action sequences that Loss Avoidance did not need to replay in an entire match */
+	public static long TOTAL_SKIPPED_REPLAY_STEPS;
+	/** Number of children of the root that were expanded with safety prepruning by depth-2 initialization in init() */
+	public static int NUM_DEPTH2_INIT_EXPANSIONS;
+	/** Sum of the intervals between checkpoints used in all ticks of an entire match (only with checkpoints) */
+	public static long TOTAL_CHECKPOINT_INTERVALS;
+	/** Number of ticks in which we used checkpoints in an entire match (only with checkpoints) */
+	public static int TOTAL_CHECKPOINT_TICKS;
+	/** Total number of saved states dropped because they were no longer at checkpoint depths in an entire match */
+	public static long TOTAL_CHECKPOINT_RELEASED_STATES;
+	/** Most recently measured average time (in nanoseconds) to copy a state (only with checkpoints) */
+	public static double CHECKPOINT_COPY_NANOS;
+	/** Most recently measured average time (in nanoseconds) to advance a state (only with checkpoints) */
+	public static double CHECKPOINT_ADVANCE_NANOS;
+	/** Statistics of the stages of pipelined MCTS in an entire match (only collected when pipelined MCTS is used) */
+	public static final PipelineStatistics PIPELINE_STATISTICS = new PipelineStatistics();
 	/** Total number of iterations of the main loop of MCTS that ended in a loss in an entire match */
 	//public static int TOTAL_LOSS_ITERATIONS;
 	
@@ -51,11 +127,18 @@ public class MctsController implements IController {
 	/** The maximum action score found so far in the entire game */
 	public double MAX_ACTION_SCORE;
 	
-	private double avgSimulationTime;
+	/** Model of the cost of our MCTS iterations, used to predict whether we still have time for another iteration */
+	private final IterationCostPredictor iterationCostPredictor = new IterationCostPredictor();
+	
+	/** Predicted duration (in nanoseconds) of the next step of the current search. Set by the loops running MCTS iterations */
+	private long predictedIterationNanos;
 	
 	/** The root node of our MCTS tree */
 	private MctNode root;
 	
+	/** The node from which the MCTS iterations of this controller start. This is the root, except while pondering */
+	private MctNode searchRoot;
+	
 	/** The current game tick of the root node */
 	public int rootTick;
 	
@@ -93,19 +176,21 @@ public class MctsController implements IController {
 	
 	/** 
 	 * We'll collect statistics for n-grams of actions of all sizes n where 2 <= n <= maxActionNGramSize 
-	 * <br> (not using n-grams with n = 1 because we'll use the less computationally expensive actionStatistics EnumMap for that )
+	 * <br> (n-grams with n = 1 are stored separately, in actionStatistics)
 	 */
 	private final int maxActionNGramSize;
 	
 	/** 
-	 * Table of action statistics for use in Progressive History / MAST
+	 * Table of action statistics for use in Progressive History / MAST, with n-grams of size n = 1 as keys
+	 * <br> Leaf Parallelization and pipeline workers read the table of their master while running play-outs
 	 */
-	private final HashMap<ActionLocation, Score> actionStatistics;
+	private ActionStatisticsTable actionStatistics;
 	
 	/**
 	 * Table of action n-gram statistics for use in NST
+	 * <br> Leaf Parallelization and pipeline workers read the table of their master while running play-outs
 	 */
-	private final HashMap<ActionNGram, Score> actionNGramStatistics;
+	private ActionNGramTrie actionNGramStatistics;
 	
 	/** Factor with which to decay action statistics */
 	private final double actionDecayFactor = 0.6;
@@ -117,19 +202,219 @@ public class MctsController implements IController {
 	private final boolean knowledgeBasedEval;
 	private final boolean alwaysKB;
 	
-	public static int NUM_ADVANCE_OPS;
+	/** The number of advance() calls performed in the current MCTS iteration of this controller */
+	public int NUM_ADVANCE_OPS;
 	
 	/** 
 	 * The very first state generated by the selection step is evaluated, and the corresponding evaluation is stored here 
 	 * this is done to give a small punishment to very short-term decisions (such as staying in the same place for too long)
 	 */
-	public static double ONE_STEP_EVAL = 0.0;
+	public double ONE_STEP_EVAL = 0.0;
 	
-	/** In deterministic games, nodes with this many visits will start caching the state instead of re-generating the same state */
+	/** 
+	 * In deterministic games, nodes with this many visits will start caching the state instead of re-generating the same state.
+	 * Only used if we don't have a budget for cached states (see setStateCacheBudget())
+	 */
 	public static final int DETERMINISTIC_STATE_CACHE_VISIT_THRESHOLD = 3;
 	
 	private final boolean treeReuse;	
 	private final boolean noTreeReuseBFTI;
+	
+	/** 
+	 * The number of threads to use for Root Parallelization. Every thread grows an independent tree from its
+	 * own copy of the root state, and the statistics of the root's children are merged before selecting a move.
+	 * A value of 1 means that we search in the calling thread only
+	 */
+	private int numRootParallelThreads = 1;
+	
+	/** Controllers owning the independent trees grown by the additional threads of Root Parallelization */
+	private MctsController[] rootParallelWorkers = null;
+	
+	/**
+	 * The number of threads to use for Tree Parallelization. All threads run MCTS iterations on the same
+	 * tree, using virtual losses to spread out over different parts of the tree.
+	 * A value of 1 means that we search in the calling thread only
+	 */
+	private int numTreeParallelThreads = 1;
+	
+	/** 
+	 * Controllers used by the additional threads of Tree Parallelization. They share our tree, but every worker
+	 * has its own action statistics, score bounds and per-iteration data 
+	 */
+	private MctsController[] treeParallelWorkers = null;
+	
+	/** True if the tree of this controller is searched by multiple threads at the same time (Tree Parallelization) */
+	private boolean sharedTree = false;
+	
+	/**
+	 * The number of play-outs to run in parallel from every node returned by the selection step (Leaf Parallelization).
+	 * All results are backed up at once, after all play-outs of a batch have finished.
+	 * A value of 1 means that we run a single play-out in the calling thread only
+	 */
+	private int numLeafParallelPlayouts = 1;
+	
+	/** Controllers used by the additional threads of Leaf Parallelization to run play-outs on our tree */
+	private MctsController[] leafParallelWorkers = null;
+	
+	/**
+	 * The number of worker threads of pipelined MCTS. The calling thread keeps selecting nodes (with virtual losses)
+	 * and putting them in a bounded queue, the workers run play-outs and evaluations from those nodes, and the calling
+	 * thread backs up the results in between selections. A value of 0 means that we do not use pipelined MCTS
+	 */
+	private int numPipelineWorkers = 0;
+	
+	/** Controllers used by the worker threads of pipelined MCTS to run play-outs on our tree */
+	private MctsController[] pipelineWorkers = null;
+	
+	/** Queue of selected nodes waiting for a pipeline worker */
+	private BlockingQueue<PipelineTask> pipelineLeafQueue = null;
+	/** Queue of completed play-outs of pipeline workers, waiting to be backed up */
+	private BlockingQueue<PipelineTask> pipelineResultQueue = null;
+	
+	/** Threads running the searches or play-outs of any of our workers */
+	private ExecutorService workerPool = null;
+	
+	/** The number of threads among which the simulations of safety prepruning are divided (1 to run them all in this thread) */
+	private int numSafetyCheckThreads = 1;
+	
+	/** Threads running simulations of safety prepruning in addition to this thread (null if we run them all in this thread) */
+	private ExecutorService safetyCheckPool = null;
+	
+	/** 
+	 * If true, safety prepruning stops running safety checks for actions as soon as the outcome of the prepruning
+	 * can no longer change for them (see decideSafetyChecks()), instead of always running MAX_NUM_SAFETY_CHECKS rounds
+	 */
+	private boolean sequentialSafetyTesting = false;
+	
+	/** 
+	 * If true (and initBreadthFirst is true), init() builds a safety-checked tree of depth 2 before running MCTS, 
+	 * instead of only safety-checking the children of the root
+	 */
+	private boolean depth2Initialization = false;
+	
+	/** 
+	 * The game tick for which generateDepth2Tree() already prepared the tree (-1 if none), such that the next search
+	 * in that same tick does not prepare it (and update the Knowledge Base root) again
+	 */
+	private int preparedTreeTick = -1;
+	
+	/**
+	 * If true, Loss Avoidance (exploreLosingActionSequence()) reuses states saved along the losing path instead of
+	 * replaying the entire path from the root, and caches the state of the pre-loss node for later use
+	 */
+	private boolean lossAvoidanceStateReuse = false;
+	
+	/** 
+	 * If true, we keep searching in a background thread after returning an action from chooseAction(), until 
+	 * chooseAction() is called again. This search continues in the subtree of the chosen action, which should 
+	 * become our new root through tree reuse
+	 */
+	private boolean pondering = false;
+	
+	/** The maximum duration (in milliseconds) of a single pondering search, in case chooseAction() is never called again */
+	private static final long MAX_PONDERING_MILLISEC = 1000L;
+	
+	/** The thread used for pondering */
+	private ExecutorService ponderingThread = null;
+	
+	/** Result of the pondering search that is currently running (null if we're not pondering) */
+	private Future<Integer> ponderingResult = null;
+	
+	/** Set to true to make the pondering search stop (aborting its current iteration) */
+	private volatile boolean stopPondering = false;
+	
+	/** 
+	 * Time (measured using System.nanoTime()) at which a running MCTS iteration should be aborted, which is the time at
+	 * which the time buffer starts. Long.MAX_VALUE when no time-limited MCTS iterations are running
+	 */
+	private long hardDeadlineNanos = Long.MAX_VALUE;
+	
+	/** If > 0, every search stops after this many MCTS iterations, instead of when running out of time */
+	private int iterationBudget = 0;
+	
+	/** If > 0, every search stops after this many calls to advance() in MCTS iterations, instead of when running out of time */
+	private long advanceOpsBudget = 0L;
+	
+	/** 
+	 * If not null, the RNG of the thread running the search is re-seeded with this seed (combined with the game tick) 
+	 * at the start of every search, so that searches with a fixed budget are reproducible
+	 */
+	private Long randomSeed = null;
+	
+	/** 
+	 * If true, a search is terminated early once the decision in the root is settled, i.e. once the most visited child of
+	 * the root can no longer be caught up in visits by another child in the (predicted) number of iterations we have left
+	 */
+	private boolean earlyTermination = false;
+	
+	/** How often (in iterations) we check whether the decision in the root is settled */
+	private static final int SETTLED_DECISION_CHECK_INTERVAL = 16;
+	
+	/** The minimum number of visits of the root before we consider the decision in the root to be settled */
+	private static final double MIN_ROOT_VISITS_SETTLED = 50.0;
+	
+	/** Set to true when the current search has been terminated early because the decision in the root was settled */
+	private boolean searchTerminatedEarly = false;
+	
+	/** Called to use the time that is left after terminating a search early (null to simply return early) */
+	private ISpareTimeHook spareTimeHook = null;
+	
+	/** If true, nodes of subtrees discarded by Tree Reuse are recycled through nodePool */
+	private boolean nodeRecycling = false;
+	
+	/** 
+	 * Pool of nodes of discarded subtrees from which new nodes are created (null if nodes are not recycled).
+	 * Shared with the workers that expand our tree (Tree / Leaf Parallelization, pipelining)
+	 */
+	private MctNodePool nodePool = null;
+	
+	/** If true, nodes that reach the same state in deterministic games share statistics through transpositionTable */
+	private boolean useTranspositionTable = false;
+	
+	/** 
+	 * Transposition table for deterministic games (null if we don't use one). Shared with all workers, also with
+	 * Root Parallelization workers, such that their trees also share statistics of the states they all reach
+	 */
+	private TranspositionTable transpositionTable = null;
+	
+	/** If true, transitions in deterministic games are cached in transitionCache */
+	private boolean useTransitionCache = false;
+	
+	/** Cache of transitions for deterministic games (null if we don't use one). Shared with all workers */
+	private TransitionCache transitionCache = null;
+	
+	/** The maximum (estimated) number of bytes used by states cached in nodes (0 or less for no budget) */
+	private long stateCacheBudget = 0L;
+	
+	/** 
+	 * Keeps the states cached in the nodes of our tree within stateCacheBudget (null if there is no budget).
+	 * Shared with all workers, such that the budget holds for the entire agent
+	 */
+	private StateCacheManager stateCacheManager = null;
+	
+	/** 
+	 * The fraction of additional CPU time we're willing to spend on replaying actions from checkpoints to save memory
+	 * in deterministic games (negative if we don't use checkpoints)
+	 */
+	private double checkpointCpuOverhead = -1.0;
+	
+	/** Decides at which depths states are saved in deterministic games (null if we don't use checkpoints). Shared with all workers */
+	private CheckpointPolicy checkpointPolicy = null;
+	/** 
+	 * Number of saved states that this controller dropped from its own tree because they were no longer at checkpoint 
+	 * depths, since this controller (or the controller of which this is a worker) last added it to the match total
+	 */
+	private long numCheckpointReleasedStates = 0L;
+	
+	/** The node for which this controller most recently set a state observation in the current MCTS iteration */
+	private MctNode currentNode = null;
+	/** The state observation that this controller most recently set in currentNode */
+	private StateObservation currentStateObs = null;
+	/** If true, currentStateObs is shared (saved in a node or cached), and should be copied before modifying it */
+	private boolean currentStateObsShared = false;
+	
+	/** The deepest node to which the current MCTS iteration of this controller added a virtual loss */
+	private MctNode virtualLossLeaf = null;
 
 	public MctsController(ISelectionStrategy selectionStrategy, 
 							IPlayoutStrategy playoutStrategy, IMoveSelectionStrategy moveSelectionStrategy, 
@@ -159,10 +444,10 @@ public class MctsController implements IController {
 				maxActionNGramSize > 0);
 		
 		if(collectActionStatistics){
-			actionStatistics = new HashMap<ActionLocation, Score>();
+			actionStatistics = new ActionStatisticsTable();
 			
 			if(maxActionNGramSize > 1){
-				actionNGramStatistics = new HashMap<ActionNGram, Score>();
+				actionNGramStatistics = new ActionNGramTrie();
 			}
 			else{
 				actionNGramStatistics = null;
@@ -174,12 +459,230 @@ public class MctsController implements IController {
 		}
 	}
 
+	/**
+	 * Sets the number of threads to use for Root Parallelization. Should be called before init().
+	 * The different forms of parallelization cannot be combined, so this disables any other form that was set before
+	 * 
+	 * @param numThreads
+	 */
+	public void setNumRootParallelThreads(int numThreads){
+		disableParallelization();
+		numRootParallelThreads = Math.max(1, numThreads);
+	}
+	
+	/**
+	 * Sets the number of threads to use for Tree Parallelization. Should be called before init().
+	 * The different forms of parallelization cannot be combined, so this disables any other form that was set before
+	 * 
+	 * @param numThreads
+	 */
+	public void setNumTreeParallelThreads(int numThreads){
+		disableParallelization();
+		numTreeParallelThreads = Math.max(1, numThreads);
+	}
+	
+	/**
+	 * Sets the number of play-outs to run in parallel (each in its own thread) from every node returned by 
+	 * the selection step (Leaf Parallelization). Should be called before init().
+	 * The different forms of parallelization cannot be combined, so this disables any other form that was set before
+	 * 
+	 * @param numPlayouts
+	 */
+	public void setNumLeafParallelPlayouts(int numPlayouts){
+		disableParallelization();
+		numLeafParallelPlayouts = Math.max(1, numPlayouts);
+	}
+	
+	/**
+	 * Sets the number of worker threads for pipelined MCTS (0 to disable it). Should be called before init().
+	 * The different forms of parallelization cannot be combined, so this disables any other form that was set before
+	 * 
+	 * @param numWorkers
+	 */
+	public void setNumPipelineWorkers(int numWorkers){
+		disableParallelization();
+		numPipelineWorkers = Math.max(0, numWorkers);
+	}
+	
+	/**
+	 * Sets the number of threads among which the simulations of safety prepruning (in generateBreadthFirstTree() and
+	 * safetyPreprune()) are divided. Should be called before init(). These threads only run during safety prepruning,
+	 * so this can be combined with any form of parallelization of the search itself
+	 * 
+	 * @param numThreads
+	 */
+	public void setNumSafetyCheckThreads(int numThreads){
+		numSafetyCheckThreads = Math.max(1, numThreads);
+	}
+	
+	/**
+	 * Enables or disables sequential safety testing. If enabled, safety prepruning only runs safety checks for actions 
+	 * as long as their outcome (pruned or not) is undecided, instead of always running MAX_NUM_SAFETY_CHECKS rounds
+	 * for all actions
+	 * 
+	 * @param sequentialSafetyTesting
+	 */
+	public void setSequentialSafetyTesting(boolean sequentialSafetyTesting){
+		this.sequentialSafetyTesting = sequentialSafetyTesting;
+	}
+	
+	/**
+	 * Enables or disables depth-2 initialization. If enabled, init() uses its time to also run safety prepruning for 
+	 * the children of the safe children of the root (caching their states in the nodes), before running MCTS. 
+	 * Only has an effect with breadth-first initialization. Should be called before init()
+	 * 
+	 * @param depth2Initialization
+	 */
+	public void setDepth2Initialization(boolean depth2Initialization){
+		this.depth2Initialization = depth2Initialization;
+	}
+	
+	/**
+	 * Enables or disables the reuse of states in Loss Avoidance. If enabled, the losing action sequence is replayed
+	 * from the deepest node along it with a saved state (in deterministic games) instead of from the root, and the
+	 * replayed state of the pre-loss node is cached in that node afterwards (if it is not shared), instead of being 
+	 * discarded. Should be called before init()
+	 * 
+	 * @param lossAvoidanceStateReuse
+	 */
+	public void setLossAvoidanceStateReuse(boolean lossAvoidanceStateReuse){
+		this.lossAvoidanceStateReuse = lossAvoidanceStateReuse;
+	}
+	
+	/**
+	 * Enables or disables pondering (searching in a background thread in between calls to chooseAction()).
+	 * Should be called before init()
+	 * 
+	 * @param pondering
+	 */
+	public void setPondering(boolean pondering){
+		this.pondering = pondering;
+	}
+	
+	/**
+	 * Makes every search stop after the given number of MCTS iterations or the given number of calls to advance()
+	 * (counted by NUM_ADVANCE_OPS) in MCTS iterations, whichever comes first, instead of when running out of time. 
+	 * All other time-based decisions (such as the number of rounds of safety prepruning) are also made independent of 
+	 * time. A value of 0 means no limit, and setting both to 0 returns to normal time management. With parallelization,
+	 * the budget applies to every thread running its own iterations (Root or Tree Parallelization), or to all the 
+	 * iterations together (Leaf Parallelization or Pipelining). Meant for benchmarking, where results should not depend 
+	 * on the speed of the machine. Should be called before init()
+	 * 
+	 * @param maxIterations
+	 * @param maxAdvanceOps
+	 */
+	public void setSearchBudget(int maxIterations, long maxAdvanceOps){
+		iterationBudget = maxIterations;
+		advanceOpsBudget = maxAdvanceOps;
+	}
+	
+	/**
+	 * Makes the RNG of the thread running the search start from a seed based on the given seed and the game tick 
+	 * at the start of every search (and init()). Together with a fixed search budget (see setSearchBudget()), 
+	 * this makes a sequential search from the same state with the same tree grow the same tree again (as long as
+	 * the forward model itself is deterministic). Should be called before init()
+	 * 
+	 * @param seed
+	 */
+	public void setRandomSeed(long seed){
+		randomSeed = seed;
+	}
+	
+	/**
+	 * Enables or disables early termination of searches once the decision in the root is settled. The time that is
+	 * left can be used by a spare time hook (see setSpareTimeHook()), and otherwise by pondering if that is enabled.
+	 * Only has an effect in searches run by this thread, so not with Root Parallelization, Tree Parallelization
+	 * or Pipelining. Never has an effect with a fixed search budget
+	 * 
+	 * @param earlyTermination
+	 */
+	public void setEarlyTermination(boolean earlyTermination){
+		this.earlyTermination = earlyTermination;
+	}
+	
+	/**
+	 * Sets the hook that will use the time left after terminating a search early (null to simply return early)
+	 * 
+	 * @param spareTimeHook
+	 */
+	public void setSpareTimeHook(ISpareTimeHook spareTimeHook){
+		this.spareTimeHook = spareTimeHook;
+	}
+	
+	/**
+	 * Enables or disables recycling of the nodes of subtrees that are discarded when Tree Reuse moves the root 
+	 * to one of its children (or starts a new tree). Nodes created in subsequent searches are then taken from 
+	 * these discarded subtrees instead of being allocated (see MctNodePool). Should be called before init()
+	 * 
+	 * @param nodeRecycling
+	 */
+	public void setNodeRecycling(boolean nodeRecycling){
+		this.nodeRecycling = nodeRecycling;
+	}
+	
+	/**
+	 * Enables or disables the transposition table. If enabled, nodes that reach identical states in deterministic 
+	 * games share their statistics (see TranspositionTable). Should be called before init()
+	 * 
+	 * @param useTranspositionTable
+	 */
+	public void setTranspositionTable(boolean useTranspositionTable){
+		this.useTranspositionTable = useTranspositionTable;
+	}
+	
+	/**
+	 * Enables or disables the transition cache. If enabled, successors generated in deterministic games are cached
+	 * by the fingerprint of their predecessor and the action, such that simulating the same transition again does 
+	 * not require calling advance() (see TransitionCache). Should be called before init()
+	 * 
+	 * @param useTransitionCache
+	 */
+	public void setTransitionCache(boolean useTransitionCache){
+		this.useTransitionCache = useTransitionCache;
+	}
+	
+	/**
+	 * Sets the maximum (estimated) number of bytes used by states cached in the nodes of our tree. With a budget,
+	 * a StateCacheManager decides which states are cached (and which are evicted) based on visit counts and
+	 * recency, instead of saving states after a fixed number of visits. Should be called before init()
+	 * 
+	 * @param stateCacheBudget Number of bytes (0 or less for no budget)
+	 */
+	public void setStateCacheBudget(long stateCacheBudget){
+		this.stateCacheBudget = stateCacheBudget;
+	}
+	
+	/**
+	 * Enables or disables checkpoints. With checkpoints, nodes in deterministic games only save their states at every
+	 * k-th depth, and deeper states are regenerated by replaying actions from those checkpoints. The interval k is
+	 * adapted to the measured costs of copying and advancing states (see CheckpointPolicy). Should be called before init()
+	 * 
+	 * @param checkpointCpuOverhead The fraction of additional CPU time we're willing to spend on replaying actions 
+	 * 	to save memory (negative to disable checkpoints)
+	 */
+	public void setCheckpoints(double checkpointCpuOverhead){
+		this.checkpointCpuOverhead = checkpointCpuOverhead;
+	}
+	
+	/**
+	 * @return True if searches have a fixed budget instead of being limited by time
+	 */
+	public boolean hasFixedBudget(){
+		return (iterationBudget > 0 || advanceOpsBudget > 0L);
+	}
+	
+	private void disableParallelization(){
+		numRootParallelThreads = 1;
+		numTreeParallelThreads = 1;
+		numLeafParallelPlayouts = 1;
+		numPipelineWorkers = 0;
+	}
+
 	@Override
 	public void init(StateObservation so, ElapsedCpuTimer elapsedTimer) {
+		// the Knowledge Base is a single global, so only one agent can be active per JVM (see Globals.knowledgeBase)
 		Globals.knowledgeBase = new KnowledgeBase();
-		Globals.knowledgeBase.init(so, true);
-		
-		root = null;
+		Globals.knowledgeBase.init(so, true, knowledgeBasedEval);
 		
 		selectionStrategy.init(so, elapsedTimer);
 		playoutStrategy.init(so, elapsedTimer, this);
@@ -187,16 +690,135 @@ public class MctsController implements IController {
 		TOTAL_ITERATIONS = 0;
 		MIN_ITERATIONS_PER_GAME = Integer.MAX_VALUE;
 		MAX_ITERATIONS_PER_GAME = Integer.MIN_VALUE;
+		TOTAL_SETTLED_SEARCHES = 0;
+		TOTAL_SPARE_MILLISEC = 0L;
+		TOTAL_PONDERING_ITERATIONS = 0;
+		TOTAL_RECYCLED_NODES = 0L;
+		TOTAL_ALLOCATED_NODES = 0L;
+		TOTAL_GC_MILLISEC = 0L;
+		TOTAL_TRANSPOSITION_LOOKUPS = 0L;
+		TOTAL_TRANSPOSITION_HITS = 0L;
+		TOTAL_TRANSPOSITION_REPLACEMENTS = 0L;
+		TOTAL_TRANSITION_CACHE_HITS = 0L;
+		TOTAL_TRANSITION_CACHE_MISSES = 0L;
+		TOTAL_TRANSITION_CACHE_EVICTIONS = 0L;
+		TOTAL_STATE_CACHE_ADMISSIONS = 0L;
+		TOTAL_STATE_CACHE_REJECTIONS = 0L;
+		TOTAL_STATE_CACHE_EVICTIONS = 0L;
+		TOTAL_SEQUENTIAL_SAFETY_TESTS = 0;
+		TOTAL_SKIPPED_SAFETY_CHECKS = 0L;
+		NUM_DEPTH2_INIT_EXPANSIONS = 0;
+		TOTAL_SKIPPED_REPLAY_STEPS = 0L;
+		TOTAL_CHECKPOINT_INTERVALS = 0L;
+		TOTAL_CHECKPOINT_TICKS = 0;
+		TOTAL_CHECKPOINT_RELEASED_STATES = 0L;
+		CHECKPOINT_COPY_NANOS = 0.0;
+		CHECKPOINT_ADVANCE_NANOS = 0.0;
+		PIPELINE_STATISTICS.reset();
 		//TOTAL_LOSS_ITERATIONS = 0;
 		
-		// these initial values look weird but they're not a mistake
-		MIN_SCORE = Globals.HUGE_ENDGAME_SCORE;
-		MAX_SCORE = -Globals.HUGE_ENDGAME_SCORE;
+		nodePool = nodeRecycling ? new MctNodePool() : null;
+		transpositionTable = useTranspositionTable ? new TranspositionTable(TRANSPOSITION_TABLE_CAPACITY) : null;
+		transitionCache = useTransitionCache ? new TransitionCache(TRANSITION_CACHE_MAX_BYTES) : null;
+		stateCacheManager = (stateCacheBudget > 0L) ? new StateCacheManager(stateCacheBudget) : null;
+		checkpointPolicy = (checkpointCpuOverhead >= 0.0) ? new CheckpointPolicy(checkpointCpuOverhead) : null;
+		resetSearch();
+		iterationCostPredictor.reset();
 		
-		MIN_ACTION_SCORE = Globals.HUGE_ENDGAME_SCORE;
-		MAX_ACTION_SCORE = -Globals.HUGE_ENDGAME_SCORE;
+		shutdownWorkers();
 		
-		losingActionSequence = null;
+		if(numSafetyCheckThreads > 1){
+			// this thread is also used for safety checks, so need one thread less in the pool
+			safetyCheckPool = Executors.newFixedThreadPool(numSafetyCheckThreads - 1, new DaemonThreadFactory("MaastCTS2-safety-"));
+		}
+		
+		if(pondering){
+			ThreadPoolExecutor ponderingExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("MaastCTS2-pondering-"));
+			ponderingExecutor.prestartAllCoreThreads();		// don't want to pay for creating the thread in our first call to chooseAction()
+			ponderingThread = ponderingExecutor;
+		}
+		
+		int numWorkers = Math.max(numRootParallelThreads, Math.max(numTreeParallelThreads, numLeafParallelPlayouts)) - 1;
+		if(numPipelineWorkers > 0){
+			// all the pipeline workers are additional threads, since this thread is needed for selection and backups
+			numWorkers = numPipelineWorkers;
+		}
+		
+		if(numWorkers > 0){
+			MctsController[] workers = new MctsController[numWorkers];
+			for(int i = 0; i < workers.length; ++i){
+				workers[i] = new MctsController(selectionStrategy, playoutStrategy, moveSelectionStrategy, playoutEval, 
+												initBreadthFirst, noveltyBasedPruning, exploreLosses, knowledgeBasedEval,
+												treeReuse, treeDecayFactor, MAX_NUM_SAFETY_CHECKS, alwaysKB, noTreeReuseBFTI);
+				workers[i].resetSearch();
+				workers[i].setSearchBudget(iterationBudget, advanceOpsBudget);
+				workers[i].transpositionTable = transpositionTable;
+				workers[i].transitionCache = transitionCache;
+				workers[i].stateCacheManager = stateCacheManager;
+				workers[i].checkpointPolicy = checkpointPolicy;
+			}
+			
+			if(numRootParallelThreads > 1){
+				rootParallelWorkers = workers;
+				
+				if(nodeRecycling){
+					// every worker has its own tree, so also its own pool
+					for(MctsController worker : rootParallelWorkers){
+						worker.nodePool = new MctNodePool();
+					}
+				}
+			}
+			else if(numPipelineWorkers > 0){
+				pipelineWorkers = workers;
+				sharedTree = true;		// for the virtual losses of nodes that are still in the pipeline
+				
+				for(MctsController worker : pipelineWorkers){
+					// the workers read these while we're backing up results, which the tables allow
+					worker.actionStatistics = actionStatistics;
+					worker.actionNGramStatistics = actionNGramStatistics;
+					worker.nodePool = nodePool;
+				}
+				
+				// a bit more than one selected node per worker, such that workers never need to wait for the selection stage
+				pipelineLeafQueue = new ArrayBlockingQueue<PipelineTask>(2 * numWorkers);
+				pipelineResultQueue = new LinkedBlockingQueue<PipelineTask>();
+			}
+			else if(numLeafParallelPlayouts > 1){
+				leafParallelWorkers = workers;
+				
+				for(MctsController worker : leafParallelWorkers){
+					// the workers only run play-outs, which read but never write action statistics
+					worker.actionStatistics = actionStatistics;
+					worker.actionNGramStatistics = actionNGramStatistics;
+					worker.nodePool = nodePool;
+				}
+			}
+			else{
+				treeParallelWorkers = workers;
+				sharedTree = true;
+				
+				for(MctsController worker : treeParallelWorkers){
+					worker.sharedTree = true;
+					worker.nodePool = nodePool;
+				}
+			}
+			
+			workerPool = Executors.newFixedThreadPool(numWorkers, new DaemonThreadFactory("MaastCTS2-worker-"));
+			
+			if(pipelineWorkers != null){
+				for(final MctsController worker : pipelineWorkers){
+					workerPool.submit(new Runnable(){
+
+						@Override
+						public void run() {
+							worker.runPipelineWorker(MctsController.this);
+						}
+						
+					});
+				}
+			}
+		}
 		
 		// done with initializing. We'll use the remaining time to start a nice, long MCTS
 		
@@ -204,6 +826,11 @@ public class MctsController implements IController {
 		final int normalTimeBuffer = MctsController.TIME_BUFFER_MILLISEC;
 		MctsController.TIME_BUFFER_MILLISEC = Math.max(50, normalTimeBuffer);
 		
+		if(depth2Initialization && initBreadthFirst){
+			// the first real ticks start from a tree with safety-checked children and grandchildren of the root
+			generateDepth2Tree(so, elapsedTimer);
+		}
+		
 		// run MCTS
 		runMcts(so, elapsedTimer);
 		
@@ -214,6 +841,8 @@ public class MctsController implements IController {
 		
 		// resetting these again here to avoid having the MCTS during init messing with these numbers
 		TOTAL_ITERATIONS = 0;
+		TOTAL_SEQUENTIAL_SAFETY_TESTS = 0;
+		TOTAL_SKIPPED_SAFETY_CHECKS = 0L;
 		MIN_ITERATIONS_PER_GAME = Integer.MAX_VALUE;
 		MAX_ITERATIONS_PER_GAME = Integer.MIN_VALUE;
 		//TOTAL_LOSS_ITERATIONS = 0;
@@ -221,19 +850,291 @@ public class MctsController implements IController {
 	
 	@Override
 	public ACTIONS chooseAction(StateObservation currentStateObs, ElapsedCpuTimer elapsedTimer){
+		final long gcMillisAtStart = getTotalGcMillis();
+		stopPondering();
+		searchTerminatedEarly = false;
 		lastAction = runMcts(currentStateObs, elapsedTimer);
+		
+		if(searchTerminatedEarly){
+			++TOTAL_SETTLED_SEARCHES;
+			TOTAL_SPARE_MILLISEC += Math.max(0L, elapsedTimer.remainingTimeMillis() - TIME_BUFFER_MILLISEC);
+			
+			if(spareTimeHook != null){
+				spareTimeHook.useSpareTime(this, currentStateObs, lastAction, elapsedTimer);
+			}
+		}
+		
+		if(pondering){
+			startPondering(currentStateObs, lastAction);
+		}
+		
+		TOTAL_GC_MILLISEC += getTotalGcMillis() - gcMillisAtStart;
+		collectNodePoolStatistics();
+		
+		if(transpositionTable != null){
+			TOTAL_TRANSPOSITION_LOOKUPS += transpositionTable.getNumLookups();
+			TOTAL_TRANSPOSITION_HITS += transpositionTable.getNumHits();
+			TOTAL_TRANSPOSITION_REPLACEMENTS += transpositionTable.getNumReplacements();
+			transpositionTable.resetCounters();
+		}
+		
+		if(transitionCache != null){
+			TOTAL_TRANSITION_CACHE_HITS += transitionCache.getNumHits();
+			TOTAL_TRANSITION_CACHE_MISSES += transitionCache.getNumMisses();
+			TOTAL_TRANSITION_CACHE_EVICTIONS += transitionCache.getNumEvictions();
+			transitionCache.resetCounters();
+		}
+		
+		if(stateCacheManager != null){
+			TOTAL_STATE_CACHE_ADMISSIONS += stateCacheManager.getNumAdmittedStates();
+			TOTAL_STATE_CACHE_REJECTIONS += stateCacheManager.getNumRejectedStates();
+			TOTAL_STATE_CACHE_EVICTIONS += stateCacheManager.getNumEvictedStates();
+			stateCacheManager.resetCounters();
+		}
+		
+		if(checkpointPolicy != null){
+			// only this thread adds up the states released by all the trees
+			TOTAL_CHECKPOINT_RELEASED_STATES += numCheckpointReleasedStates;
+			numCheckpointReleasedStates = 0L;
+			
+			if(rootParallelWorkers != null){
+				for(MctsController worker : rootParallelWorkers){
+					TOTAL_CHECKPOINT_RELEASED_STATES += worker.numCheckpointReleasedStates;
+					worker.numCheckpointReleasedStates = 0L;
+				}
+			}
+		}
+		
+		if(checkpointPolicy != null && Globals.knowledgeBase.isGameDeterministic()){
+			TOTAL_CHECKPOINT_INTERVALS += checkpointPolicy.getCheckpointInterval();
+			++TOTAL_CHECKPOINT_TICKS;
+			CHECKPOINT_COPY_NANOS = checkpointPolicy.getCopyNanos();
+			CHECKPOINT_ADVANCE_NANOS = checkpointPolicy.getAdvanceNanos();
+		}
+		
+		// measured as late as possible, the slack should include everything we do before returning
+		if(TIME_BUFFER_CALIBRATOR != null){
+			TIME_BUFFER_MILLISEC = TIME_BUFFER_CALIBRATOR.recordAct(elapsedTimer.elapsed(), TIME_BUFFER_MILLISEC);
+		}
+		
 		//System.out.println("playing " + lastAction);
 		//System.out.println("Avg. score of root = " + Globals.normalise(root.getTotalScore() / root.getNumVisits(), MIN_SCORE, MAX_SCORE));
 		return lastAction;
 	}
-
-	public ACTIONS runMcts(StateObservation rootStateObs, ElapsedCpuTimer elapsedForSimulationTimer) {
-		final double oldRootScore = rootScore;
-		rootScore = rootStateObs.getGameScore();
-		rootTick = rootStateObs.getGameTick();
+	
+	/**
+	 * Makes the given calibrator (which may be null) responsible for calibrating TIME_BUFFER_MILLISEC, 
+	 * starting from the time buffer it already calibrated (or loaded) for this machine
+	 * 
+	 * @param calibrator
+	 */
+	public static void setTimeBufferCalibrator(TimeBufferCalibrator calibrator){
+		TIME_BUFFER_CALIBRATOR = calibrator;
 		
-		if(root == null){
-			root = new MctNode();
+		if(calibrator != null){
+			TIME_BUFFER_MILLISEC = calibrator.getCalibratedTimeBuffer();
+		}
+	}
+
+	/**
+	 * Starts searching the subtree of the given action in the pondering thread, from a state generated by
+	 * applying that action to the given root state (which should no longer be used by anything else)
+	 * 
+	 * @param rootStateObs
+	 * @param action
+	 */
+	private void startPondering(final StateObservation rootStateObs, final ACTIONS action){
+		ponderingResult = ponderingThread.submit(new Callable<Integer>(){
+
+			@Override
+			public Integer call() {
+				ElapsedCpuTimer ponderingTimer = new ElapsedCpuTimer(TimerType.WALL_TIME);
+				ponderingTimer.setMaxTimeMillis(MAX_PONDERING_MILLISEC);
+				return searchSubtree(rootStateObs, action, ponderingTimer);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Runs MCTS iterations in the subtree of the given action below the root, from a state generated by applying
+	 * that action to a copy of the given root state, until there is no time left. In deterministic games, this
+	 * grows exactly the part of the tree that tree reuse will keep for the next search. Can be used for pondering,
+	 * or after a search that was terminated early.
+	 * 
+	 * @param rootStateObs
+	 * @param action
+	 * @param elapsedTimer
+	 * @return The number of MCTS iterations that were performed
+	 */
+	public int searchSubtree(StateObservation rootStateObs, ACTIONS action, ElapsedCpuTimer elapsedTimer){
+		MctNode subtreeRoot = root.getExpandedChildForAction(action);
+		
+		if(subtreeRoot == null){
+			// can happen with Root Parallelization, if only a worker expanded the chosen action
+			return 0;
+		}
+		
+		// in deterministic games this is exactly the next state we'll have to search from
+		StateObservation subtreeRootState = rootStateObs.copy();
+		subtreeRootState.advance(action);
+		
+		if(subtreeRootState.isGameOver()){
+			return 0;
+		}
+		
+		searchRoot = subtreeRoot;
+		int mctsIterations = runIterations(subtreeRootState, elapsedTimer);
+		searchRoot = root;
+		
+		return mctsIterations;
+	}
+	
+	/**
+	 * Makes the pondering search (if any) abort its current iteration, and waits until it has stopped.
+	 * Afterwards, this thread is the only one that touches our tree again
+	 */
+	private void stopPondering(){
+		if(ponderingResult != null){
+			stopPondering = true;
+			
+			try {
+				TOTAL_PONDERING_ITERATIONS += ponderingResult.get();
+			} 
+			catch (InterruptedException | ExecutionException e) {
+				// the last iteration may not have been completed
+				e.printStackTrace();
+				revertVirtualLoss();
+				losingActionSequence = null;
+			}
+			
+			ponderingResult = null;
+			stopPondering = false;
+		}
+	}
+	
+	/**
+	 * Resets the tree and all search statistics that are normalised or bounded per game
+	 */
+	private void resetSearch(){
+		root = null;
+		searchRoot = null;
+		
+		// these initial values look weird but they're not a mistake
+		MIN_SCORE = Globals.HUGE_ENDGAME_SCORE;
+		MAX_SCORE = -Globals.HUGE_ENDGAME_SCORE;
+		
+		MIN_ACTION_SCORE = Globals.HUGE_ENDGAME_SCORE;
+		MAX_ACTION_SCORE = -Globals.HUGE_ENDGAME_SCORE;
+		
+		losingActionSequence = null;
+	}
+
+	public ACTIONS runMcts(StateObservation rootStateObs, ElapsedCpuTimer elapsedForSimulationTimer) {
+		boolean checkpointIntervalChanged = false;
+		
+		if(preparedTreeTick != rootStateObs.getGameTick()){
+			if(randomSeed != null){
+				Globals.seedRNG(randomSeed.longValue() + rootStateObs.getGameTick());
+			}
+			
+			Globals.knowledgeBase.updateRoot(rootStateObs);
+			checkpointIntervalChanged = startNewTick(rootStateObs);
+		}
+		
+		int mctsIterations;
+		MctNode searchedRoot;
+		
+		if(rootParallelWorkers != null){
+			mctsIterations = runRootParallelSearch(rootStateObs, elapsedForSimulationTimer, checkpointIntervalChanged);
+			searchedRoot = mergeRootParallelTrees();
+		}
+		else if(treeParallelWorkers != null){
+			mctsIterations = runTreeParallelSearch(rootStateObs, elapsedForSimulationTimer, checkpointIntervalChanged);
+			searchedRoot = root;
+		}
+		else if(pipelineWorkers != null){
+			prepareTree(rootStateObs, elapsedForSimulationTimer, checkpointIntervalChanged);
+			mctsIterations = runPipelinedIterations(rootStateObs, elapsedForSimulationTimer);
+			searchedRoot = root;
+		}
+		else{
+			mctsIterations = search(rootStateObs, elapsedForSimulationTimer, checkpointIntervalChanged);
+			searchedRoot = root;
+		}
+		
+		TOTAL_ITERATIONS += mctsIterations;
+		MIN_ITERATIONS_PER_GAME = Math.min(mctsIterations, MIN_ITERATIONS_PER_GAME);
+		MAX_ITERATIONS_PER_GAME = Math.max(mctsIterations, MAX_ITERATIONS_PER_GAME);
+		
+		//System.out.println("Ran " + mctsIterations + " iterations");
+		
+		return moveSelectionStrategy.selectMove(searchedRoot, this);
+	}
+	
+	/**
+	 * Starts a new tick in the data structures that this controller shares with all its workers. Must be called
+	 * once per tick, by this controller, before any tree is prepared for the search of that tick (the trees of Root 
+	 * Parallelization workers are prepared in their own threads, but they share these data structures)
+	 * 
+	 * @param rootStateObs
+	 * @return True if the interval between checkpoints changed, in which case every tree that is prepared for this
+	 * 	tick should release the states saved at depths that are no longer checkpoints
+	 */
+	private boolean startNewTick(StateObservation rootStateObs){
+		if(transpositionTable != null){
+			// entries that are not used by this search will be the first to be replaced
+			transpositionTable.startNewGeneration();
+		}
+		
+		if(stateCacheManager != null){
+			// ages of cached states are measured in game ticks, so this must happen exactly once per tick
+			stateCacheManager.startNewTick(rootStateObs);
+		}
+		
+		// adapt the interval between checkpoints to the costs measured in previous ticks
+		return (checkpointPolicy != null && checkpointPolicy.adapt());
+	}
+	
+	/**
+	 * Grows the tree of this controller from the given root state (re-using the tree of the previous search
+	 * if possible) until there is no time left. 
+	 * 
+	 * @param rootStateObs
+	 * @param elapsedForSimulationTimer
+	 * @param checkpointIntervalChanged True if the interval between checkpoints changed in this tick (see startNewTick())
+	 * @return The number of MCTS iterations that were performed
+	 */
+	private int search(StateObservation rootStateObs, ElapsedCpuTimer elapsedForSimulationTimer, boolean checkpointIntervalChanged) {
+		prepareTree(rootStateObs, elapsedForSimulationTimer, checkpointIntervalChanged);
+		return runIterations(rootStateObs, elapsedForSimulationTimer);
+	}
+	
+	/**
+	 * Prepares the tree of this controller for a new search from the given root state. Re-uses the tree of the 
+	 * previous search if possible, and builds or prepunes the first level below the root if Breadth-First 
+	 * Tree Initialization is used. Does nothing if generateDepth2Tree() already prepared the tree for the same tick.
+	 * 
+	 * @param rootStateObs
+	 * @param elapsedForSimulationTimer
+	 * @param checkpointIntervalChanged True if the interval between checkpoints changed in this tick (see startNewTick())
+	 */
+	private void prepareTree(StateObservation rootStateObs, ElapsedCpuTimer elapsedForSimulationTimer, 
+							 boolean checkpointIntervalChanged) {
+		final boolean alreadyPrepared = (preparedTreeTick == rootStateObs.getGameTick());
+		preparedTreeTick = -1;
+		
+		if(alreadyPrepared){
+			searchRoot = root;
+			return;
+		}
+		
+		final double oldRootScore = rootScore;
+		rootScore = rootStateObs.getGameScore();
+		rootTick = rootStateObs.getGameTick();
+		
+		if(root == null){
+			root = createNode(null, ACTIONS.ACTION_NIL);
 			losingActionSequence = null;
 		}
 		else{		// we can reuse a part of the tree from the previous search
@@ -242,8 +1143,12 @@ public class MctsController implements IController {
 				// we've been generating during init. This means we do not need to find a matching child or decay
 				
 				boolean foundChildToReuse = false;
+				final MctNode oldRoot = root;
 				
 				if(treeReuse){
+					// TODO don't re-use tree if the avatar type changed? or maybe only if the set of legal actions changed?
+					// we only generate child nodes the first time currently when we need children of a node, so we don't correctly
+					// handle changed action sets
 					for(MctNode child : root.getChildren()){
 						if(child.getActionFromParent() == rootStateObs.getAvatarLastAction()){
 							root = child;
@@ -254,16 +1159,11 @@ public class MctsController implements IController {
 							// Digdug game appears to be classified as deterministic games and
 							// can cause crashes if this is not done here, so that game might in
 							// fact be stochastic
-							root.removeCachedStates();	
+							root.removeCachedStates(stateCacheManager);	
 							
-							if(Globals.knowledgeBase.isGameStochastic()){
-								// decay tree only in stochastic games
-								decayOldTree(root);
-							}
-							else{
-								// still need to tell every node that its depth is reduced now due to Tree Reuse
-								decrementTreeDepth(root);
-							}
+							// decay tree only in stochastic games. Every node of the tree lazily catches up
+							// with the decay and its reduced depth when it is touched again
+							root.startNewEpochAsRoot(Globals.knowledgeBase.isGameStochastic(), treeDecayFactor);
 							
 							foundChildToReuse = true;
 							break;
@@ -273,20 +1173,33 @@ public class MctsController implements IController {
 				
 				decayActionStatistics(rootScore > oldRootScore ? 0.0 : actionDecayFactor);
 				
+				if(stateCacheManager != null){
+					// states cached anywhere outside of the subtree that we keep (if any) can never be used again
+					stateCacheManager.evictSubtree(oldRoot, foundChildToReuse ? root : null);
+				}
+				
+				if(nodePool != null){
+					// everything except for the subtree that we keep (if any) is discarded
+					nodePool.releaseAllExcept(oldRoot, foundChildToReuse ? root : null);
+				}
+				
 				if(!foundChildToReuse){
 					// we didn't find a child node matching the played action, so should just start a new tree
-					root = new MctNode();
+					root = createNode(null, ACTIONS.ACTION_NIL);
 					losingActionSequence = null;
 				}
 			}
 		}
 		
-		Globals.knowledgeBase.updateRoot(rootStateObs);
+		if(checkpointIntervalChanged){
+			// states saved at depths that are no longer checkpoints should not keep using memory in the reused tree
+			numCheckpointReleasedStates += root.releaseNonCheckpointStates(checkpointPolicy, stateCacheManager);
+		}
 		
 		if(initBreadthFirst){
 			if(!root.isFullyExpanded()){
 				// perform a shallow breadth-first search to build up an initial MCTS tree with only safe actions at the root
-				generateBreadthFirstTree(rootStateObs, elapsedForSimulationTimer);
+				generateBreadthFirstTree(root, rootStateObs, elapsedForSimulationTimer);
 			}
 			else if(!noTreeReuseBFTI && rootStateObs.getGameTick() != 0){
 				// root is already fully expanded, but should still do safety prepruning
@@ -303,56 +1216,86 @@ public class MctsController implements IController {
 		}
 		actionsString += "]";
 		System.out.println("Playable actions in root: " + actionsString);*/
-
+		
+		searchRoot = root;
+	}
+	
+	/**
+	 * Runs MCTS iterations on the (prepared) tree of this controller, starting from the searchRoot node, until 
+	 * there is no time left or the pondering search should stop.
+	 * 
+	 * @param rootStateObs The state in the searchRoot node
+	 * @param elapsedForSimulationTimer
+	 * @return The number of MCTS iterations that were performed
+	 */
+	private int runIterations(StateObservation rootStateObs, ElapsedCpuTimer elapsedForSimulationTimer) {
 		int mctsIterations = 0;
-		double iterations = 0.0;
-		double timeTaken = 0.0;
-		
-		// because hasTimeLeft() checks for double the average simulation time, initializing this to 6.0 ensures 
-		// we'll take a safety margin of 12 milliseconds for the first iteration, useful in cases where generateBreadthFirstTree
-		// took a lot of time
-		avgSimulationTime = 6.0;
-		long elapsedMillisStart = elapsedForSimulationTimer.elapsedMillis();
-		long lastElapsedMillis = elapsedMillisStart;
-		long maxTimeMillis = elapsedForSimulationTimer.remainingTimeMillis() + lastElapsedMillis;
+		int numLoopIterations = 0;
+		long searchAdvanceOps = 0L;
+		final boolean checkSettledDecision = (earlyTermination && searchRoot == root && !hasFixedBudget());
+		
+		// the timer is only queried once, afterwards we simply compare the monotonic System.nanoTime() to a deadline
+		long nowNanos = System.nanoTime();
+		final long deadlineNanos = nowNanos + elapsedForSimulationTimer.remainingTimeMillis() * 1000000L;
+		hardDeadlineNanos = hasFixedBudget() ? Long.MAX_VALUE : deadlineNanos - TIME_BUFFER_MILLISEC * 1000000L;
+		iterationCostPredictor.startSearch();
+		predictedIterationNanos = iterationCostPredictor.predictNanos();
 
 		//System.out.println("");
 		//System.out.println("Time left before MCTS loop = " + elapsedForSimulationTimer.remainingTimeMillis());
-		while (hasTimeLeft(elapsedForSimulationTimer, maxTimeMillis, lastElapsedMillis)){
+		// the first iteration only needs to start before the hard deadline (where it would be aborted anyway). Otherwise, 
+		// if the cost predictor becomes too pessimistic, we would never get any new samples to correct it
+		boolean firstIteration = true;
+		while ((firstIteration ? nowNanos < hardDeadlineNanos : hasBudgetLeft(deadlineNanos, nowNanos, mctsIterations, searchAdvanceOps)) 
+				&& !stopPondering){
+			firstIteration = false;
+			final long iterationStartNanos = nowNanos;
 			ONE_STEP_EVAL = 0.0;
 			NUM_ADVANCE_OPS = 0;
 			
-			root.setStateObs(rootStateObs);
+			setStateObs(searchRoot, rootStateObs);
 
 			// selection
-			final MctNode selectedNode = selectionStrategy.select(root, elapsedForSimulationTimer);
-			
-			// play-out
-			final MctNode playOutEnd = playoutStrategy.runPlayout(selectedNode, elapsedForSimulationTimer);
-			
-			//if(playOutEnd.getStateObs().isGameOver() && playOutEnd.getStateObs().getGameWinner() == Types.WINNER.PLAYER_LOSES){
-			//	++TOTAL_LOSS_ITERATIONS;
-			//}
+			final MctNode selectedNode = selectionStrategy.select(searchRoot, this, elapsedForSimulationTimer);
+			final MctNode playOutEnd;
 			
-			// backpropagation
-			backup(playOutEnd, playoutEval.scorePlayout(playOutEnd.getStateObs()), elapsedForSimulationTimer, false);
-			
-			if(losingActionSequence != null){
-				exploreLosingActionSequence(rootStateObs, playOutEnd, elapsedForSimulationTimer);
+			if(leafParallelWorkers == null){
+				// play-out
+				playOutEnd = playoutStrategy.runPlayout(selectedNode, this, elapsedForSimulationTimer);
+				
+				//if(getStateObs(playOutEnd).isGameOver() && getStateObs(playOutEnd).getGameWinner() == Types.WINNER.PLAYER_LOSES){
+				//	++TOTAL_LOSS_ITERATIONS;
+				//}
+				
+				// backpropagation
+				backupPlayout(rootStateObs, playOutEnd, getStateObs(playOutEnd), elapsedForSimulationTimer);
+				++mctsIterations;
 			}
+			else{
+				// batch of play-outs in parallel, followed by backpropagation of all their results
+				playOutEnd = selectedNode;
+				mctsIterations += runLeafParallelPlayouts(rootStateObs, selectedNode, elapsedForSimulationTimer);
+			}
+			
+			revertVirtualLoss();
 
 			// set values for time management
-			iterations += (NUM_ADVANCE_OPS / Math.max(10.0, playOutEnd.getDepth()));	// TODO use max playout depth instead of hardcoded 10.0
-			++mctsIterations;
-			++TOTAL_ITERATIONS;
-			lastElapsedMillis = elapsedForSimulationTimer.elapsedMillis();
-			timeTaken = lastElapsedMillis - elapsedMillisStart;
+			// (a batch of Leaf Parallelization counts as one iteration here, since its play-outs run at the same time)
+			// (every iteration counts as at least one call to advance(), otherwise a budget of advance() calls would never 
+			// run out once all states we need are cached)
+			searchAdvanceOps += Math.max(1, NUM_ADVANCE_OPS);
+			nowNanos = System.nanoTime();
+			iterationCostPredictor.addSample(nowNanos - iterationStartNanos);
+			predictedIterationNanos = iterationCostPredictor.predictNanos();
 			
-			if(iterations > 0.0){
-				avgSimulationTime = timeTaken / iterations;
+			if(checkSettledDecision && (++numLoopIterations % SETTLED_DECISION_CHECK_INTERVAL) == 0){
+				if(isRootDecisionSettled(deadlineNanos - TIME_BUFFER_MILLISEC * 1000000L - nowNanos)){
+					searchTerminatedEarly = true;
+					break;
+				}
 			}
 			
-			//System.out.println("Finished " + iterations + " iterations with avg time of " + avgSimulationTime);
+			//System.out.println("Finished " + mctsIterations + " iterations, predicted cost of next iteration = " + predictedIterationNanos);
 			
 			/*String avgScoresString = "[";
 			for(int i = 0; i < root.getChildren().size(); ++i){
@@ -366,224 +1309,771 @@ public class MctsController implements IController {
 		}
 		
 		/*System.out.println("Stopping MCTS with " + elapsedForSimulationTimer.remainingTimeMillis() + "ms left");
-		System.out.println("num sims = " + iterations);
-		System.out.println("time taken = " + timeTaken);
-		System.out.println("avg. sim time = " + avgSimulationTime);
+		System.out.println("num sims = " + mctsIterations);
+		System.out.println("median iteration time = " + iterationCostPredictor.computeQuantileNanos(0.5));
+		System.out.println("predicted iteration time = " + predictedIterationNanos);
 		System.out.println();*/
-
-		MIN_ITERATIONS_PER_GAME = Math.min(mctsIterations, MIN_ITERATIONS_PER_GAME);
-		MAX_ITERATIONS_PER_GAME = Math.max(mctsIterations, MAX_ITERATIONS_PER_GAME);
 		
-		//System.out.println("Ran " + iterations + " iterations");
-		
-		return moveSelectionStrategy.selectMove(root);
+		hardDeadlineNanos = Long.MAX_VALUE;
+		return mctsIterations;
 	}
 	
-	public void backup(MctNode playOutEnd, double score, ElapsedCpuTimer elapsedForSimulationTimer, boolean inescapableLossFound){
-		if(exploreLosses && losingActionSequence == null && !playOutEnd.getParent().isFullyExpanded()){
-			StateObservation endState = playOutEnd.getStateObs();
-			if(endState.isGameOver() && endState.getGameWinner() == WINNER.PLAYER_LOSES && hasTimeLeft(elapsedForSimulationTimer)){
-				losingActionSequence = new ArrayList<ACTIONS>(playOutEnd.getDepth());
-				
-				MctNode updateNode = playOutEnd;
-				while(updateNode != null){
-					if(updateNode.getParent() != null){
-						losingActionSequence.add(updateNode.getActionFromParent());
-					}
-					
-					updateNode = updateNode.getParent();
+	/**
+	 * Runs the searches of all the Root Parallelization workers in parallel with the search of this
+	 * controller. Every worker searches from its own copy of the given root state.
+	 * 
+	 * @param rootStateObs
+	 * @param elapsedTimer
+	 * @param checkpointIntervalChanged True if the interval between checkpoints changed in this tick (see startNewTick())
+	 * @return The total number of MCTS iterations performed by all threads
+	 */
+	private int runRootParallelSearch(StateObservation rootStateObs, ElapsedCpuTimer elapsedTimer, 
+									  final boolean checkpointIntervalChanged){
+		// our own timer cannot be shared with other threads (a CPU-time timer measures the thread that uses it), 
+		// so the workers get a wall-clock deadline instead
+		final long deadlineNanos = System.nanoTime() + elapsedTimer.remainingTimeMillis() * 1000000L;
+		
+		ArrayList<Future<Integer>> workerResults = new ArrayList<Future<Integer>>(rootParallelWorkers.length);
+		for(final MctsController worker : rootParallelWorkers){
+			// copy on this thread, such that no other thread ever touches the state we were given
+			final StateObservation workerRootStateObs = rootStateObs.copy();
+			
+			workerResults.add(workerPool.submit(new Callable<Integer>(){
+
+				@Override
+				public Integer call() {
+					ElapsedCpuTimer workerTimer = new ElapsedCpuTimer(TimerType.WALL_TIME);
+					workerTimer.setMaxTimeMillis((deadlineNanos - System.nanoTime()) / 1000000L);
+					return worker.search(workerRootStateObs, workerTimer, checkpointIntervalChanged);
 				}
 				
-				losingState = endState;
-				
-				return;
+			}));
+		}
+		
+		int mctsIterations = search(rootStateObs, elapsedTimer, checkpointIntervalChanged);
+		
+		for(int i = 0; i < rootParallelWorkers.length; ++i){
+			try {
+				mctsIterations += workerResults.get(i).get();
+			} 
+			catch (InterruptedException | ExecutionException e) {
+				// the tree of this worker may be in an inconsistent state, so we'll make it start over next time
+				e.printStackTrace();
+				rootParallelWorkers[i].resetSearch();
 			}
 		}
 		
-		if((score == rootScore || alwaysKB) && !playOutEnd.getStateObs().isGameOver() && allowsKnowledgeBasedEvaluation()){
-			score += Globals.knowledgeBase.knowledgeBasedEval(playOutEnd.getStateObs());
+		return mctsIterations;
+	}
+	
+	/**
+	 * Backs up the result of a play-out that ended in the given node, and explores the losing action sequence
+	 * if the backup found one
+	 * 
+	 * @param rootStateObs
+	 * @param playOutEnd
+	 * @param playOutEndState
+	 * @param elapsedTimer
+	 */
+	private void backupPlayout(StateObservation rootStateObs, MctNode playOutEnd, StateObservation playOutEndState, ElapsedCpuTimer elapsedTimer){
+		backup(playOutEnd, playOutEndState, playoutEval.scorePlayout(playOutEndState), elapsedTimer, false);
+		
+		if(losingActionSequence != null){
+			exploreLosingActionSequence(rootStateObs, playOutEnd, elapsedTimer);
 		}
+	}
+	
+	/**
+	 * Runs a batch of play-outs from the given selected node; one in this thread, and the others in the threads of
+	 * the Leaf Parallelization workers, each from its own copy of the selected node's state.
+	 *
+	 * <p> Every play-out expands a different unexpanded action of the selected node, so the batch is never larger
+	 * than the number of unexpanded actions. These expansions happen concurrently, each adding its child to the
+	 * selected node under the lock of that node (see MctNode.addChild()). Only the backups and the updates of the
+	 * action statistics are deferred until all play-outs have finished.
+	 * 
+	 * @param rootStateObs
+	 * @param selectedNode
+	 * @param elapsedTimer
+	 * @return The number of play-outs that were run
+	 */
+	private int runLeafParallelPlayouts(StateObservation rootStateObs, final MctNode selectedNode, ElapsedCpuTimer elapsedTimer){
+		StateObservation selectedState = getStateObs(selectedNode);
+		ArrayList<ACTIONS> unexpandedActions = selectedNode.getUnexpandedActions();
 		
-		score += ONE_STEP_EVAL;
+		int numPlayouts = 1;
+		if(!selectedState.isGameOver() && unexpandedActions != null){
+			numPlayouts = Math.max(1, Math.min(leafParallelWorkers.length + 1, unexpandedActions.size()));
+		}
 		
-		MAX_SCORE = Math.max(MAX_SCORE, score);
-		MIN_SCORE = Math.min(MIN_SCORE, score);
+		ArrayList<Future<MctNode>> workerResults = new ArrayList<Future<MctNode>>(numPlayouts - 1);
+		for(int i = 0; i < numPlayouts - 1; ++i){
+			final MctsController worker = leafParallelWorkers[i];
+			worker.MIN_SCORE = MIN_SCORE;
+			worker.MAX_SCORE = MAX_SCORE;
+			worker.MIN_ACTION_SCORE = MIN_ACTION_SCORE;
+			worker.MAX_ACTION_SCORE = MAX_ACTION_SCORE;
+			worker.NUM_ADVANCE_OPS = 0;
+			worker.hardDeadlineNanos = hardDeadlineNanos;
+			
+			// copy on this thread, before our own play-out starts modifying the selected state
+			worker.setStateObs(selectedNode, selectedState.copy());
+			
+			final ElapsedCpuTimer workerTimer = new ElapsedCpuTimer(TimerType.WALL_TIME);
+			workerTimer.setMaxTimeMillis(elapsedTimer.remainingTimeMillis());
+			
+			workerResults.add(workerPool.submit(new Callable<MctNode>(){
+
+				@Override
+				public MctNode call() {
+					return playoutStrategy.runPlayout(selectedNode, worker, workerTimer);
+				}
+				
+			}));
+		}
 		
-		boolean loss = (playOutEnd.getStateObs().isGameOver() && playOutEnd.getStateObs().getGameWinner() == WINNER.PLAYER_LOSES);
+		MctNode playOutEnd = playoutStrategy.runPlayout(selectedNode, this, elapsedTimer);
+		StateObservation playOutEndState = getStateObs(playOutEnd);
+		int numResults = 1;
 		
-		if(loss){
-			playOutEnd.setImmediateLossDetected();
+		// wait for all workers before backing up anything, because they read our action statistics
+		MctNode[] workerPlayOutEnds = new MctNode[workerResults.size()];
+		for(int i = 0; i < workerResults.size(); ++i){
+			try {
+				workerPlayOutEnds[i] = workerResults.get(i).get();
+			} 
+			catch (InterruptedException | ExecutionException e) {
+				// just ignore the result of this play-out
+				e.printStackTrace();
+			}
+			
+			NUM_ADVANCE_OPS += leafParallelWorkers[i].NUM_ADVANCE_OPS;
 		}
 		
-		MctNode updateNode = playOutEnd;
-		while (updateNode != null) {
-			if(loss && !updateNode.canBeImmediateLoss() && updateNode.hasNonImmediateLossChildren()){
-				// the node to be updated has better (non-losing) options, so from now on we're pretending the loss didn't happen
-				loss = false;
-				score += Globals.HUGE_ENDGAME_SCORE;
+		backupPlayout(rootStateObs, playOutEnd, playOutEndState, elapsedTimer);
+		for(int i = 0; i < workerPlayOutEnds.length; ++i){
+			if(workerPlayOutEnds[i] != null){
+				backupPlayout(rootStateObs, workerPlayOutEnds[i], leafParallelWorkers[i].getStateObs(workerPlayOutEnds[i]), elapsedTimer);
+				++numResults;
 			}
-			else if(loss){
-				// the node to be updated has been proven to have a nonzero probability of leading to a loss with perfect play
-				updateNode.setImmediateLossDetected();
+		}
+		
+		return numResults;
+	}
+	
+	/**
+	 * Runs pipelined MCTS iterations on the (prepared) tree of this controller until there is no time left. This
+	 * thread runs the selection stage and the backup stage, and the pipeline workers run the play-outs and evaluations 
+	 * in between. Every selected node keeps its virtual losses until its result has been backed up. The pipeline is 
+	 * completely drained before returning, so no other thread touches the tree after this method returns.
+	 * 
+	 * @param rootStateObs
+	 * @param elapsedForSimulationTimer
+	 * @return The number of MCTS iterations that were performed
+	 */
+	private int runPipelinedIterations(StateObservation rootStateObs, ElapsedCpuTimer elapsedForSimulationTimer){
+		int mctsIterations = 0;
+		int numInPipeline = 0;
+		long searchAdvanceOps = 0L;
+		
+		// here, the cost predictor models the durations of play-outs, and predictedIterationNanos is an estimate of 
+		// the time required to drain the pipeline
+		long nowNanos = System.nanoTime();
+		final long deadlineNanos = nowNanos + elapsedForSimulationTimer.remainingTimeMillis() * 1000000L;
+		// read by the workers for every task
+		hardDeadlineNanos = hasFixedBudget() ? Long.MAX_VALUE : deadlineNanos - TIME_BUFFER_MILLISEC * 1000000L;
+		iterationCostPredictor.startSearch();
+		predictedIterationNanos = iterationCostPredictor.predictNanos();
+		
+		// with a fixed budget, iterations that are still in the pipeline also count as performed. As in runIterations(),
+		// the first iteration only needs to start before the hard deadline
+		while(mctsIterations + numInPipeline == 0 ? nowNanos < hardDeadlineNanos 
+												: hasBudgetLeft(deadlineNanos, nowNanos, mctsIterations + numInPipeline, searchAdvanceOps)){
+			// backup stage: process all the results that are already available
+			PipelineTask result;
+			while((result = pipelineResultQueue.poll()) != null){
+				backupPipelineTask(rootStateObs, result, elapsedForSimulationTimer);
+				searchAdvanceOps += result.numAdvanceOps;
+				--numInPipeline;
+				++mctsIterations;
 			}
 			
-			updateNode.backpropagate(score);
-			
-			if(inescapableLossFound){
-				updateNode.setInescapableLossFound();
-			}
+			PIPELINE_STATISTICS.sampleQueueDepths(pipelineLeafQueue.size(), pipelineResultQueue.size());
 			
-			if(updateNode.getParent() != null && collectActionStatistics){
-				// we want to collect statistics for the played action
-				final ActionLocation action = updateNode.getActionLocationFromParent();
+			if(pipelineLeafQueue.remainingCapacity() > 0){
+				// selection stage
+				long selectionStartNanos = System.nanoTime();
+				ONE_STEP_EVAL = 0.0;
+				NUM_ADVANCE_OPS = 0;
+				
+				setStateObs(searchRoot, rootStateObs);
+				MctNode selectedNode = selectionStrategy.select(searchRoot, this, elapsedForSimulationTimer);
+				StateObservation selectedState = getStateObs(selectedNode);
 				
-				Score actionScore = actionStatistics.get(action);
-				if(actionScore == null){
-					actionScore = new Score();
-					actionStatistics.put(action, actionScore);
+				if(selectedState == rootStateObs){
+					// the play-out would modify the root state, which we still need for the next selections
+					selectedState = rootStateObs.copy();
 				}
 				
-				actionScore.score += score;
-				actionScore.timesVisited += 1.0;
+				PipelineTask task = new PipelineTask(selectedNode, selectedState, isStateObsShared(selectedNode), ONE_STEP_EVAL, 
+														virtualLossLeaf, elapsedForSimulationTimer.remainingTimeMillis());
+				virtualLossLeaf = null;		// these virtual losses will be removed when the task is backed up
+				searchAdvanceOps += Math.max(1, NUM_ADVANCE_OPS);	// every iteration counts as at least one call to advance()
 				
-				MIN_ACTION_SCORE = Math.min(MIN_ACTION_SCORE, score);
-				MAX_ACTION_SCORE = Math.max(MAX_ACTION_SCORE, score);
+				task.enqueuedNanos = System.nanoTime();
+				PIPELINE_STATISTICS.recordSelection(task.enqueuedNanos - selectionStartNanos);
+				pipelineLeafQueue.add(task);
+				++numInPipeline;
+			}
+			else{
+				// the pipeline is full, so we'll have to wait for a result
+				try {
+					result = pipelineResultQueue.poll(Math.max(1000000L, deadlineNanos - nowNanos), TimeUnit.NANOSECONDS);
+				} 
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
 				
-				if(maxActionNGramSize > 1){
-					// we also want to collect statistics for n-grams
-					for(int n = 2; n <= maxActionNGramSize; ++n){
-						// create n-gram of size n
-						final ActionLocation[] nGram = new ActionLocation[n];
-						MctNode currentActionNode = updateNode;
-						boolean finishedNGram = true;
-						
-						for(int actionIdx = n - 1; actionIdx >= 0; --actionIdx){
-							if(currentActionNode.getParent() == null){
-								// tree is not deep enough for an n-gram of this size
-								finishedNGram = false;
-								break;
-							}
-							
-							nGram[actionIdx] = currentActionNode.getActionLocationFromParent();
-							currentActionNode = currentActionNode.getParent();
-						}
-						
-						if(!finishedNGram){
-							break;
-						}
-						
-						final ActionNGram actionNGram = new ActionNGram(nGram);
-						Score actionNGramScore = actionNGramStatistics.get(actionNGram);
-						if(actionNGramScore == null){
-							actionNGramScore = new Score();
-							actionNGramStatistics.put(actionNGram, actionNGramScore);
-						}
-						
-						actionNGramScore.score += score;
-						actionNGramScore.timesVisited += 1.0;
-					}
+				if(result != null){
+					backupPipelineTask(rootStateObs, result, elapsedForSimulationTimer);
+					searchAdvanceOps += result.numAdvanceOps;
+					--numInPipeline;
+					++mctsIterations;
 				}
 			}
 			
-			updateNode.postBackup();
-			updateNode = updateNode.getParent();
+			nowNanos = System.nanoTime();
+			
+			// the workers process the tasks in the pipeline (and the one we might still add) in parallel, 
+			// but all results are backed up one by one
+			predictedIterationNanos = (long) (iterationCostPredictor.predictNanos() * Math.ceil((numInPipeline + 1.0) / pipelineWorkers.length) 
+												+ PIPELINE_STATISTICS.getAvgBackupMillis() * 1000000.0 * (numInPipeline + 1.0));
+		}
+		
+		// drain the pipeline
+		while(numInPipeline > 0){
+			try {
+				backupPipelineTask(rootStateObs, pipelineResultQueue.take(), elapsedForSimulationTimer);
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			
+			--numInPipeline;
+			++mctsIterations;
 		}
+		
+		hardDeadlineNanos = Long.MAX_VALUE;
+		return mctsIterations;
 	}
 	
-	// TODO don't re-use tree if the avatar type changed? or maybe only if the set of legal actions changed?
-	// we only generate child nodes the first time currently when we need children of a node, so we don't correctly
-	// handle changed action sets
-	public void decayOldTree(MctNode root){
-		// decay the old results in all nodes of the tree
-		ArrayList<MctNode> nodes = new ArrayList<MctNode>();
-		nodes.add(root);
-		
-		//int nodesDecayed = 0;
+	/**
+	 * Backup stage of pipelined MCTS: removes the virtual losses of the given task and backs up its result
+	 * 
+	 * @param rootStateObs
+	 * @param task
+	 * @param elapsedTimer
+	 */
+	private void backupPipelineTask(StateObservation rootStateObs, PipelineTask task, ElapsedCpuTimer elapsedTimer){
+		long backupStartNanos = System.nanoTime();
+		removeVirtualLosses(task.virtualLossLeaf);
 		
-		while(!nodes.isEmpty()){
-			//++nodesDecayed;
-			
-			// pop a node from the list of nodes to process
-			MctNode node = nodes.remove(nodes.size() - 1);
+		if(task.playOutEnd != null){
+			ONE_STEP_EVAL = task.oneStepEval;
 			
-			// we'll also have to process all children of the current node
-			nodes.addAll(node.getChildren());
-			
-			// decay this node
-			node.decay(treeDecayFactor);
+			if(!detectLosingActionSequence(task.playOutEnd, task.endState, elapsedTimer)){
+				// the worker already added the knowledge-based evaluation
+				backupScore(task.playOutEnd, task.endState, task.score, false);
+			}
 			
-			// we want to reset results from novelty tests close to root, since they might've been based on states
-			// that are no longer reachable in non-deterministic games.
-			if(node.getDepth() <= 1){
-				node.resetNoveltyTestResults();
+			if(losingActionSequence != null){
+				exploreLosingActionSequence(rootStateObs, task.playOutEnd, elapsedTimer);
 			}
 		}
 		
-		//System.out.println("Decayed " + nodesDecayed + " nodes!");
+		PIPELINE_STATISTICS.recordIteration(task.enqueuedNanos, task.playoutStartNanos, task.playoutEndNanos, 
+											backupStartNanos, System.nanoTime());
+		iterationCostPredictor.addSample(task.playoutEndNanos - task.playoutStartNanos);
+	}
+	
+	/**
+	 * Main loop of a worker thread of pipelined MCTS. Takes selected nodes from the queue of the given master,
+	 * runs a play-out from each of them, evaluates the end of that play-out (including the knowledge-based 
+	 * evaluation), and puts the result in the result queue of the master. Runs until the thread is interrupted
+	 * by shutting down the worker pool.
+	 * 
+	 * @param master
+	 */
+	private void runPipelineWorker(MctsController master){
+		final BlockingQueue<PipelineTask> leafQueue = master.pipelineLeafQueue;
+		final BlockingQueue<PipelineTask> resultQueue = master.pipelineResultQueue;
+		
+		try {
+			while(true){
+				PipelineTask task = leafQueue.take();
+				task.playoutStartNanos = System.nanoTime();
+				
+				try {
+					// these values of the master may be slightly outdated, which is fine for play-out heuristics
+					MIN_SCORE = master.MIN_SCORE;
+					MAX_SCORE = master.MAX_SCORE;
+					MIN_ACTION_SCORE = master.MIN_ACTION_SCORE;
+					MAX_ACTION_SCORE = master.MAX_ACTION_SCORE;
+					rootScore = master.rootScore;
+					hardDeadlineNanos = master.hardDeadlineNanos;
+					NUM_ADVANCE_OPS = 0;
+					
+					ElapsedCpuTimer playoutTimer = new ElapsedCpuTimer(TimerType.WALL_TIME);
+					playoutTimer.setMaxTimeMillis(task.remainingMillis);
+					
+					setStateObs(task.selectedNode, task.selectedState, task.selectedStateShared);
+					MctNode playOutEnd = playoutStrategy.runPlayout(task.selectedNode, this, playoutTimer);
+					StateObservation endState = getStateObs(playOutEnd);
+					
+					task.score = addKnowledgeBasedEval(playoutEval.scorePlayout(endState), endState);
+					task.numAdvanceOps = NUM_ADVANCE_OPS;
+					task.endState = endState;
+					task.playOutEnd = playOutEnd;
+				} 
+				catch (RuntimeException e) {
+					// the master will still remove the virtual losses of this task
+					e.printStackTrace();
+				}
+				
+				task.playoutEndNanos = System.nanoTime();
+				resultQueue.put(task);
+			}
+		} 
+		catch (InterruptedException e) {
+			// the worker pool is shutting down
+		}
 	}
 	
-	public void decrementTreeDepth(MctNode root){
-		ArrayList<MctNode> nodes = new ArrayList<MctNode>();
-		nodes.add(root);
+	/**
+	 * Runs MCTS iterations of all the Tree Parallelization workers in parallel with the iterations of this
+	 * controller, all on the tree of this controller. Every worker starts its iterations from its own copy of
+	 * the given root state.
+	 * 
+	 * @param rootStateObs
+	 * @param elapsedTimer
+	 * @param checkpointIntervalChanged True if the interval between checkpoints changed in this tick (see startNewTick())
+	 * @return The total number of MCTS iterations performed by all threads
+	 */
+	private int runTreeParallelSearch(StateObservation rootStateObs, ElapsedCpuTimer elapsedTimer, boolean checkpointIntervalChanged){
+		// tree reuse and safety prepruning modify the tree, so those are done before any other thread starts
+		prepareTree(rootStateObs, elapsedTimer, checkpointIntervalChanged);
+		
+		final long deadlineNanos = System.nanoTime() + elapsedTimer.remainingTimeMillis() * 1000000L;
+		
+		ArrayList<Future<Integer>> workerResults = new ArrayList<Future<Integer>>(treeParallelWorkers.length);
+		for(final MctsController worker : treeParallelWorkers){
+			worker.joinTreeParallelSearch(this);
+			final StateObservation workerRootStateObs = rootStateObs.copy();
+			
+			workerResults.add(workerPool.submit(new Callable<Integer>(){
+
+				@Override
+				public Integer call() {
+					ElapsedCpuTimer workerTimer = new ElapsedCpuTimer(TimerType.WALL_TIME);
+					workerTimer.setMaxTimeMillis((deadlineNanos - System.nanoTime()) / 1000000L);
+					return worker.runIterations(workerRootStateObs, workerTimer);
+				}
 				
-		while(!nodes.isEmpty()){
-			// pop a node from the list of nodes to process
-			MctNode node = nodes.remove(nodes.size() - 1);
+			}));
+		}
+		
+		int mctsIterations = runIterations(rootStateObs, elapsedTimer);
+		
+		for(int i = 0; i < treeParallelWorkers.length; ++i){
+			MctsController worker = treeParallelWorkers[i];
 			
-			// we'll also have to process all children of the current node
-			nodes.addAll(node.getChildren());
+			try {
+				mctsIterations += workerResults.get(i).get();
+			} 
+			catch (InterruptedException | ExecutionException e) {
+				// make sure that an aborted iteration does not leave its virtual losses in the tree
+				e.printStackTrace();
+				worker.revertVirtualLoss();
+				worker.losingActionSequence = null;
+			}
 			
-			// decrement depth of the node
-			node.decrementDepth();
+			MIN_SCORE = Math.min(MIN_SCORE, worker.MIN_SCORE);
+			MAX_SCORE = Math.max(MAX_SCORE, worker.MAX_SCORE);
 		}
+		
+		return mctsIterations;
 	}
 	
-	public boolean allowsKnowledgeBasedEvaluation(){
-		return knowledgeBasedEval;
+	/**
+	 * Prepares this Tree Parallelization worker for running MCTS iterations on the (already prepared) tree
+	 * of the given controller
+	 * 
+	 * @param master
+	 */
+	private void joinTreeParallelSearch(MctsController master){
+		if(root != null && master.rootTick != 0){
+			// same decay of action statistics as performed by the master when re-using its tree
+			decayActionStatistics(master.rootScore > rootScore ? 0.0 : actionDecayFactor);
+		}
+		
+		root = master.root;
+		searchRoot = root;
+		rootScore = master.rootScore;
+		rootTick = master.rootTick;
+		
+		MIN_SCORE = Math.min(MIN_SCORE, master.MIN_SCORE);
+		MAX_SCORE = Math.max(MAX_SCORE, master.MAX_SCORE);
 	}
 	
-	public boolean allowsNoveltyBasedPruning(){
-		return noveltyBasedPruning;
+	/**
+	 * Merges the statistics of the children of the roots of all the trees grown by Root Parallelization.
+	 * The returned root is a new node, which is not a part of any of the trees.
+	 * 
+	 * @return
+	 */
+	private MctNode mergeRootParallelTrees(){
+		MctNode mergedRoot = new MctNode();
+		mergeRootChildren(mergedRoot, root);
+		
+		for(MctsController worker : rootParallelWorkers){
+			if(worker.root != null){
+				mergeRootChildren(mergedRoot, worker.root);
+				
+				MIN_SCORE = Math.min(MIN_SCORE, worker.MIN_SCORE);
+				MAX_SCORE = Math.max(MAX_SCORE, worker.MAX_SCORE);
+			}
+		}
+		
+		return mergedRoot;
 	}
 	
-	public boolean collectsActionStatistics(){
-		return collectActionStatistics;
+	private static void mergeRootChildren(MctNode mergedRoot, MctNode treeRoot){
+		mergedRoot.merge(treeRoot);
+		
+		for(MctNode child : treeRoot.getChildren()){
+			MctNode mergedChild = mergedRoot.getExpandedChildForAction(child.getActionFromParent());
+			
+			if(mergedChild == null){
+				mergedChild = new MctNode(mergedRoot, child.getActionFromParent());
+				mergedChild.markNotNovel();		// will be novel again if it was novel in any of the merged trees
+				mergedRoot.addChild(mergedChild);
+			}
+			
+			mergedChild.merge(child);
+		}
 	}
 	
-	public void decayActionStatistics(double decayFactor){
-		if(collectActionStatistics){
-			if(decayFactor == 0.0){
-				// this is probably faster than iterating through everything
-				actionStatistics.clear();
+	private void shutdownWorkers(){
+		if(workerPool != null){
+			workerPool.shutdownNow();
+			workerPool = null;
+		}
+		
+		if(ponderingThread != null){
+			ponderingThread.shutdownNow();
+			ponderingThread = null;
+		}
+		
+		if(safetyCheckPool != null){
+			safetyCheckPool.shutdownNow();
+			safetyCheckPool = null;
+		}
+		
+		rootParallelWorkers = null;
+		treeParallelWorkers = null;
+		leafParallelWorkers = null;
+		pipelineWorkers = null;
+		pipelineLeafQueue = null;
+		pipelineResultQueue = null;
+		sharedTree = false;
+	}
+	
+	/**
+	 * Sets the given state observation in the given node, and remembers it as the state that this controller 
+	 * generated for that node in the current MCTS iteration
+	 * 
+	 * @param node
+	 * @param stateObs
+	 */
+	public void setStateObs(MctNode node, StateObservation stateObs){
+		setStateObs(node, stateObs, false);
+	}
+	
+	/**
+	 * Sets the given state observation in the given node, and remembers it as the state that this controller 
+	 * generated for that node in the current MCTS iteration. If shared is true, the state is also used elsewhere
+	 * (saved in the node, or cached), so it should be copied before it is modified
+	 * 
+	 * @param node
+	 * @param stateObs
+	 * @param shared
+	 */
+	public void setStateObs(MctNode node, StateObservation stateObs, boolean shared){
+		node.setStateObs(stateObs);
+		currentNode = node;
+		currentStateObs = stateObs;
+		currentStateObsShared = shared;
+	}
+	
+	/**
+	 * Returns true if the state observation of the given node in the current MCTS iteration of this controller
+	 * (see getStateObs(MctNode)) is shared, which means that it should be copied before it is modified
+	 * 
+	 * @param node
+	 * @return
+	 */
+	public boolean isStateObsShared(MctNode node){
+		if(node == currentNode){
+			return currentStateObsShared;
+		}
+		
+		StateObservation stateObs = node.getStateObs();
+		return (stateObs != null && stateObs == node.getSavedStateObs());
+	}
+	
+	/**
+	 * Returns the state observation of the given node in the current MCTS iteration of this controller.
+	 * <br> With Tree Parallelization, other threads can overwrite the state observation stored in a node at any time,
+	 * so strategies should use this method (instead of MctNode.getStateObs()) to obtain the states of the root node
+	 * and of the node returned by the selection step
+	 * 
+	 * @param node
+	 * @return
+	 */
+	public StateObservation getStateObs(MctNode node){
+		if(node == currentNode){
+			return currentStateObs;
+		}
+		
+		return node.getStateObs();
+	}
+	
+	/**
+	 * Called by the selection strategy for every node that it selects. With Tree Parallelization, this adds a 
+	 * virtual loss to the node, which will be removed again at the end of the current MCTS iteration
+	 * 
+	 * @param node
+	 */
+	public void addVirtualLoss(MctNode node){
+		if(sharedTree){
+			node.addVirtualLoss();
+			virtualLossLeaf = node;
+		}
+	}
+	
+	/**
+	 * Removes all the virtual losses that were added by the current MCTS iteration of this controller
+	 */
+	private void revertVirtualLoss(){
+		removeVirtualLosses(virtualLossLeaf);
+		virtualLossLeaf = null;
+	}
+	
+	/**
+	 * Removes a virtual loss from the given node and all its ancestors, except for the root
+	 * (which never gets a virtual loss, since it is not selected)
+	 * 
+	 * @param leaf
+	 */
+	private static void removeVirtualLosses(MctNode leaf){
+		MctNode node = leaf;
+		
+		while(node != null && node.getParent() != null){
+			node.removeVirtualLoss();
+			node = node.getParent();
+		}
+	}
+	
+	public void backup(MctNode playOutEnd, StateObservation endState, double score, ElapsedCpuTimer elapsedForSimulationTimer, boolean inescapableLossFound){
+		if(!detectLosingActionSequence(playOutEnd, endState, elapsedForSimulationTimer)){
+			backupScore(playOutEnd, endState, addKnowledgeBasedEval(score, endState), inescapableLossFound);
+		}
+	}
+	
+	/**
+	 * Checks whether the given play-out ended in a loss that we may want to avoid by exploring the
+	 * siblings of the losing node (Loss Avoidance). If so, stores the losing action sequence and 
+	 * returns true, in which case the play-out should not be backed up yet
+	 * 
+	 * @param playOutEnd
+	 * @param endState
+	 * @param elapsedForSimulationTimer
+	 * @return
+	 */
+	private boolean detectLosingActionSequence(MctNode playOutEnd, StateObservation endState, ElapsedCpuTimer elapsedForSimulationTimer){
+		if(exploreLosses && losingActionSequence == null && playOutEnd != searchRoot && !playOutEnd.getParent().isFullyExpanded()){
+			if(endState.isGameOver() && endState.getGameWinner() == WINNER.PLAYER_LOSES && hasTimeLeft(elapsedForSimulationTimer)){
+				losingActionSequence = new ArrayList<ACTIONS>(playOutEnd.getDepth());
 				
-				if(maxActionNGramSize > 1){
-					actionNGramStatistics.clear();
+				// the losing sequence will be replayed from the state of the searchRoot
+				MctNode updateNode = playOutEnd;
+				while(updateNode != searchRoot){
+					losingActionSequence.add(updateNode.getActionFromParent());
+					updateNode = updateNode.getParent();
 				}
+				
+				losingState = endState;
+				
+				return true;
 			}
-			else{
-				for(Score actionScore : actionStatistics.values()){
-					actionScore.decay(decayFactor);
-				}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Adds the knowledge-based evaluation of the given end state of a play-out to the given score, 
+	 * if we want to use a knowledge-based evaluation for that state
+	 * 
+	 * @param score
+	 * @param endState
+	 * @return
+	 */
+	private double addKnowledgeBasedEval(double score, StateObservation endState){
+		if((score == rootScore || alwaysKB) && !endState.isGameOver() && allowsKnowledgeBasedEvaluation()){
+			score += Globals.knowledgeBase.knowledgeBasedEval(endState);
+		}
+		
+		return score;
+	}
+	
+	/**
+	 * Backpropagates the given score (which should already include the knowledge-based evaluation, if any)
+	 * from the given end node of a play-out up to the root
+	 * 
+	 * @param playOutEnd
+	 * @param endState
+	 * @param score
+	 * @param inescapableLossFound
+	 */
+	private void backupScore(MctNode playOutEnd, StateObservation endState, double score, boolean inescapableLossFound){
+		score += ONE_STEP_EVAL;
+		
+		MAX_SCORE = Math.max(MAX_SCORE, score);
+		MIN_SCORE = Math.min(MIN_SCORE, score);
+		
+		boolean loss = (endState.isGameOver() && endState.getGameWinner() == WINNER.PLAYER_LOSES);
+		
+		if(loss){
+			playOutEnd.setImmediateLossDetected();
+		}
+		
+		// nodes that reach the same state share an entry in the transposition table, which should only count this backup once
+		final long backupId = (transpositionTable != null) ? transpositionTable.nextBackupId() : 0L;
+		
+		MctNode updateNode = playOutEnd;
+		while (updateNode != null) {
+			if(loss && !updateNode.canBeImmediateLoss() && updateNode.hasNonImmediateLossChildren()){
+				// the node to be updated has better (non-losing) options, so from now on we're pretending the loss didn't happen
+				loss = false;
+				score += Globals.HUGE_ENDGAME_SCORE;
+			}
+			else if(loss){
+				// the node to be updated has been proven to have a nonzero probability of leading to a loss with perfect play
+				updateNode.setImmediateLossDetected();
+			}
+			
+			updateNode.backpropagate(score, 1.0, backupId);
+			
+			if(inescapableLossFound){
+				updateNode.setInescapableLossFound();
+			}
+			
+			if(updateNode.getParent() != null && collectActionStatistics){
+				// we want to collect statistics for the played action
+				final long actionKey = updateNode.getActionKeyFromParent();
+				
+				actionStatistics.addVisit(actionKey, score);
+				
+				MIN_ACTION_SCORE = Math.min(MIN_ACTION_SCORE, score);
+				MAX_ACTION_SCORE = Math.max(MAX_ACTION_SCORE, score);
 				
 				if(maxActionNGramSize > 1){
-					for(Score actionNGramScore : actionNGramStatistics.values()){
-						actionNGramScore.decay(decayFactor);
+					// we also want to collect statistics for n-grams. Every n-gram of size n is the n-gram of size n - 1
+					// with the action of the next node up the tree put in front of it, which is one level deeper in the trie
+					int trieNode = actionNGramStatistics.getOrCreateChild(ActionNGramTrie.ROOT, actionKey);
+					MctNode currentActionNode = updateNode.getParent();
+					
+					for(int n = 2; n <= maxActionNGramSize; ++n){
+						if(currentActionNode.getParent() == null){
+							// tree is not deep enough for an n-gram of this size
+							break;
+						}
+						
+						trieNode = actionNGramStatistics.getOrCreateChild(trieNode, currentActionNode.getActionKeyFromParent());
+						actionNGramStatistics.addVisit(trieNode, score);
+						
+						currentActionNode = currentActionNode.getParent();
 					}
 				}
 			}
+			
+			updateNode.postBackup();
+			updateNode = updateNode.getParent();
+		}
+	}
+	
+	public boolean allowsKnowledgeBasedEvaluation(){
+		return knowledgeBasedEval;
+	}
+	
+	public boolean allowsNoveltyBasedPruning(){
+		return noveltyBasedPruning;
+	}
+	
+	public boolean collectsActionStatistics(){
+		return collectActionStatistics;
+	}
+	
+	/**
+	 * Multiplies all action (n-gram) statistics by the given decay factor (0 clears them). This is O(1), the tables 
+	 * only change their global scale factor
+	 * 
+	 * @param decayFactor
+	 */
+	public void decayActionStatistics(double decayFactor){
+		if(collectActionStatistics){
+			actionStatistics.decay(decayFactor);
+			
+			if(maxActionNGramSize > 1){
+				actionNGramStatistics.decay(decayFactor);
+			}
 		}
 	}
 	
 	public void exploreLosingActionSequence(StateObservation rootStateObs, MctNode losingNode, ElapsedCpuTimer elapsedForSimulationTimer){
-		MctNode node = root;
+		MctNode node = searchRoot;
 		StateObservation state = rootStateObs;
 		StateObs stateObs = new StateObs(state, true);
+		int nextActionIdx = losingActionSequence.size() - 1;
+		
+		if(lossAvoidanceStateReuse && Globals.knowledgeBase.isGameDeterministic()){
+			// start replaying from the deepest node along the losing sequence that saved its state
+			int depth = losingActionSequence.size() - 1;
+			for(MctNode ancestor = losingNode.getParent(); ancestor != searchRoot; ancestor = ancestor.getParent()){
+				StateObservation saved = ancestor.getSavedStateObs();
+				
+				if(saved != null && !saved.isGameOver()){
+					node = ancestor;
+					state = saved;
+					stateObs = new StateObs(saved, true);
+					setStateObs(node, saved, true);
+					nextActionIdx = losingActionSequence.size() - 1 - depth;
+					TOTAL_SKIPPED_REPLAY_STEPS += depth;
+					break;
+				}
+				
+				--depth;
+			}
+		}
 		
 		// execute all but the last action of the losing sequence
-		for(int i = losingActionSequence.size() - 1; i > 0; --i){
+		for(int i = nextActionIdx; i > 0; --i){
 			ACTIONS nextAction = losingActionSequence.get(i);
 			node = node.getExpandedChildForAction(nextAction);
-			stateObs = node.generateNewStateObs(stateObs, nextAction);
+			stateObs = node.generateNewStateObs(this, stateObs, nextAction);
 			state = stateObs.getStateObsNoCopy();
 			
 			if(state.isGameOver()){
@@ -592,7 +2082,7 @@ public class MctsController implements IController {
 				
 				// pretending that we found inescapable loss since this seems to be an unstable situation, probably want
 				// to turn off NBP
-				backup(losingNode, playoutEval.scorePlayout(losingNode.getStateObs()), elapsedForSimulationTimer, true);
+				backup(losingNode, losingState, playoutEval.scorePlayout(losingState), elapsedForSimulationTimer, true);
 				losingActionSequence = null;
 				losingState = null;
 				return;
@@ -609,30 +2099,48 @@ public class MctsController implements IController {
 		double maxEval = Double.NEGATIVE_INFINITY;
 		ACTIONS losingAction = losingActionSequence.get(0);
 		
+		// with a safetyCheckPool, the successors for all actions other than the losing action are generated in parallel
+		StateObservation[] siblingStates = null;
+		if(safetyCheckPool != null && actions.size() > 2){
+			ArrayList<ACTIONS> siblingActions = new ArrayList<ACTIONS>(actions.size());
+			for(ACTIONS action : actions){
+				if(action != losingAction){
+					siblingActions.add(action);
+				}
+			}
+			
+			siblingStates = generateSafetyCheckSuccessors(preLossNode, state, siblingActions, 1)[0];
+		}
+		
+		int siblingIdx = 0;
 		for(int i = 0; i < actions.size(); ++i){
 			ACTIONS action = actions.get(i);
 			
 			if(action == losingAction){
 				states[i] = losingState;
 			}
+			else if(siblingStates != null){
+				states[i] = siblingStates[siblingIdx++];
+			}
 			else{
-				states[i] = state.copy();	// TODO can probably afford to do one less copy here? the last copy is redundant?
-				states[i].advance(action);
+				states[i] = generateSuccessor(preLossNode, state, action);	// TODO can probably afford to do one less copy here? the last copy is redundant?
 			}
 			
-			MctNode child = preLossNode.getExpandedChildForAction(action);
-			if(child != null){
-				// the node already has an expanded child for this action
-				nodes[i] = child;
-				nodes[i].setStateObs(states[i]);
-				nodes[i].cacheStateObservation(states[i]);
-			}
-			else{
-				// the node did not yet have an expanded child for this action
-				nodes[i] = new MctNode(preLossNode, action);
-				nodes[i].setStateObs(states[i]);
-				nodes[i].cacheStateObservation(states[i]);
-				preLossNode.addChild(nodes[i]);
+			synchronized(preLossNode){
+				MctNode child = preLossNode.getExpandedChildForAction(action);
+				if(child != null){
+					// the node already has an expanded child for this action
+					nodes[i] = child;
+					nodes[i].setStateObs(states[i]);
+					nodes[i].cacheStateObservation(states[i], stateCacheManager);
+				}
+				else{
+					// the node did not yet have an expanded child for this action
+					nodes[i] = createNode(preLossNode, action);
+					nodes[i].setStateObs(states[i]);
+					nodes[i].cacheStateObservation(states[i], stateCacheManager);
+					preLossNode.addChild(nodes[i]);
+				}
 			}
 			
 			double eval = playoutEval.scorePlayout(states[i]);
@@ -646,12 +2154,19 @@ public class MctsController implements IController {
 			}
 		}
 		
-		preLossNode.getUnexpandedActions().clear();
+		synchronized(preLossNode){
+			preLossNode.getUnexpandedActions().clear();
+		}
+		
+		if(lossAvoidanceStateReuse && !stateObs.shouldCopy() && !state.isGameOver()){
+			// all the successors were generated from copies, so the state of the pre-loss node can still be used once
+			preLossNode.cacheStateObservation(state, stateCacheManager);
+		}
 		
 		for(int i = 0; i < actions.size(); ++i){
 			if(i == bestIdx){
 				boolean inescapableLossFound = (states[i].isGameOver() && states[i].getGameWinner() == WINNER.PLAYER_LOSES);
-				backup(nodes[i], evals[i], elapsedForSimulationTimer, inescapableLossFound);
+				backup(nodes[i], states[i], evals[i], elapsedForSimulationTimer, inescapableLossFound);
 			}
 			else{
 				nodes[i].backpropagate(evals[i], 1.0 / evals.length);
@@ -667,94 +2182,189 @@ public class MctsController implements IController {
 	}
 	
 	/**
-	 * Returns the score for playing the given action
+	 * Creates a new node with the given parent and action from parent, recycling a node of a discarded subtree
+	 * if node recycling is enabled. The node is not added to the children of the parent yet
 	 * 
+	 * @param parent
 	 * @param action
 	 * @return
 	 */
-	public Score getActionScore(ActionLocation action){
-		Score score = actionStatistics.get(action);
+	public MctNode createNode(MctNode parent, ACTIONS action){
+		if(nodePool != null){
+			return nodePool.acquire(parent, action);
+		}
 		
-		if(score == null){
-			score = new Score();
-			actionStatistics.put(action, score);
+		return new MctNode(parent, action);
+	}
+	
+	/**
+	 * Adds the numbers of recycled and allocated nodes of our node pool (and the pools of Root Parallelization
+	 * workers) to the totals of the match
+	 */
+	private void collectNodePoolStatistics(){
+		if(nodePool != null){
+			TOTAL_RECYCLED_NODES += nodePool.getNumRecycledNodes();
+			TOTAL_ALLOCATED_NODES += nodePool.getNumAllocatedNodes();
+			nodePool.resetCounters();
 		}
 		
-		return score;
+		if(rootParallelWorkers != null){
+			for(MctsController worker : rootParallelWorkers){
+				if(worker.nodePool != null){
+					TOTAL_RECYCLED_NODES += worker.nodePool.getNumRecycledNodes();
+					TOTAL_ALLOCATED_NODES += worker.nodePool.getNumAllocatedNodes();
+					worker.nodePool.resetCounters();
+				}
+			}
+		}
 	}
 	
 	/**
-	 * Returns the score for playing the given n-gram of actions
-	 * 
-	 * @param nGram
-	 * @return
+	 * @return The total time (in milliseconds) spent in garbage collection by this JVM so far
 	 */
-	public Score getActionNGramScore(ActionNGram nGram){
-		Score score = actionNGramStatistics.get(nGram);
+	private static long getTotalGcMillis(){
+		long gcMillis = 0L;
 		
-		if(score == null){
-			score = new Score();
-			actionNGramStatistics.put(nGram, score);
+		for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()){
+			gcMillis += Math.max(0L, gcBean.getCollectionTime());
 		}
 		
-		return score;
+		return gcMillis;
+	}
+	
+	/**
+	 * Returns the table of statistics for playing actions, with keys computed by ActionNGram.actionKey(). 
+	 * Lookups in the table (find()) don't modify it, so this may be used by Leaf Parallelization 
+	 * workers while no backups are running
+	 * 
+	 * @return
+	 */
+	public ActionStatisticsTable getActionStatistics(){
+		return actionStatistics;
+	}
+	
+	/**
+	 * Returns the suffix trie of statistics for playing n-grams of actions (n >= 2). Lookups in the 
+	 * trie (getChild()) don't modify it
+	 * 
+	 * @return
+	 */
+	public ActionNGramTrie getActionNGramStatistics(){
+		return actionNGramStatistics;
+	}
+	
+	/**
+	 * @return The transposition table shared by all nodes of the tree (null if we don't use a transposition table)
+	 */
+	public TranspositionTable getTranspositionTable(){
+		return transpositionTable;
+	}
+	
+	/**
+	 * @return The cache of transitions in deterministic games (null if we don't use a transition cache)
+	 */
+	public TransitionCache getTransitionCache(){
+		return transitionCache;
+	}
+	
+	/**
+	 * @return The manager of the budget for states cached in nodes (null if there is no budget)
+	 */
+	public StateCacheManager getStateCacheManager(){
+		return stateCacheManager;
+	}
+	
+	/**
+	 * @return The policy that decides at which depths states are saved in deterministic games (null if we don't use checkpoints)
+	 */
+	public CheckpointPolicy getCheckpointPolicy(){
+		return checkpointPolicy;
 	}
 	
 	public double getRootEvaluation(){
 		return rootScore;
 	}
 	
-	private void generateBreadthFirstTree(StateObservation rootStateObs, ElapsedCpuTimer elapsedTimer){
-		root.setStateObs(rootStateObs);
+	/**
+	 * Builds a tree of depth 2 with safety prepruning, for the first search. The children of the root are generated
+	 * as usual by generateBreadthFirstTree() (in prepareTree()), after which every safe child of the root is expanded
+	 * in the same way, for as long as the given timer allows it. The state of every child of the root used for this is
+	 * one of the states it already cached (if any), which is cached again afterwards. The simulations are divided among
+	 * the threads of the safetyCheckPool, if we have one.
+	 * 
+	 * <p> runMcts() reuses the tree built here (the game tick of the state is 0) without preparing it again, and MCTS
+	 * expands it further
+	 * 
+	 * @param rootStateObs
+	 * @param elapsedTimer
+	 */
+	private void generateDepth2Tree(StateObservation rootStateObs, ElapsedCpuTimer elapsedTimer){
+		// same preparations as runMcts(), the knowledge-based evaluations of safety checks are relative to the root
+		if(randomSeed != null){
+			Globals.seedRNG(randomSeed.longValue() + rootStateObs.getGameTick());
+		}
 		
-		// create list of children of the root node with safety prepruning
-		ArrayList<ACTIONS> availableActions = rootStateObs.getAvailableActions();
-		int numRootActions = availableActions.size();
-		int[] numGameLosses = new int[numRootActions];
+		Globals.knowledgeBase.updateRoot(rootStateObs);
+		prepareTree(rootStateObs, elapsedTimer, startNewTick(rootStateObs));
 		
-		// will keep sum of scores collected in this array so we can initialize MCTS node with an average score
-		double[] scoreSums = new double[numRootActions];
-		int numSafetyChecksCompleted = 0;
+		// the search that follows in this tick should not repeat the above
+		preparedTreeTick = rootStateObs.getGameTick();
 		
-		// will keep generated state observations here so we can cache them in the nodes and re-use them later in MCTS
-		@SuppressWarnings("unchecked")
-		ArrayList<StateObservation>[] stateObservations = new ArrayList[numRootActions];
-		for(int i = 0; i < numRootActions; ++i){
-			stateObservations[i] = new ArrayList<StateObservation>(MAX_NUM_SAFETY_CHECKS);
-		}
+		// copy the list, generateBreadthFirstTree() below does not modify it, but let's not rely on that
+		ArrayList<MctNode> rootChildren = new ArrayList<MctNode>(root.getChildren());
+		long maxDurationExpansion = 0L;
 		
-		long maxDurationSafetyCheckRound = 0L;
-		for(int safetyCheckRound = 0; safetyCheckRound < MAX_NUM_SAFETY_CHECKS; ++safetyCheckRound){
-			ElapsedCpuTimer roundTimer = new ElapsedCpuTimer();
-			for(int actionIdx = 0; actionIdx < numRootActions; ++actionIdx){				
-				StateObservation successor = rootStateObs.copy();
-				successor.advance(availableActions.get(actionIdx));
-				
-				if(successor.isGameOver() && successor.getGameWinner() == WINNER.PLAYER_LOSES){
-					numGameLosses[actionIdx] += 1;
-				}
-				
-				scoreSums[actionIdx] += playoutEval.scorePlayout(successor);
-				stateObservations[actionIdx].add(successor);
-				
-				if(safetyCheckRound == 0 && knowledgeBasedEval){
-					// in the first round, also add KB eval
-					scoreSums[actionIdx] += Globals.knowledgeBase.knowledgeBasedEval(successor);
-				}
+		for(MctNode child : rootChildren){
+			long remainingMillis = elapsedTimer.remainingTimeMillis();
+			if(!hasFixedBudget() && (remainingMillis < TIME_BUFFER_MILLISEC || remainingMillis < maxDurationExpansion)){
+				break;
 			}
 			
-			++numSafetyChecksCompleted;
-			maxDurationSafetyCheckRound = Math.max(maxDurationSafetyCheckRound, roundTimer.elapsedMillis());
-			long remainingMillis = elapsedTimer.remainingTimeMillis();
+			ElapsedCpuTimer expansionTimer = new ElapsedCpuTimer();
+			StateObservation childState = child.pollCachedState(stateCacheManager);
+			if(childState == null){
+				childState = generateSuccessor(root, rootStateObs, child.getActionFromParent());
+			}
 			
-			if(remainingMillis < TIME_BUFFER_MILLISEC || remainingMillis < maxDurationSafetyCheckRound){
-				break;
+			if(!childState.isGameOver() && !childState.getAvailableActions().isEmpty() && child.getChildren().isEmpty()){
+				generateBreadthFirstTree(child, childState, elapsedTimer);
+				++NUM_DEPTH2_INIT_EXPANSIONS;
 			}
+			
+			// the state was not modified, so can still be used once by MCTS
+			child.cacheStateObservation(childState, stateCacheManager);
+			maxDurationExpansion = Math.max(maxDurationExpansion, expansionTimer.elapsedMillis());
 		}
+	}
+	
+	/**
+	 * Creates the children of the given (unexpanded) node for all actions that are safe according to safety prepruning,
+	 * initializing every child with a single visit (with the average score of its safety checks), and caching the 
+	 * generated states in the children
+	 * 
+	 * @param node
+	 * @param state
+	 * @param elapsedTimer
+	 */
+	private void generateBreadthFirstTree(MctNode node, StateObservation state, ElapsedCpuTimer elapsedTimer){
+		node.setStateObs(state);
+		
+		// create list of children of the node with safety prepruning
+		ArrayList<ACTIONS> availableActions = state.getAvailableActions();
+		int numActions = availableActions.size();
+		int[] numGameLosses = new int[numActions];
+		
+		// will keep sum of scores collected in this array so we can initialize MCTS node with an average score
+		double[] scoreSums = new double[numActions];
+		int[] numSafetyChecks = new int[numActions];
+		
+		// will keep generated state observations here so we can cache them in the nodes and re-use them later in MCTS
+		ArrayList<StateObservation>[] stateObservations = runSafetyChecks(node, state, availableActions, numGameLosses, 
+																		   scoreSums, numSafetyChecks, elapsedTimer);
 		
 		int lowestNumGameLosses = MAX_NUM_SAFETY_CHECKS;
-		TIntArrayList safeActions = new TIntArrayList(numRootActions, -1);
-		for(int actionIdx = 0; actionIdx < numRootActions; ++actionIdx){
+		TIntArrayList safeActions = new TIntArrayList(numActions, -1);
+		for(int actionIdx = 0; actionIdx < numActions; ++actionIdx){
 			if(numGameLosses[actionIdx] < lowestNumGameLosses){
 				lowestNumGameLosses = numGameLosses[actionIdx];
 				safeActions.resetQuick();
@@ -765,80 +2375,405 @@ public class MctsController implements IController {
 			}
 		}
 		
-		ArrayList<MctNode> newRootChildren = new ArrayList<MctNode>(safeActions.size());
+		ArrayList<MctNode> newChildren = new ArrayList<MctNode>(safeActions.size());
 		for(int i = 0; i < safeActions.size(); ++i){
 			int safeActionIdx = safeActions.getQuick(i);
 			ACTIONS action = availableActions.get(safeActionIdx);
 			
-			MctNode childNode = root.getExpandedChildForAction(action);
+			MctNode childNode = node.getExpandedChildForAction(action);
 			if(childNode == null){
-				childNode = new MctNode(root, action);
+				childNode = createNode(node, action);
 			}
 			
 			// we'll initialize the node with a single visit and the average score obtained among all safety checks
-			double avgScore = scoreSums[safeActionIdx] / numSafetyChecksCompleted;
-			childNode.backpropagate(avgScore);
+			double avgScore = scoreSums[safeActionIdx] / numSafetyChecks[safeActionIdx];
+			final long backupId = (transpositionTable != null) ? transpositionTable.nextBackupId() : 0L;
+			childNode.backpropagate(avgScore, 1.0, backupId);
 			
-			// for every time that we pretend a child of the root node was visited, we also pretend that the root was visited
-			// (this keeps the counters consistent)
-			root.backpropagate(avgScore);
+			// for every time that we pretend a child of the node was visited, we also pretend that the node (and 
+			// any ancestors it has) was visited (this keeps the counters consistent)
+			for(MctNode ancestor = node; ancestor != null; ancestor = ancestor.getParent()){
+				ancestor.backpropagate(avgScore, 1.0, backupId);
+			}
 			
 			MAX_SCORE = Math.max(MAX_SCORE, avgScore);
 			MIN_SCORE = Math.min(MIN_SCORE, avgScore);
 			
-			childNode.cacheStateObservations(stateObservations[safeActionIdx]);
+			childNode.cacheStateObservations(stateObservations[safeActionIdx], stateCacheManager);
 			
-			newRootChildren.add(childNode);
+			newChildren.add(childNode);
 		}
 		
-		root.getUnexpandedActions().clear();
-		root.getChildren().clear();
-		root.getChildren().addAll(newRootChildren);
+		node.getUnexpandedActions().clear();
+		node.getChildren().clear();
+		node.getChildren().addAll(newChildren);
 	} 
 	
 	/**
-	 * Performs safety prepruning on the children of the given node. The node is expected to
-	 * already be fully expanded
+	 * Runs the rounds of safety checks of safety prepruning for all the given actions in the given state (generated in
+	 * the given node), until MAX_NUM_SAFETY_CHECKS rounds have been run, sequential safety testing has decided the 
+	 * outcome for all actions, or there is no time left for another round. Used by both generateBreadthFirstTree() 
+	 * and safetyPreprune(), so that they always stop under the same conditions.
 	 * 
 	 * @param node
 	 * @param state
+	 * @param actions
+	 * @param numGameLosses At every action index, incremented for every safety check that resulted in a loss
+	 * @param scoreSums At every action index, incremented by the evaluation of every safety check (and by the 
+	 * 	knowledge-based evaluation in the first round). May be null, in which case the successors are not evaluated
+	 * @param numSafetyChecks At every action index, incremented for every safety check
+	 * @param elapsedTimer
+	 * @return At every action index, the list of successors generated by the safety checks of that action
 	 */
-	public void safetyPreprune(MctNode node, StateObservation state, ElapsedCpuTimer elapsedTimer){
-		node.setStateObs(state);
-		
-		ArrayList<MctNode> children = node.getChildren();
-		int numActions = children.size();
-		int[] numGameLosses = new int[numActions];
+	private ArrayList<StateObservation>[] runSafetyChecks(MctNode node, StateObservation state, ArrayList<ACTIONS> actions, 
+														  int[] numGameLosses, double[] scoreSums, int[] numSafetyChecks, 
+														  ElapsedCpuTimer elapsedTimer){
+		final int numActions = actions.size();
 		
-		// will keep generated state observations here so we can cache them in the nodes and re-use them later in MCTS
 		@SuppressWarnings("unchecked")
 		ArrayList<StateObservation>[] stateObservations = new ArrayList[numActions];
 		for(int i = 0; i < numActions; ++i){
 			stateObservations[i] = new ArrayList<StateObservation>(MAX_NUM_SAFETY_CHECKS);
 		}
-
+		
+		// indices of the actions that still need safety checks (with sequential safety testing, only those of which
+		// the outcome of the safety prepruning is not yet decided)
+		TIntArrayList testedActions = new TIntArrayList(numActions);
+		for(int i = 0; i < numActions; ++i){
+			testedActions.add(i);
+		}
+		
+		boolean[] decidedActions = null;
+		if(sequentialSafetyTesting){
+			decidedActions = new boolean[numActions];
+			++TOTAL_SEQUENTIAL_SAFETY_TESTS;
+		}
+		
+		// with a safetyCheckPool, a "round" below is a batch of rounds of which all simulations run in parallel
 		long maxDurationSafetyCheckRound = 0L;
-		for(int safetyCheckRound = 0; safetyCheckRound < MAX_NUM_SAFETY_CHECKS; ++safetyCheckRound){
+		int safetyCheckRound = 0;
+		while(safetyCheckRound < MAX_NUM_SAFETY_CHECKS){
 			ElapsedCpuTimer roundTimer = new ElapsedCpuTimer();
-			for(int actionIdx = 0; actionIdx < numActions; ++actionIdx){				
-				StateObservation successor = state.copy();
-				successor.advance(children.get(actionIdx).getActionFromParent());	// TODO also use these states to update knowledge base?
-				
-				if(successor.isGameOver() && successor.getGameWinner() == WINNER.PLAYER_LOSES){
-					numGameLosses[actionIdx] += 1;
+			int numBatchRounds = getNumSafetyCheckRoundsPerBatch(testedActions.size(), MAX_NUM_SAFETY_CHECKS - safetyCheckRound);
+			StateObservation[][] batchSuccessors = null;
+			
+			if(safetyCheckPool != null){
+				batchSuccessors = generateSafetyCheckSuccessors(node, state, getActions(actions, testedActions), numBatchRounds);
+			}
+			
+			// merge in the same order as if all the simulations had run in this thread
+			for(int batchRound = 0; batchRound < numBatchRounds; ++batchRound){
+				for(int i = 0; i < testedActions.size(); ++i){
+					int actionIdx = testedActions.getQuick(i);
+					StateObservation successor;
+					if(batchSuccessors == null){
+						successor = generateSuccessor(node, state, actions.get(actionIdx));
+					}
+					else{
+						successor = batchSuccessors[batchRound][i];
+					}
+					
+					if(successor.isGameOver() && successor.getGameWinner() == WINNER.PLAYER_LOSES){
+						numGameLosses[actionIdx] += 1;
+					}
+					
+					if(scoreSums != null){
+						scoreSums[actionIdx] += playoutEval.scorePlayout(successor);
+						
+						if(safetyCheckRound + batchRound == 0 && knowledgeBasedEval){
+							// in the first round, also add KB eval
+							scoreSums[actionIdx] += Globals.knowledgeBase.knowledgeBasedEval(successor);
+						}
+					}
+					
+					stateObservations[actionIdx].add(successor);
+					numSafetyChecks[actionIdx] += 1;
 				}
-				
-				stateObservations[actionIdx].add(successor);
 			}
 			
+			safetyCheckRound += numBatchRounds;
 			maxDurationSafetyCheckRound = Math.max(maxDurationSafetyCheckRound, roundTimer.elapsedMillis());
+			
+			if(decidedActions != null){
+				decideSafetyChecks(numGameLosses, numSafetyChecks, decidedActions, testedActions);
+				
+				if(testedActions.isEmpty()){
+					break;
+				}
+			}
+			
 			long remainingMillis = elapsedTimer.remainingTimeMillis();
 			
-			if(remainingMillis < TIME_BUFFER_MILLISEC || remainingMillis < maxDurationSafetyCheckRound){
+			if(!hasFixedBudget() && (remainingMillis < TIME_BUFFER_MILLISEC || remainingMillis < maxDurationSafetyCheckRound)){
 				break;
 			}
 		}
 		
+		return stateObservations;
+	}
+	
+	/**
+	 * Generates the successor of the given state (generated in the given node) when the given action is applied, 
+	 * without modifying the given state. In deterministic games, the successor is taken from (or added to) the 
+	 * transition cache if we use one. The caller may modify the returned state
+	 * 
+	 * @param node
+	 * @param state
+	 * @param action
+	 * @return
+	 */
+	private StateObservation generateSuccessor(MctNode node, StateObservation state, ACTIONS action){
+		if(transitionCache == null || !Globals.knowledgeBase.isGameDeterministic()){
+			StateObservation successor = state.copy();
+			successor.advance(action);
+			return successor;
+		}
+		
+		final long fingerprint = node.getStateFingerprint(state);
+		final int tick = state.getGameTick();
+		StateObservation cachedSuccessor = transitionCache.get(fingerprint, tick, action);
+		
+		if(cachedSuccessor != null){
+			return cachedSuccessor.copy();
+		}
+		
+		StateObservation successor = state.copy();
+		successor.advance(action);
+		transitionCache.put(fingerprint, tick, action, successor.copy());
+		return successor;
+	}
+	
+	/**
+	 * Sequential safety testing: decides for which of the tested actions the outcome of safety prepruning can no 
+	 * longer change, no matter how the remaining safety checks turn out, and removes those from the tested actions. 
+	 * An action is decided to be pruned if it already has more losses than another action can still end up with, 
+	 * and decided to be kept if it cannot end up with more losses than any other action already has.
+	 * 
+	 * <p> Actions that are decided keep their number of losses, so pruning the actions with more losses than the 
+	 * lowest number of losses afterwards has the same outcome as if all safety checks had been run
+	 * 
+	 * @param numGameLosses Number of losses observed per action
+	 * @param numSafetyChecks Number of safety checks run per action
+	 * @param decidedActions Per action, true if it has been decided already. Updated by this method
+	 * @param testedActions Indices of the actions that have not been decided yet. Updated by this method
+	 */
+	private void decideSafetyChecks(int[] numGameLosses, int[] numSafetyChecks, boolean[] decidedActions, TIntArrayList testedActions){
+		final int numActions = numGameLosses.length;
+		
+		// the highest number of losses that every action can still end up with
+		int[] maxNumGameLosses = new int[numActions];
+		for(int i = 0; i < numActions; ++i){
+			maxNumGameLosses[i] = numGameLosses[i];
+			
+			if(!decidedActions[i]){
+				maxNumGameLosses[i] += Math.max(0, MAX_NUM_SAFETY_CHECKS - numSafetyChecks[i]);
+			}
+		}
+		
+		for(int i = testedActions.size() - 1; i >= 0; --i){
+			final int actionIdx = testedActions.getQuick(i);
+			boolean pruned = false;
+			boolean kept = true;
+			
+			for(int other = 0; other < numActions; ++other){
+				if(other != actionIdx){
+					if(maxNumGameLosses[other] < numGameLosses[actionIdx]){
+						pruned = true;
+					}
+					
+					if(numGameLosses[other] < maxNumGameLosses[actionIdx]){
+						kept = false;
+					}
+				}
+			}
+			
+			if(pruned || kept){
+				decidedActions[actionIdx] = true;
+				testedActions.removeAt(i);
+				TOTAL_SKIPPED_SAFETY_CHECKS += Math.max(0, MAX_NUM_SAFETY_CHECKS - numSafetyChecks[actionIdx]);
+			}
+		}
+	}
+	
+	/**
+	 * @param actions
+	 * @param indices
+	 * @return A list with the actions at the given indices of the given list of actions
+	 */
+	private static ArrayList<ACTIONS> getActions(ArrayList<ACTIONS> actions, TIntArrayList indices){
+		ArrayList<ACTIONS> selectedActions = new ArrayList<ACTIONS>(indices.size());
+		for(int i = 0; i < indices.size(); ++i){
+			selectedActions.add(actions.get(indices.getQuick(i)));
+		}
+		
+		return selectedActions;
+	}
+	
+	/**
+	 * @param numActions The number of actions for which every round of safety checks runs a simulation
+	 * @param numRemainingRounds The number of rounds of safety checks that we may still run
+	 * @return The number of rounds of safety checks to run in the next batch. Without a safetyCheckPool, or with
+	 * 	sequential safety testing (which decides after every round which actions still need safety checks), this is
+	 * 	always 1. Otherwise, we run as many rounds as we need to have a simulation for every thread
+	 */
+	private int getNumSafetyCheckRoundsPerBatch(int numActions, int numRemainingRounds){
+		if(safetyCheckPool == null || sequentialSafetyTesting || numActions == 0){
+			return 1;
+		}
+		
+		return Math.max(1, Math.min(numRemainingRounds, numSafetyCheckThreads / numActions));
+	}
+	
+	/**
+	 * Generates the successors of the given state (generated in the given node) for all the given actions, in the given
+	 * number of rounds of safety checks, dividing the calls to advance() among the threads of the safetyCheckPool and 
+	 * this thread. Copies of the given state, and all lookups in the transition cache, are done in this thread, in the
+	 * same order as generateSuccessor() would do them for one round after the other.
+	 *
+	 * <p> Only the calls to advance() are parallelized, the successors are evaluated by the caller in this thread.
+	 * Evaluating a state is not free of side effects: knowledgeBasedEval() widens the normalisation bounds of the
+	 * knowledge base (MIN_KB_EVAL and MAX_KB_EVAL, the bounds on resources and health points, the maximum number of
+	 * observations per type), and may register types it did not see before. The order in which states are evaluated
+	 * therefore affects the evaluations of later states, and evaluating them in a fixed order in this thread keeps
+	 * the outcome of safety prepruning reproducible.
+	 *
+	 * @param node
+	 * @param state
+	 * @param actions
+	 * @param numRounds
+	 * @return The successors, indexed by [round][action index]
+	 */
+	private StateObservation[][] generateSafetyCheckSuccessors(MctNode node, StateObservation state, 
+																final ArrayList<ACTIONS> actions, int numRounds){
+		final int numActions = actions.size();
+		final boolean useTransitionCache = (transitionCache != null && Globals.knowledgeBase.isGameDeterministic());
+		final StateObservation[][] successors = new StateObservation[numRounds][numActions];
+		
+		// in later rounds, all successors would be found in the transition cache, so only need copies of those
+		final int numParallelRounds = useTransitionCache ? 1 : numRounds;
+		final long fingerprint = useTransitionCache ? node.getStateFingerprint(state) : 0L;
+		final int tick = state.getGameTick();
+		
+		// copy all the states that need to be advanced here, workers only advance their own copies
+		final TIntArrayList toAdvance = new TIntArrayList(numParallelRounds * numActions);
+		for(int round = 0; round < numParallelRounds; ++round){
+			for(int actionIdx = 0; actionIdx < numActions; ++actionIdx){
+				StateObservation cachedSuccessor = null;
+				if(useTransitionCache){
+					cachedSuccessor = transitionCache.get(fingerprint, tick, actions.get(actionIdx));
+				}
+				
+				if(cachedSuccessor == null){
+					successors[round][actionIdx] = state.copy();
+					toAdvance.add(round * numActions + actionIdx);
+				}
+				else{
+					successors[round][actionIdx] = cachedSuccessor.copy();
+				}
+			}
+		}
+		
+		// divide the states to advance among the threads, every task advances every numTasks'th state
+		final int numTasks = Math.min(numSafetyCheckThreads, toAdvance.size());
+		ArrayList<Future<?>> taskResults = new ArrayList<Future<?>>(Math.max(0, numTasks - 1));
+		for(int task = 1; task < numTasks; ++task){
+			final int firstIdx = task;
+			taskResults.add(safetyCheckPool.submit(new Runnable(){
+
+				@Override
+				public void run() {
+					advanceSafetyCheckSuccessors(successors, actions, toAdvance, firstIdx, numTasks);
+				}
+				
+			}));
+		}
+		
+		if(numTasks > 0){
+			advanceSafetyCheckSuccessors(successors, actions, toAdvance, 0, numTasks);
+		}
+		
+		boolean interrupted = false;
+		for(Future<?> taskResult : taskResults){
+			while(true){
+				try {
+					taskResult.get();
+					break;
+				} 
+				catch (InterruptedException e) {
+					// the other tasks are short, so finish waiting for them and restore the interrupt afterwards
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					// advance() failed, same as it would have in this thread
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		
+		if(useTransitionCache){
+			for(int i = 0; i < toAdvance.size(); ++i){
+				int actionIdx = toAdvance.getQuick(i);
+				transitionCache.put(fingerprint, tick, actions.get(actionIdx), successors[0][actionIdx].copy());
+			}
+			
+			for(int round = numParallelRounds; round < numRounds; ++round){
+				for(int actionIdx = 0; actionIdx < numActions; ++actionIdx){
+					successors[round][actionIdx] = generateSuccessor(node, state, actions.get(actionIdx));
+				}
+			}
+		}
+		
+		return successors;
+	}
+	
+	/**
+	 * Advances every step'th of the successors to advance, starting at the given index in toAdvance
+	 * 
+	 * @param successors Successors indexed by [round][action index]
+	 * @param actions
+	 * @param toAdvance Indices (round * number of actions + action index) of successors to advance
+	 * @param firstIdx
+	 * @param step
+	 */
+	private static void advanceSafetyCheckSuccessors(StateObservation[][] successors, ArrayList<ACTIONS> actions, 
+														TIntArrayList toAdvance, int firstIdx, int step){
+		final int numActions = actions.size();
+		for(int i = firstIdx; i < toAdvance.size(); i += step){
+			int successorIdx = toAdvance.getQuick(i);
+			int actionIdx = successorIdx % numActions;
+			successors[successorIdx / numActions][actionIdx].advance(actions.get(actionIdx));
+		}
+	}
+	
+	/**
+	 * Performs safety prepruning on the children of the given node. The node is expected to
+	 * already be fully expanded
+	 * 
+	 * @param node
+	 * @param state
+	 */
+	public void safetyPreprune(MctNode node, StateObservation state, ElapsedCpuTimer elapsedTimer){
+		node.setStateObs(state);
+		
+		ArrayList<MctNode> children = node.getChildren();
+		int numActions = children.size();
+		int[] numGameLosses = new int[numActions];
+		int[] numSafetyChecks = new int[numActions];
+		
+		ArrayList<ACTIONS> actions = new ArrayList<ACTIONS>(numActions);
+		for(int i = 0; i < numActions; ++i){
+			actions.add(children.get(i).getActionFromParent());
+		}
+		
+		// will keep generated state observations here so we can cache them in the nodes and re-use them later in MCTS
+		// TODO also use these states to update knowledge base?
+		ArrayList<StateObservation>[] stateObservations = runSafetyChecks(node, state, actions, numGameLosses, 
+																		   null, numSafetyChecks, elapsedTimer);
+		
 		int lowestNumGameLosses = MAX_NUM_SAFETY_CHECKS;
 		for(int actionIdx = 0; actionIdx < numActions; ++actionIdx){
 			if(numGameLosses[actionIdx] < lowestNumGameLosses){
@@ -854,7 +2789,7 @@ public class MctsController implements IController {
 			}
 			else{
 				// the child at index i is not gonna be removed, so we can cache the generated states for that node
-				children.get(i).cacheStateObservations(stateObservations[i]);
+				children.get(i).cacheStateObservations(stateObservations[i], stateCacheManager);
 			}
 		}
 		
@@ -866,19 +2801,216 @@ public class MctsController implements IController {
 	
 	@Override
 	public void result(StateObservation stateObservation, ElapsedCpuTimer elapsedCpuTimer){
+		stopPondering();
+		shutdownWorkers();
+		
+		if(nodePool != null){
+			// don't keep the discarded trees alive after the game
+			nodePool.clear();
+		}
+		
+		if(transpositionTable != null){
+			transpositionTable.clear();
+		}
+		
+		if(transitionCache != null){
+			transitionCache.clear();
+		}
+		
+		if(stateCacheManager != null){
+			stateCacheManager.clear();
+		}
+		
+		if(TIME_BUFFER_CALIBRATOR != null){
+			TIME_BUFFER_CALIBRATOR.persist();
+		}
 		//System.out.println("avg iterations = " + (double)TOTAL_ITERATIONS / stateObservation.getGameTick());
 	}
 	
-	public boolean hasTimeLeft(ElapsedCpuTimer timer, long maxTimeMillis, long elapsedMillis){
-		long timeRemaining = maxTimeMillis - elapsedMillis;
-		return (timeRemaining > 2.0 * avgSimulationTime 	&&
-				timeRemaining > TIME_BUFFER_MILLISEC			);
+	/**
+	 * Checks whether the decision in the root is settled, i.e. whether the most visited child of the root (which
+	 * should also have the highest average score) is so far ahead of the runner-up in terms of visits, that the
+	 * runner-up cannot catch up anymore in the number of iterations that we expect to still be able to run.
+	 * 
+	 * @param remainingNanos The time (in nanoseconds) left for MCTS iterations
+	 * @return True if the decision in the root is settled
+	 */
+	private boolean isRootDecisionSettled(long remainingNanos){
+		if(!root.isFullyExpanded() || root.getNumVisits() < MIN_ROOT_VISITS_SETTLED){
+			return false;
+		}
+		
+		MctNode mostVisitedChild = null;
+		double mostVisits = Double.NEGATIVE_INFINITY;
+		double runnerUpVisits = 0.0;
+		MctNode bestAvgScoreChild = null;
+		double bestAvgScore = Double.NEGATIVE_INFINITY;
+		
+		synchronized(root){
+			ArrayList<MctNode> children = root.getChildren();
+			
+			for(int i = 0; i < children.size(); ++i){
+				MctNode child = children.get(i);
+				double numVisits = child.getNumVisits();
+				
+				if(numVisits > mostVisits){
+					runnerUpVisits = Math.max(runnerUpVisits, mostVisits);
+					mostVisits = numVisits;
+					mostVisitedChild = child;
+				}
+				else if(numVisits > runnerUpVisits){
+					runnerUpVisits = numVisits;
+				}
+				
+				if(numVisits > 0.0){
+					double avgScore = child.getTotalScore() / numVisits;
+					if(avgScore > bestAvgScore){
+						bestAvgScore = avgScore;
+						bestAvgScoreChild = child;
+					}
+				}
+			}
+		}
+		
+		if(mostVisitedChild == null || mostVisitedChild != bestAvgScoreChild){
+			// the final move selection might still pick something else
+			return false;
+		}
+		
+		if(!mostVisitedChild.isNovel() && !root.isInescapableLossFound()){
+			// the final move selection avoids non-novel children
+			return false;
+		}
+		
+		// a batch of Leaf Parallelization can give multiple visits to the runner-up
+		int visitsPerIteration = (leafParallelWorkers == null) ? 1 : leafParallelWorkers.length + 1;
+		
+		double predictedRemainingIterations = 
+				(double) Math.max(0L, remainingNanos) / Math.max(1L, iterationCostPredictor.computeQuantileNanos(0.5));
+		
+		return (mostVisits - runnerUpVisits > predictedRemainingIterations * visitsPerIteration);
+	}
+	
+	/**
+	 * Cooperative deadline check for the selection and play-out stages of an MCTS iteration. Returns true if
+	 * the iteration should stop generating new states, because it has run into the time buffer or the pondering
+	 * search should stop. The iteration then backs up the evaluation of the last state it generated.
+	 * 
+	 * @return True if the current MCTS iteration should be aborted
+	 */
+	public boolean shouldAbortIteration(){
+		return (stopPondering || System.nanoTime() > hardDeadlineNanos);
+	}
+	
+	/**
+	 * Checks whether the current search may start another MCTS iteration. With a fixed search budget, this only
+	 * depends on the given number of iterations and calls to advance() performed so far. Otherwise, this only depends 
+	 * on the time left before the given deadline (see hasTimeLeft())
+	 * 
+	 * @param deadlineNanos
+	 * @param nowNanos
+	 * @param numIterations
+	 * @param numAdvanceOps
+	 * @return
+	 */
+	private boolean hasBudgetLeft(long deadlineNanos, long nowNanos, int numIterations, long numAdvanceOps){
+		if(hasFixedBudget()){
+			return ((iterationBudget <= 0 || numIterations < iterationBudget) && 
+					(advanceOpsBudget <= 0L || numAdvanceOps < advanceOpsBudget));
+		}
+		
+		return hasTimeLeft(deadlineNanos, nowNanos);
+	}
+	
+	/**
+	 * Checks whether, at the given time, there is enough time left before the given deadline for the next 
+	 * step of the search (with the predicted cost in predictedIterationNanos) and the time buffer.
+	 * Both times should be measured using System.nanoTime().
+	 * 
+	 * @param deadlineNanos
+	 * @param nowNanos
+	 * @return
+	 */
+	public boolean hasTimeLeft(long deadlineNanos, long nowNanos){
+		long timeRemaining = deadlineNanos - nowNanos;
+		return (timeRemaining > predictedIterationNanos 					&&
+				timeRemaining > TIME_BUFFER_MILLISEC * 1000000L			);
 	}
 	
 	public boolean hasTimeLeft(ElapsedCpuTimer timer){
-		long timeRemaining = timer.remainingTimeMillis();
-		return (timeRemaining > 2.0 * avgSimulationTime 	&&
-				timeRemaining > TIME_BUFFER_MILLISEC			);
+		if(hasFixedBudget()){
+			// not limited by time
+			return true;
+		}
+		
+		long timeRemaining = timer.remainingTimeMillis() * 1000000L;
+		return (timeRemaining > predictedIterationNanos 					&&
+				timeRemaining > TIME_BUFFER_MILLISEC * 1000000L			);
+	}
+	
+	/**
+	 * Creates the daemon threads used by our workers and for pondering (these should never keep the JVM alive)
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final String namePrefix;
+		private int numThreadsCreated = 0;
+		
+		public DaemonThreadFactory(String namePrefix){
+			this.namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + (numThreadsCreated++));
+			thread.setDaemon(true);
+			return thread;
+		}
+		
+	}
+	
+	/**
+	 * A single MCTS iteration going through the stages of pipelined MCTS
+	 */
+	private static class PipelineTask {
+		/** The node returned by the selection step */
+		public final MctNode selectedNode;
+		/** The state generated for selectedNode by the selection step. The play-out may modify this */
+		public final StateObservation selectedState;
+		/** If true, selectedState is shared, and the play-out should copy it instead of modifying it */
+		public final boolean selectedStateShared;
+		/** The ONE_STEP_EVAL computed by the selection step */
+		public final double oneStepEval;
+		/** The deepest node to which the selection step added a virtual loss (null if none) */
+		public final MctNode virtualLossLeaf;
+		/** The remaining search time (in milliseconds) when selectedNode was selected */
+		public final long remainingMillis;
+		
+		/** The last node of the play-out (remains null if the play-out failed) */
+		public MctNode playOutEnd = null;
+		/** The state at the end of the play-out */
+		public StateObservation endState = null;
+		/** Evaluation of endState, including the knowledge-based evaluation */
+		public double score = 0.0;
+		/** The number of calls to advance() in the play-out */
+		public int numAdvanceOps = 0;
+		
+		/** Time at which selectedNode was put in the queue */
+		public long enqueuedNanos;
+		/** Time at which a worker took selectedNode from the queue */
+		public long playoutStartNanos;
+		/** Time at which the worker finished its play-out and evaluation */
+		public long playoutEndNanos;
+		
+		public PipelineTask(MctNode selectedNode, StateObservation selectedState, boolean selectedStateShared, 
+							double oneStepEval, MctNode virtualLossLeaf, long remainingMillis){
+			this.selectedNode = selectedNode;
+			this.selectedState = selectedState;
+			this.selectedStateShared = selectedStateShared;
+			this.oneStepEval = oneStepEval;
+			this.virtualLossLeaf = virtualLossLeaf;
+			this.remainingMillis = remainingMillis;
+		}
 	}
 	
 	/**
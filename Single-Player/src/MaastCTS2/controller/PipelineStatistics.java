@@ -0,0 +1,151 @@
+package MaastCTS2.controller;
+
+/**
+ * Statistics collected by the pipelined MCTS of MctsController, which can be used to tune
+ * the number of workers and the capacity of the queue of selected nodes.
+ *
+ * <p> All times are measured per MCTS iteration, and all statistics are updated by the thread that
+ * runs the selection and backup stages only.
+ *
+ * @author Dennis Soemers
+ *
+ */
+public class PipelineStatistics {
+
+	/** The number of iterations that went through all stages of the pipeline */
+	private long numIterations;
+
+	/** Total time spent in the selection stage */
+	private long selectionNanos;
+	/** Total time that selected nodes spent in the queue before a worker started on them */
+	private long leafQueueWaitNanos;
+	/** Total time spent by workers in play-outs and evaluations */
+	private long playoutNanos;
+	/** Total time that completed play-outs spent in the queue before they were backed up */
+	private long resultQueueWaitNanos;
+	/** Total time spent in the backup stage */
+	private long backupNanos;
+
+	/** The number of times we measured the depths of the queues */
+	private long numQueueDepthSamples;
+	/** Sum of all measured depths of the queue of selected nodes */
+	private long leafQueueDepthSum;
+	/** Sum of all measured depths of the queue of completed play-outs */
+	private long resultQueueDepthSum;
+	/** The highest measured depth of the queue of selected nodes */
+	private int maxLeafQueueDepth;
+	/** The highest measured depth of the queue of completed play-outs */
+	private int maxResultQueueDepth;
+
+	public PipelineStatistics(){
+		reset();
+	}
+
+	public void reset(){
+		numIterations = 0L;
+		selectionNanos = 0L;
+		leafQueueWaitNanos = 0L;
+		playoutNanos = 0L;
+		resultQueueWaitNanos = 0L;
+		backupNanos = 0L;
+		numQueueDepthSamples = 0L;
+		leafQueueDepthSum = 0L;
+		resultQueueDepthSum = 0L;
+		maxLeafQueueDepth = 0;
+		maxResultQueueDepth = 0;
+	}
+
+	public void recordSelection(long nanos){
+		selectionNanos += nanos;
+	}
+
+	/**
+	 * Records the timings of an iteration that has completed the backup stage
+	 *
+	 * @param enqueuedNanos Time at which the selected node was put in the queue
+	 * @param playoutStartNanos Time at which a worker took the selected node from the queue
+	 * @param playoutEndNanos Time at which the worker put the result of its play-out in the result queue
+	 * @param backupStartNanos Time at which the backup stage took the result from the queue
+	 * @param backupEndNanos Time at which the backup stage finished backing up the result
+	 */
+	public void recordIteration(long enqueuedNanos, long playoutStartNanos, long playoutEndNanos,
+								long backupStartNanos, long backupEndNanos){
+		++numIterations;
+		leafQueueWaitNanos += playoutStartNanos - enqueuedNanos;
+		playoutNanos += playoutEndNanos - playoutStartNanos;
+		resultQueueWaitNanos += backupStartNanos - playoutEndNanos;
+		backupNanos += backupEndNanos - backupStartNanos;
+	}
+
+	public void sampleQueueDepths(int leafQueueDepth, int resultQueueDepth){
+		++numQueueDepthSamples;
+		leafQueueDepthSum += leafQueueDepth;
+		resultQueueDepthSum += resultQueueDepth;
+		maxLeafQueueDepth = Math.max(maxLeafQueueDepth, leafQueueDepth);
+		maxResultQueueDepth = Math.max(maxResultQueueDepth, resultQueueDepth);
+	}
+
+	public long getNumIterations(){
+		return numIterations;
+	}
+
+	public double getAvgSelectionMillis(){
+		return avgMillis(selectionNanos);
+	}
+
+	public double getAvgLeafQueueWaitMillis(){
+		return avgMillis(leafQueueWaitNanos);
+	}
+
+	public double getAvgPlayoutMillis(){
+		return avgMillis(playoutNanos);
+	}
+
+	public double getAvgResultQueueWaitMillis(){
+		return avgMillis(resultQueueWaitNanos);
+	}
+
+	public double getAvgBackupMillis(){
+		return avgMillis(backupNanos);
+	}
+
+	public double getAvgLeafQueueDepth(){
+		return (numQueueDepthSamples == 0L) ? 0.0 : ((double) leafQueueDepthSum / numQueueDepthSamples);
+	}
+
+	public double getAvgResultQueueDepth(){
+		return (numQueueDepthSamples == 0L) ? 0.0 : ((double) resultQueueDepthSum / numQueueDepthSamples);
+	}
+
+	public int getMaxLeafQueueDepth(){
+		return maxLeafQueueDepth;
+	}
+
+	public int getMaxResultQueueDepth(){
+		return maxResultQueueDepth;
+	}
+
+	/**
+	 * Returns all statistics as a String of key=value pairs, separated by the given character
+	 *
+	 * @param c
+	 * @return
+	 */
+	public String getLogData(char c){
+		return "Pipeline_Iterations=" + numIterations + c
+				+ "Avg_Selection_Ms=" + getAvgSelectionMillis() + c
+				+ "Avg_Leaf_Queue_Wait_Ms=" + getAvgLeafQueueWaitMillis() + c
+				+ "Avg_Playout_Ms=" + getAvgPlayoutMillis() + c
+				+ "Avg_Result_Queue_Wait_Ms=" + getAvgResultQueueWaitMillis() + c
+				+ "Avg_Backup_Ms=" + getAvgBackupMillis() + c
+				+ "Avg_Leaf_Queue_Depth=" + getAvgLeafQueueDepth() + c
+				+ "Max_Leaf_Queue_Depth=" + maxLeafQueueDepth + c
+				+ "Avg_Result_Queue_Depth=" + getAvgResultQueueDepth() + c
+				+ "Max_Result_Queue_Depth=" + maxResultQueueDepth;
+	}
+
+	private double avgMillis(long totalNanos){
+		return (numIterations == 0L) ? 0.0 : (totalNanos / 1000000.0 / numIterations);
+	}
+
+}
@@ -0,0 +1,22 @@
+package MaastCTS2.controller;
+
+import ontology.Types.ACTIONS;
+import tools.ElapsedCpuTimer;
+import core.game.StateObservation;
+
+/**
+ * Spare time hook that keeps searching, but only in the subtree of the action that will be played. The
+ * decision in the root is settled anyway, so this grows the part of the tree that we can re-use in the next
+ * search (in deterministic games, it searches from exactly the next root state).
+ *
+ * @author Dennis Soemers
+ */
+public class SubtreeSearchHook implements ISpareTimeHook {
+
+	@Override
+	public void useSpareTime(MctsController controller, StateObservation rootStateObs, ACTIONS chosenAction, 
+								ElapsedCpuTimer elapsedTimer) {
+		controller.searchSubtree(rootStateObs, chosenAction, elapsedTimer);
+	}
+
+}
@@ -0,0 +1,264 @@
+package MaastCTS2.controller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.Properties;
+
+import core.competition.CompetitionParameters;
+
+/**
+ * Calibrates MctsController.TIME_BUFFER_MILLISEC for the machine we're running on.
+ *
+ * <p> After every call to chooseAction(), the controller reports the slack with which it returned (how much
+ * time was left of CompetitionParameters.ACTION_TIME) and the time buffer that was used. The difference between
+ * them is the overshoot: the amount of time spent after the point where the time buffer would have been exactly
+ * used up. We return too late whenever the overshoot exceeds the time buffer, so the calibrated time buffer is
+ * the quantile of the overshoot corresponding to the target probability of returning too late.
+ *
+ * <p> Overshoots are collected in a histogram with buckets of 0.1 milliseconds, in which old observations
+ * are exponentially decayed, so the calibration can follow changes in the load of the machine. The calibrated
+ * time buffer can be persisted in a properties file (one entry per machine), so that the next JVM can start
+ * with a calibrated time buffer instead of the default.
+ *
+ * @author Dennis Soemers
+ *
+ */
+public class TimeBufferCalibrator {
+
+	/** Width (in nanoseconds) of the buckets of the histogram of overshoots */
+	private static final long BUCKET_NANOS = 100000L;
+	/** Number of buckets in the histogram of overshoots. Larger overshoots are put in the last bucket */
+	private static final int NUM_BUCKETS = 1000;
+
+	/** The time buffer will never be calibrated to be smaller than this */
+	public static final int MIN_TIME_BUFFER_MILLISEC = 2;
+	/** The time buffer will never be calibrated to be larger than this */
+	public static final int MAX_TIME_BUFFER_MILLISEC = 50;
+
+	/** The number of observations required before we start changing the time buffer */
+	private static final int MIN_OBSERVATIONS = 30;
+
+	/** Weights of all observed overshoots per bucket */
+	private final double[] bucketWeights = new double[NUM_BUCKETS];
+	/** Sum of all bucket weights */
+	private double totalWeight = 0.0;
+	/**
+	 * The weight of the next observation. Instead of decaying all the old weights after every observation,
+	 * we increase the weight of new observations, and only rescale everything when this becomes large
+	 */
+	private double observationWeight = 1.0;
+
+	/** Target probability of returning from chooseAction() after ACTION_TIME */
+	private final double targetOverrunProbability;
+	/** Factor by which the weight of old observations decays whenever a new observation is made */
+	private final double decay;
+	/** File in which the calibrated time buffer is persisted (null if it should not be persisted) */
+	private final File persistenceFile;
+	/**
+	 * The key under which the calibrated time buffer of this machine is stored in the properties file (null if
+	 * there is no persistence file, so that we do not look up the host name when we don't need it)
+	 */
+	private final String machineKey;
+
+	/** The number of observations made in this JVM */
+	private int numObservations = 0;
+	/** The number of observations in which we returned after ACTION_TIME */
+	private int numOverruns = 0;
+	/** The calibrated time buffer */
+	private int calibratedTimeBuffer;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialTimeBuffer The time buffer to start with if nothing has been persisted for this machine yet
+	 * @param targetOverrunProbability Target probability of returning from chooseAction() after ACTION_TIME
+	 * @param decay Factor in (0, 1] by which the weight of old observations decays whenever a new observation is made
+	 * @param persistenceFile File in which the calibrated time buffer is persisted (null if it should not be persisted)
+	 */
+	public TimeBufferCalibrator(int initialTimeBuffer, double targetOverrunProbability, double decay, File persistenceFile){
+		this.targetOverrunProbability = targetOverrunProbability;
+		this.decay = decay;
+		this.persistenceFile = persistenceFile;
+		this.machineKey = (persistenceFile == null) ? null : computeMachineKey();
+
+		calibratedTimeBuffer = loadTimeBuffer(initialTimeBuffer);
+	}
+
+	/**
+	 * Creates a calibrator aiming to return too late in at most 0.5% of the calls to chooseAction(), with
+	 * old observations losing half their weight in about 350 calls
+	 *
+	 * @param initialTimeBuffer The time buffer to start with if nothing has been persisted for this machine yet
+	 * @param persistenceFile File in which the calibrated time buffer is persisted (null if it should not be persisted)
+	 */
+	public TimeBufferCalibrator(int initialTimeBuffer, File persistenceFile){
+		this(initialTimeBuffer, 0.005, 0.998, persistenceFile);
+	}
+
+	/**
+	 * @return The default file for persisting calibrated time buffers, in the home directory of the user
+	 */
+	public static File getDefaultPersistenceFile(){
+		return new File(System.getProperty("user.home"), ".MaastCTS2_time_buffer.properties");
+	}
+
+	/**
+	 * @return The calibrated time buffer (in milliseconds)
+	 */
+	public int getCalibratedTimeBuffer(){
+		return calibratedTimeBuffer;
+	}
+
+	public int getNumObservations(){
+		return numObservations;
+	}
+
+	public int getNumOverruns(){
+		return numOverruns;
+	}
+
+	/**
+	 * Records the slack with which a call to chooseAction() returned, and re-calibrates the time buffer
+	 *
+	 * @param elapsedNanos The time (in nanoseconds) elapsed on the timer of chooseAction() when it returned
+	 * @param usedTimeBuffer The time buffer (in milliseconds) that was used in that call
+	 * @return The newly calibrated time buffer (in milliseconds)
+	 */
+	public int recordAct(long elapsedNanos, int usedTimeBuffer){
+		long slackNanos = CompetitionParameters.ACTION_TIME * 1000000L - elapsedNanos;
+		long overshootNanos = usedTimeBuffer * 1000000L - slackNanos;
+
+		++numObservations;
+		if(slackNanos < 0L){
+			++numOverruns;
+		}
+
+		int bucket = (int) Math.min(NUM_BUCKETS - 1, Math.max(0L, overshootNanos) / BUCKET_NANOS);
+		bucketWeights[bucket] += observationWeight;
+		totalWeight += observationWeight;
+		observationWeight /= decay;
+
+		if(observationWeight > 1.0e100){
+			// rescale everything to avoid overflow
+			for(int i = 0; i < NUM_BUCKETS; ++i){
+				bucketWeights[i] /= observationWeight;
+			}
+
+			totalWeight /= observationWeight;
+			observationWeight = 1.0;
+		}
+
+		if(numObservations >= MIN_OBSERVATIONS){
+			calibratedTimeBuffer = computeTimeBuffer();
+		}
+
+		return calibratedTimeBuffer;
+	}
+
+	/**
+	 * Writes the calibrated time buffer of this machine to the persistence file (if any). Entries of
+	 * other machines in the same file are preserved. Does nothing if we haven't made enough observations yet.
+	 */
+	public void persist(){
+		if(persistenceFile == null || numObservations < MIN_OBSERVATIONS){
+			return;
+		}
+
+		Properties properties = readProperties();
+		properties.setProperty(machineKey, Integer.toString(calibratedTimeBuffer));
+
+		try(OutputStream out = new FileOutputStream(persistenceFile)){
+			properties.store(out, "Calibrated time buffers (in milliseconds) of MaastCTS2, per machine");
+		}
+		catch(IOException | SecurityException e){
+			// not being able to persist the time buffer is not a problem, we'll just calibrate again in the next JVM
+		}
+	}
+
+	/**
+	 * @return The time buffer (in milliseconds) corresponding to the target overrun probability
+	 */
+	private int computeTimeBuffer(){
+		double targetWeight = (1.0 - targetOverrunProbability) * totalWeight;
+		double cumulativeWeight = 0.0;
+		int bucket = 0;
+
+		while(bucket < NUM_BUCKETS - 1){
+			cumulativeWeight += bucketWeights[bucket];
+
+			if(cumulativeWeight >= targetWeight){
+				break;
+			}
+
+			++bucket;
+		}
+
+		// round the upper bound of the bucket up to whole milliseconds
+		long overshootNanos = (bucket + 1) * BUCKET_NANOS;
+		int timeBuffer = (int) ((overshootNanos + 999999L) / 1000000L);
+		return Math.max(MIN_TIME_BUFFER_MILLISEC, Math.min(MAX_TIME_BUFFER_MILLISEC, timeBuffer));
+	}
+
+	/**
+	 * Loads the persisted time buffer of this machine
+	 *
+	 * @param defaultTimeBuffer Returned if nothing has been persisted for this machine
+	 * @return
+	 */
+	private int loadTimeBuffer(int defaultTimeBuffer){
+		if(persistenceFile == null){
+			return defaultTimeBuffer;
+		}
+
+		String value = readProperties().getProperty(machineKey);
+
+		if(value != null){
+			try{
+				int timeBuffer = Integer.parseInt(value.trim());
+				return Math.max(MIN_TIME_BUFFER_MILLISEC, Math.min(MAX_TIME_BUFFER_MILLISEC, timeBuffer));
+			}
+			catch(NumberFormatException e){
+				// corrupt entry, just ignore it
+			}
+		}
+
+		return defaultTimeBuffer;
+	}
+
+	private Properties readProperties(){
+		Properties properties = new Properties();
+
+		if(persistenceFile.exists()){
+			try(InputStream in = new FileInputStream(persistenceFile)){
+				properties.load(in);
+			}
+			catch(IOException | SecurityException | IllegalArgumentException e){
+				// start from scratch
+			}
+		}
+
+		return properties;
+	}
+
+	/**
+	 * @return A key identifying the machine (and the number of processors available to this JVM) we're running on
+	 */
+	private static String computeMachineKey(){
+		String hostName;
+
+		try{
+			hostName = InetAddress.getLocalHost().getHostName();
+		}
+		catch(IOException | SecurityException e){
+			hostName = "unknown";
+		}
+
+		return hostName + "_" + Runtime.getRuntime().availableProcessors() + "cpus";
+	}
+
+}
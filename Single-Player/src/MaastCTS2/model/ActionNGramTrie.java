@@ -0,0 +1,299 @@
+package MaastCTS2.model;
+
+import java.util.Arrays;
+
+/**
+ * Suffix trie of statistics (sum of scores and number of visits) for n-grams of actions, used by NST.
+ * Every action is identified by the key computed by ActionNGram.actionKey().
+ *
+ * <p> The children of the root correspond to the LAST action of an n-gram, their children to the action
+ * before that, etc. This is the order in which actions are encountered when walking up the MCTS tree, so
+ * a single descent through the trie while walking up the tree visits the statistics of the n-grams of all
+ * sizes ending with the same action. Nodes at depth 1 don't collect statistics, because statistics for
+ * single actions are stored in an ActionStatisticsTable.
+ *
+ * <p> Nodes are identified by ints, and their statistics are stored in parallel primitive arrays. The edges
+ * are stored in a single open-addressing table keyed by the parent node and the action, so lookups never
+ * allocate anything. Like in ActionStatisticsTable, statistics are stored relative to a global scale factor
+ * (decaying is O(1)), and clearing the trie only increments a generation counter.
+ *
+ * <p> Only a single thread is allowed to modify the trie. Other threads may read it at the same time. Node IDs
+ * never change when the arrays grow (the statistics are copied to the same indices), so a node found by getChild()
+ * keeps referring to the same n-gram, and its statistics are read from a single snapshot of the arrays. Concurrent
+ * reads may miss updates and nodes added by the writing thread while they read. Only clear() reuses node IDs for
+ * different n-grams, so it (like decay()) must only be called between searches, while no other threads read the trie.
+ *
+ * @author Dennis Soemers
+ */
+public class ActionNGramTrie {
+
+	/** The root node, corresponding to the empty n-gram */
+	public static final int ROOT = 0;
+
+	/** Once the scale factor drops below this, all statistics are rescaled to avoid underflow */
+	private static final double MIN_SCALE = 1.0e-100;
+
+	/** Statistics of all nodes. Replaced by a new object when we run out of node IDs */
+	private volatile NodeStorage nodes;
+	/** Table of edges. Replaced by a new object when it would become more than half full */
+	private volatile EdgeStorage edges;
+
+	/** Statistics in the arrays need to be multiplied by this to obtain the real statistics */
+	private volatile double scale = 1.0;
+
+	/** Generation of the edge table. Slots with a different generation are empty */
+	private volatile int generation = 1;
+
+	/** Number of nodes (including the root) in the current generation */
+	private int numNodes = 1;
+
+	public ActionNGramTrie(){
+		nodes = new NodeStorage(256);
+		edges = new EdgeStorage(512);
+	}
+
+	/**
+	 * Finds the child of the given node for the given action. Does not modify the trie.
+	 *
+	 * @param node
+	 * @param actionKey
+	 * @return The child node, or -1 if there is no such child (or if the given node is -1)
+	 */
+	public int getChild(int node, long actionKey){
+		if(node < 0){
+			return -1;
+		}
+
+		final int gen = generation;
+		final EdgeStorage e = edges;
+		final int mask = e.children.length - 1;
+		int slot = hashSlot(node, actionKey, mask);
+
+		while(e.generations[slot] == gen){
+			if(e.parents[slot] == node && e.actions[slot] == actionKey){
+				return e.children[slot];
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the child of the given node for the given action, and creates it if it doesn't exist yet
+	 *
+	 * @param node
+	 * @param actionKey
+	 * @return The child node
+	 */
+	public int getOrCreateChild(int node, long actionKey){
+		final int gen = generation;
+		EdgeStorage e = edges;
+		int mask = e.children.length - 1;
+		int slot = hashSlot(node, actionKey, mask);
+
+		while(e.generations[slot] == gen){
+			if(e.parents[slot] == node && e.actions[slot] == actionKey){
+				return e.children[slot];
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		// need a new node, and a new edge to it
+		final int child = numNodes;
+		NodeStorage n = nodes;
+
+		if(child >= n.visits.length){
+			n = new NodeStorage(n, n.visits.length << 1);
+			nodes = n;
+		}
+
+		n.scoreSums[child] = 0.0;
+		n.visits[child] = 0.0;
+		++numNodes;
+
+		// the number of edges is equal to the number of nodes minus the root
+		if(numNodes > (e.children.length >>> 1)){
+			growEdges();
+			e = edges;
+			mask = e.children.length - 1;
+			slot = hashSlot(node, actionKey, mask);
+
+			while(e.generations[slot] == gen){
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		e.parents[slot] = node;
+		e.actions[slot] = actionKey;
+		e.children[slot] = child;
+		e.generations[slot] = gen;
+
+		return child;
+	}
+
+	/**
+	 * Adds one visit with the given score to the statistics of the given node
+	 *
+	 * @param node
+	 * @param score
+	 */
+	public void addVisit(int node, double score){
+		final NodeStorage n = nodes;
+		n.scoreSums[node] += score / scale;
+		n.visits[node] += 1.0 / scale;
+	}
+
+	/**
+	 * @param node A node, or -1
+	 * @return The (decayed) number of visits of the n-gram corresponding to the given node (0 for node -1)
+	 */
+	public double getVisits(int node){
+		final NodeStorage n = nodes;
+
+		if(node < 0 || node >= n.visits.length){
+			return 0.0;
+		}
+
+		return n.visits[node] * scale;
+	}
+
+	/**
+	 * @param node A node, or -1
+	 * @return The average score of the n-gram corresponding to the given node (NaN if there are no visits)
+	 */
+	public double getAverageScore(int node){
+		final NodeStorage n = nodes;
+
+		if(node < 0 || node >= n.visits.length){
+			return Double.NaN;
+		}
+
+		// the scale factor cancels out
+		return n.scoreSums[node] / n.visits[node];
+	}
+
+	/**
+	 * Multiplies all statistics in the trie by the given decay factor. A decay factor of 0 clears the trie.
+	 *
+	 * @param decayFactor
+	 */
+	public void decay(double decayFactor){
+		if(decayFactor == 0.0){
+			clear();
+			return;
+		}
+
+		double newScale = scale * decayFactor;
+
+		if(newScale < MIN_SCALE){
+			// bring the stored statistics back to the real statistics
+			final NodeStorage n = nodes;
+			for(int node = 0; node < numNodes; ++node){
+				n.scoreSums[node] *= newScale;
+				n.visits[node] *= newScale;
+			}
+
+			newScale = 1.0;
+		}
+
+		scale = newScale;
+	}
+
+	/**
+	 * Removes all n-grams from the trie
+	 */
+	public void clear(){
+		++generation;
+
+		if(generation == 0){
+			// wrapped around, so really need to mark all slots as empty now
+			final EdgeStorage e = edges;
+			for(int slot = 0; slot < e.generations.length; ++slot){
+				e.generations[slot] = 0;
+			}
+
+			generation = 1;
+		}
+
+		numNodes = 1;
+		scale = 1.0;
+	}
+
+	/**
+	 * @return The number of nodes in the trie (including the root)
+	 */
+	public int getNumNodes(){
+		return numNodes;
+	}
+
+	/**
+	 * Doubles the capacity of the table of edges
+	 */
+	private void growEdges(){
+		final EdgeStorage oldEdges = edges;
+		final EdgeStorage newEdges = new EdgeStorage(oldEdges.children.length << 1);
+		final int mask = newEdges.children.length - 1;
+
+		for(int oldSlot = 0; oldSlot < oldEdges.children.length; ++oldSlot){
+			if(oldEdges.generations[oldSlot] == generation){
+				int slot = hashSlot(oldEdges.parents[oldSlot], oldEdges.actions[oldSlot], mask);
+
+				while(newEdges.generations[slot] == generation){
+					slot = (slot + 1) & mask;
+				}
+
+				newEdges.parents[slot] = oldEdges.parents[oldSlot];
+				newEdges.actions[slot] = oldEdges.actions[oldSlot];
+				newEdges.children[slot] = oldEdges.children[oldSlot];
+				newEdges.generations[slot] = generation;
+			}
+		}
+
+		edges = newEdges;
+	}
+
+	private static int hashSlot(int node, long actionKey, int mask){
+		long h = (actionKey + 0x9E3779B97F4A7C15L * (node + 1L)) * 0xff51afd7ed558ccdL;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Parallel arrays of statistics of the nodes
+	 */
+	private static class NodeStorage {
+		final double[] scoreSums;
+		final double[] visits;
+
+		NodeStorage(int capacity){
+			scoreSums = new double[capacity];
+			visits = new double[capacity];
+		}
+
+		/** Copies the statistics of the given storage into a new, larger storage */
+		NodeStorage(NodeStorage other, int capacity){
+			scoreSums = Arrays.copyOf(other.scoreSums, capacity);
+			visits = Arrays.copyOf(other.visits, capacity);
+		}
+	}
+
+	/**
+	 * Parallel arrays of the table of edges
+	 */
+	private static class EdgeStorage {
+		final int[] parents;
+		final long[] actions;
+		final int[] children;
+		final int[] generations;
+
+		EdgeStorage(int capacity){
+			parents = new int[capacity];
+			actions = new long[capacity];
+			children = new int[capacity];
+			generations = new int[capacity];
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package MaastCTS2.model;
+
+/**
+ * Table of statistics (sum of scores and number of visits) for actions or n-grams of actions, identified by
+ * the 64-bit keys computed by ActionNGram. Uses open addressing with linear probing, with the keys and the
+ * statistics stored in parallel primitive arrays, so that lookups and updates of existing entries never
+ * allocate anything.
+ *
+ * <p> All statistics are stored relative to a global scale factor, so that decaying all statistics is O(1).
+ * Similarly, clearing the table only increments a generation counter, and every slot that was filled in an
+ * older generation counts as empty.
+ *
+ * <p> Only a single thread is allowed to modify the table. Other threads (pipeline workers / leaf parallelization
+ * workers) may read it at the same time. Every lookup finds the key and reads its statistics in a single call, from
+ * the same arrays, so it never returns the statistics of a different key, even if the table grows in the meantime.
+ * Concurrent reads may miss updates and keys inserted by the writing thread while they read, and a read that
+ * overlaps with a decay or clear (which only happen between searches) may observe inconsistently scaled values.
+ *
+ * @author Dennis Soemers
+ */
+public class ActionStatisticsTable {
+
+	/** The table is grown whenever it would become more than half full */
+	private static final int MAX_LOAD_SHIFT = 1;
+
+	/** Once the scale factor drops below this, all statistics are rescaled to avoid underflow */
+	private static final double MIN_SCALE = 1.0e-100;
+
+	/**
+	 * The arrays of the table. Replaced by a new object when the table grows, so that a thread reading
+	 * the table concurrently always sees a consistent set of arrays
+	 */
+	private volatile Storage storage;
+
+	/** Statistics in the arrays need to be multiplied by this to obtain the real statistics */
+	private volatile double scale = 1.0;
+
+	/** Generation of the table. Slots with a different generation are empty */
+	private volatile int generation = 1;
+
+	/** Number of filled slots in the current generation */
+	private int size = 0;
+
+	public ActionStatisticsTable(){
+		this(256);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialCapacity Initial number of slots (rounded up to a power of 2)
+	 */
+	public ActionStatisticsTable(int initialCapacity){
+		int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+		storage = new Storage(capacity);
+	}
+
+	/**
+	 * @param key
+	 * @return The (decayed) number of visits for the given key (0 if there are no statistics for that key)
+	 */
+	public double getVisits(long key){
+		final Storage s = storage;
+		final int slot = findSlot(s, key);
+
+		if(slot < 0){
+			return 0.0;
+		}
+
+		return s.visits[slot] * scale;
+	}
+
+	/**
+	 * @param key
+	 * @return The (decayed) sum of scores for the given key (0 if there are no statistics for that key)
+	 */
+	public double getScoreSum(long key){
+		final Storage s = storage;
+		final int slot = findSlot(s, key);
+
+		if(slot < 0){
+			return 0.0;
+		}
+
+		return s.scoreSums[slot] * scale;
+	}
+
+	/**
+	 * @param key
+	 * @return The average score for the given key (NaN if there are no statistics for that key)
+	 */
+	public double getAverageScore(long key){
+		final Storage s = storage;
+		final int slot = findSlot(s, key);
+
+		if(slot < 0){
+			return Double.NaN;
+		}
+
+		// the scale factor cancels out
+		return s.scoreSums[slot] / s.visits[slot];
+	}
+
+	/**
+	 * Adds one visit with the given score to the statistics of the given key, inserting the key if
+	 * it's not in the table yet
+	 *
+	 * @param key
+	 * @param score
+	 */
+	public void addVisit(long key, double score){
+		final int gen = generation;
+		Storage s = storage;
+		int mask = s.keys.length - 1;
+		int slot = hashSlot(key, mask);
+
+		while(s.generations[slot] == gen){
+			if(s.keys[slot] == key){
+				s.scoreSums[slot] += score / scale;
+				s.visits[slot] += 1.0 / scale;
+				return;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		// key not in the table yet
+		if((size + 1) > (s.keys.length >>> MAX_LOAD_SHIFT)){
+			grow();
+			s = storage;
+			mask = s.keys.length - 1;
+			slot = hashSlot(key, mask);
+
+			while(s.generations[slot] == gen){
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		s.keys[slot] = key;
+		s.scoreSums[slot] = score / scale;
+		s.visits[slot] = 1.0 / scale;
+		s.generations[slot] = gen;
+		++size;
+	}
+
+	/**
+	 * Multiplies all statistics in the table by the given decay factor. A decay factor of 0 clears the table.
+	 *
+	 * @param decayFactor
+	 */
+	public void decay(double decayFactor){
+		if(decayFactor == 0.0){
+			clear();
+			return;
+		}
+
+		double newScale = scale * decayFactor;
+
+		if(newScale < MIN_SCALE){
+			// bring the stored statistics back to the real statistics
+			final Storage s = storage;
+			for(int slot = 0; slot < s.keys.length; ++slot){
+				if(s.generations[slot] == generation){
+					s.scoreSums[slot] *= newScale;
+					s.visits[slot] *= newScale;
+				}
+			}
+
+			newScale = 1.0;
+		}
+
+		scale = newScale;
+	}
+
+	/**
+	 * Removes all statistics from the table
+	 */
+	public void clear(){
+		++generation;
+
+		if(generation == 0){
+			// wrapped around, so really need to mark all slots as empty now
+			final Storage s = storage;
+			for(int slot = 0; slot < s.generations.length; ++slot){
+				s.generations[slot] = 0;
+			}
+
+			generation = 1;
+		}
+
+		size = 0;
+		scale = 1.0;
+	}
+
+	/**
+	 * @return The number of keys in the table
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Finds the slot containing the statistics for the given key in the given arrays of the table
+	 *
+	 * @param s
+	 * @param key
+	 * @return The index of the slot for the given key in the given arrays, or -1 if there are no statistics for that key
+	 */
+	private int findSlot(Storage s, long key){
+		final int gen = generation;
+		final int mask = s.keys.length - 1;
+		int slot = hashSlot(key, mask);
+
+		while(s.generations[slot] == gen){
+			if(s.keys[slot] == key){
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Doubles the capacity of the table
+	 */
+	private void grow(){
+		final Storage oldStorage = storage;
+		final Storage newStorage = new Storage(oldStorage.keys.length << 1);
+		final int mask = newStorage.keys.length - 1;
+
+		for(int oldSlot = 0; oldSlot < oldStorage.keys.length; ++oldSlot){
+			if(oldStorage.generations[oldSlot] == generation){
+				final long key = oldStorage.keys[oldSlot];
+				int slot = hashSlot(key, mask);
+
+				while(newStorage.generations[slot] == generation){
+					slot = (slot + 1) & mask;
+				}
+
+				newStorage.keys[slot] = key;
+				newStorage.scoreSums[slot] = oldStorage.scoreSums[oldSlot];
+				newStorage.visits[slot] = oldStorage.visits[oldSlot];
+				newStorage.generations[slot] = generation;
+			}
+		}
+
+		storage = newStorage;
+	}
+
+	/**
+	 * Keys of single actions are not well-distributed in the low bits (avatar cells are often close to each
+	 * other), so we mix the bits of the key before taking the slot
+	 *
+	 * @param key
+	 * @param mask
+	 * @return
+	 */
+	private static int hashSlot(long key, int mask){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Parallel arrays of the table
+	 */
+	private static class Storage {
+		final long[] keys;
+		final double[] scoreSums;
+		final double[] visits;
+		final int[] generations;
+
+		Storage(int capacity){
+			keys = new long[capacity];
+			scoreSums = new double[capacity];
+			visits = new double[capacity];
+			generations = new int[capacity];
+		}
+	}
+
+}
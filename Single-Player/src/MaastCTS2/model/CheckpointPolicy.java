@@ -0,0 +1,140 @@
+package MaastCTS2.model;
+
+import core.game.StateObservation;
+import ontology.Types.ACTIONS;
+
+/**
+ * Decides which nodes save their states in deterministic games when states are checkpointed, instead of saving
+ * the states of all nodes that are visited often enough. Only nodes at every k-th depth (checkpoints) save their
+ * states. States deeper than a checkpoint are rebuilt by replaying the actions from the checkpoint, which is what
+ * Open Loop MCTS does anyway when it traverses the tree from a node with a saved state.
+ *
+ * <p> When traversing the tree, a saved state is shared, so it is copied once, and the copy is advanced in-place
+ * through all the nodes below it. If every state is saved (k = 1), an iteration therefore only pays a single copy
+ * (of the state in the parent of the expanded node). With a checkpoint at every k-th depth, the deepest saved state
+ * on the path is on average (k - 1) / 2 levels further up, so an iteration additionally pays that many advances to
+ * replay the actions below it:
+ * <br> cost(k) = copy + advance * (k - 1) / 2
+ * <br> whereas memory use is proportional to 1 / k. The interval k is adapted to the measured costs of copying and 
+ * advancing states, choosing the largest k (least memory) for which cost(k) is at most (1 + maxCpuOverhead) times 
+ * cost(1). The advance to the expanded node and the play-out are paid regardless of k, so they are not included.
+ *
+ * @author Dennis Soemers
+ */
+public class CheckpointPolicy {
+
+	/** The maximum interval between checkpoints */
+	public static final int MAX_CHECKPOINT_INTERVAL = 16;
+
+	/** Weight of new measurements in the moving averages of the costs of copying and advancing */
+	private static final double MEASUREMENT_WEIGHT = 0.05;
+
+	/** The fraction of additional CPU time we're willing to spend on replaying actions to save memory */
+	private final double maxCpuOverhead;
+
+	/** Every this many depths, we have a checkpoint */
+	private volatile int checkpointInterval = 2;
+
+	/** Moving average of the time (in nanoseconds) it takes to copy a state (negative if not measured yet) */
+	private volatile double copyNanos = -1.0;
+	/** Moving average of the time (in nanoseconds) it takes to advance a state (negative if not measured yet) */
+	private volatile double advanceNanos = -1.0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxCpuOverhead The fraction of additional CPU time we're willing to spend on replaying actions
+	 * 	(compared to saving states at every depth) to save memory
+	 */
+	public CheckpointPolicy(double maxCpuOverhead){
+		this.maxCpuOverhead = maxCpuOverhead;
+	}
+
+	/**
+	 * Generates the successor of the given state when the given action is applied, copying the given state if
+	 * necessary, and measures the costs of copying and advancing
+	 *
+	 * @param previousState
+	 * @param action
+	 * @return
+	 */
+	public StateObservation generateSuccessor(StateObs previousState, ACTIONS action){
+		final long startNanos = System.nanoTime();
+		StateObservation successor = previousState.getStateObs();
+		final long copiedNanos = System.nanoTime();
+		successor.advance(action);
+		final long endNanos = System.nanoTime();
+
+		// concurrent updates by multiple threads may get lost, but that's fine for moving averages
+		if(previousState.shouldCopy()){
+			copyNanos = updateAverage(copyNanos, copiedNanos - startNanos);
+		}
+
+		advanceNanos = updateAverage(advanceNanos, endNanos - copiedNanos);
+
+		return successor;
+	}
+
+	/**
+	 * @param depth Depth of a node, relative to any fixed depth (such that the checkpoints don't move when
+	 * 	Tree Reuse moves the root)
+	 * @return True if nodes at the given depth should save their states
+	 */
+	public boolean isCheckpointDepth(int depth){
+		return (depth % checkpointInterval == 0);
+	}
+
+	/**
+	 * Adapts the interval between checkpoints to the costs of copying and advancing measured so far
+	 * 
+	 * @return True if the interval changed (in which case states saved at depths that are no longer checkpoints
+	 * 	should be released)
+	 */
+	public boolean adapt(){
+		final double copy = copyNanos;
+		final double advance = advanceNanos;
+
+		if(copy < 0.0 || advance < 0.0){
+			// don't have measurements yet
+			return false;
+		}
+
+		// largest k such that advance * (k - 1) / 2 <= maxCpuOverhead * copy
+		final double maxInterval = 1.0 + 2.0 * maxCpuOverhead * copy / Math.max(advance, 1.0);
+		final int interval = (int) Math.max(1.0, Math.min(MAX_CHECKPOINT_INTERVAL, maxInterval));
+		
+		if(interval == checkpointInterval){
+			return false;
+		}
+		
+		checkpointInterval = interval;
+		return true;
+	}
+
+	public int getCheckpointInterval(){
+		return checkpointInterval;
+	}
+
+	/**
+	 * @return Moving average of the time (in nanoseconds) it takes to copy a state (negative if not measured yet)
+	 */
+	public double getCopyNanos(){
+		return copyNanos;
+	}
+
+	/**
+	 * @return Moving average of the time (in nanoseconds) it takes to advance a state (negative if not measured yet)
+	 */
+	public double getAdvanceNanos(){
+		return advanceNanos;
+	}
+
+	private static double updateAverage(double average, long measurement){
+		if(average < 0.0){
+			return measurement;
+		}
+
+		return average + MEASUREMENT_WEIGHT * (measurement - average);
+	}
+
+}
@@ -4,42 +4,75 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 
-import MaastCTS2.Agent;
 import MaastCTS2.Globals;
 import MaastCTS2.controller.MctsController;
 import MaastCTS2.iw.NoveltyTester;
 import MaastCTS2.iw.NoveltyTester.NOVELTY_LEVELS;
 import MaastCTS2.iw.NoveltyTester.NOVELTY_TEST_MODES;
 import MaastCTS2.iw.StateMemory;
+import MaastCTS2.utils.StateFingerprint;
 import core.game.StateObservation;
 import ontology.Types.ACTIONS;
 
+/**
+ * A node in the MCTS tree.
+ * 
+ * <p> When Tree Reuse makes a node the new root, the nodes of the tree are not updated immediately. Instead, a 
+ * new epoch of the tree starts (see TreeEpoch), and every node catches up with the decay of all the epochs it 
+ * missed the first time it is touched again. Everything that can be affected by that is only accessed through 
+ * methods that first catch up.
+ * 
+ * <p> With Tree Parallelization, multiple threads share the same tree. The statistics of a node are 
+ * then updated atomically (while holding the node's lock), and modifications of the lists of children 
+ * and unexpanded actions also require the node's lock. Threads only ever acquire the lock of a child 
+ * while holding the lock of its parent, never the other way around.
+ */
 public class MctNode {
 	/** The parent node of this node */
 	private MctNode parent;
 	/** The action that, when applied to the parent, results in this node */
-	private final ACTIONS actionFromParent;
+	private ACTIONS actionFromParent;
 
 	/** The number of times this node has been visited in the MCTS algorithm (double instead of int to accomodate tree decay) */
-	private double numVisits;
+	private volatile double numVisits;
 	/** The sum of all the scores that have been backpropagated through this node */
-	private double totalScore;
-	/** The depth of this node in the current MCTS tree */
+	private volatile double totalScore;
+	/** The depth of this node, relative to the root of the first epoch of the tree (see getDepth()) */
 	private int depth;
+	
+	/** The epochs of the tree that this node is a part of, shared by all nodes of the tree */
+	private TreeEpoch treeEpoch;
+	/** The epoch of the tree with which this node is up to date */
+	private volatile int epoch;
 	/** The highest score that has been propagated through this node so far */
-	private double maxScore;
+	private volatile double maxScore;
+	
+	/** 
+	 * The number of iterations of Tree Parallelization that are currently traversing this node, but have not 
+	 * backpropagated their results yet. Selection treats each of them as a visit with the minimum score (virtual loss),
+	 * which steers other threads towards different parts of the tree in the meantime
+	 */
+	private volatile int numVirtualLosses;
 
 	/** List of actions that have not yet been expanded into child nodes */
-	private ArrayList<ACTIONS> unexpandedActions;
+	private volatile ArrayList<ACTIONS> unexpandedActions;
 	/** List of child nodes of this node */
 	private ArrayList<MctNode> children;
-	/** Observation of the game state in this node. Can change during the search in Open Loop MCTS */
+	/**
+	 * Observation of the game state in this node. Can change during the search in Open Loop MCTS.
+	 * <br> With Tree Parallelization, other threads can overwrite this at any time, so MCTS iterations
+	 * should retrieve the states they generated through MctsController.getStateObs(MctNode)
+	 */
 	private StateObservation stateObs;
 	
-	private ArrayList<StateObservation> cachedStateObservations = null;
+	/** 
+	 * Cached state observations that will each be used once instead of generating a new state. Only modified
+	 * while holding our lock, but a StateCacheManager may drop the entire list at any time
+	 */
+	private volatile ArrayList<StateObservation> cachedStateObservations = null;
 	
 	/** By default, every node is assumed to represent a novel state */
-	private boolean novel = true;
+	private volatile boolean novel = true;
 	/** When set to true, it means we have performed novelty tests for this node's children */
 	private boolean noveltyTestedChildren = false;
 	
@@ -47,7 +80,7 @@ public class MctNode {
 	private StateMemory cachedStateMemory = null;
 
 	/** A cached state observation that can be used for closed-loop-style traversal of tree */
-	private StateObservation savedStateObs = null;
+	private volatile StateObservation savedStateObs = null;
 	
 	/** An integer-representation of the cell in which the avatar was in the last state observation seen in this node */
 	private int lastAvatarCell;
@@ -59,38 +92,83 @@ public class MctNode {
 	 * If this is the case, Novelty-Based Pruning is disabled when selecting a successor
 	 * for this node
 	 */
-	private boolean inescapableLossFound;
+	private volatile boolean inescapableLossFound;
 	
 	/**
 	 * Set to true if a state was observed in this node with an immediate loss
 	 */
-	private boolean immediateLossDetected;
+	private volatile boolean immediateLossDetected;
+	
+	/** 
+	 * Entry of the transposition table for the state reached by this node, of which the statistics are shared with
+	 * all other nodes that reach the same state (null if we don't use a transposition table or didn't generate a state yet)
+	 */
+	private volatile TranspositionTable.Entry transposition;
+	
+	/** Fingerprint of the state reached by this node (only valid if stateFingerprintKnown is true) */
+	private volatile long stateFingerprint;
+	/** Set to true once the fingerprint of the state reached by this node is cached (only in deterministic games) */
+	private volatile boolean stateFingerprintKnown;
+	
+	/** 
+	 * Bookkeeping of the StateCacheManager for the states cached in this node (null if we don't have cached states or don't
+	 * use a StateCacheManager). Only modified by the StateCacheManager while holding its lock, or when recycling this node
+	 */
+	private volatile StateCacheManager.Entry stateCacheEntry;
 
 	public MctNode() {
 		this(null, ACTIONS.ACTION_NIL);
 	}
 
 	public MctNode(MctNode parent, ACTIONS action) {
+		children = new ArrayList<MctNode>(5);
+		reinitialize(parent, action);
+	}
+	
+	/**
+	 * Resets this node to the state of a newly constructed node with the given parent and action from parent.
+	 * Used to recycle nodes of discarded subtrees (see MctNodePool), re-using the list of children.
+	 * 
+	 * @param parent
+	 * @param action
+	 */
+	public void reinitialize(MctNode parent, ACTIONS action){
 		totalScore = 0.0;
 		maxScore = 0.0;
 		numVisits = 0.0;
+		numVirtualLosses = 0;
 		this.parent = parent;
 		actionFromParent = action;
-		children = new ArrayList<MctNode>(5);
+		children.clear();
 		stateObs = null;
 		
 		if (parent != null) {
-			depth = parent.getDepth() + 1;
+			treeEpoch = parent.treeEpoch;
+			depth = parent.depth + 1;
 		} 
 		else {
+			treeEpoch = new TreeEpoch();
 			depth = 0;
 		}
 		
+		epoch = treeEpoch.getEpoch();
+		
 		unexpandedActions = null;
+		cachedStateObservations = null;
+		
+		novel = true;
+		noveltyTestedChildren = false;
+		cachedNoveltyTester = null;
+		cachedStateMemory = null;
+		savedStateObs = null;
 		
 		lastAvatarCell = -1;
 		
 		inescapableLossFound = false;
+		immediateLossDetected = false;
+		transposition = null;
+		stateFingerprintKnown = false;
+		stateCacheEntry = null;
 	}
 	
 	/**
@@ -111,74 +189,269 @@ public class MctNode {
 	 * @param numVisits
 	 */
 	public void backpropagate(double score, double numVisits){
+		backpropagate(score, numVisits, 0L);
+	}
+	
+	/**
+	 * Backpropagates the given score through this node with the given number of visits, as a part of the
+	 * backup with the given ID. If we're linked to an entry of a transposition table, the entry is only updated
+	 * if that backup did not go through the entry yet (see TranspositionTable)
+	 * 
+	 * @param score
+	 * @param numVisits
+	 * @param backupId ID of the backup (see TranspositionTable.nextBackupId()), or 0 if every call is a separate backup
+	 */
+	public synchronized void backpropagate(double score, double numVisits, long backupId){
+		catchUpWithEpoch();
 		totalScore += score * numVisits;
 		maxScore = Math.max(maxScore, score);
 		this.numVisits += numVisits;
+		
+		TranspositionTable.Entry entry = transposition;
+		if(entry != null){
+			entry.backpropagate(score, numVisits, backupId);
+		}
 	}
 	
 	/**
-	 * Decays the results collected in this node by the given factor
+	 * Makes this node (which should no longer have a parent) the root of its tree, by starting a new epoch of the tree.
+	 * Depths of all nodes in the subtree of this node are immediately relative to this node. If decay is true, all nodes 
+	 * of the tree will be decayed by the given factor when they catch up with the new epoch (see catchUpWithEpoch()).
+	 * This is O(1), regardless of the size of the tree
 	 * 
+	 * @param decay
 	 * @param decayFactor
 	 */
-	public void decay(double decayFactor){
-		// decay visit count
-		numVisits *= decayFactor;
-		
-		// now decay the total scores by the same amount
-		totalScore *= decayFactor;
-		
-		//maxScore = (numVisits > 0.0) ? (totalScore / numVisits) : 0.0;
-		
-		// depth should be lowered by 1 because our new root is 1 level lower than the previous root
-		decrementDepth();
+	public void startNewEpochAsRoot(boolean decay, double decayFactor){
+		treeEpoch.advance(depth, decay, decayFactor);
+	}
+	
+	/**
+	 * Brings this node up to date with the current epoch of the tree. If the tree was decayed in any of the epochs
+	 * that we missed, the results collected in this node are decayed by all those decay factors together, and 
+	 * information that may be incorrect in nondeterministic games is discarded
+	 */
+	private void catchUpWithEpoch(){
+		if(epoch != treeEpoch.getEpoch()){
+			// lock of the tree instead of our own lock, because we may be called while other threads hold locks of 
+			// our ancestors and we don't want to violate the order in which locks are acquired
+			synchronized(treeEpoch){
+				final int currentEpoch = treeEpoch.getEpoch();
+				
+				if(epoch != currentEpoch){
+					if(treeEpoch.decayedSince(epoch)){
+						final double decayFactor = treeEpoch.getDecayFactorSince(epoch);
+						
+						// decay visit count and the total scores by the same amount
+						numVisits *= decayFactor;
+						totalScore *= decayFactor;
+						
+						//maxScore = (numVisits > 0.0) ? (totalScore / numVisits) : 0.0;
+						
+						// for nondeterministic game, get rid of old state that may be incorrect now
+						savedStateObs = null;
+						
+						// entries of the transposition table are not decayed, so should no longer be mixed with our 
+						// decayed statistics (trees are only decayed in stochastic games, where states are not unique anyway)
+						transposition = null;
+						
+						immediateLossDetected = false;
+						
+						// we want to reset results from novelty tests close to root, since they might've been based on states
+						// that are no longer reachable in non-deterministic games. Depths only decrease over epochs, so if we 
+						// were close to the root in any of the epochs we missed, we are close to the root now
+						if(getDepth() <= 1){
+							resetNoveltyTestResults();
+						}
+					}
+					
+					// volatile write last, such that threads that see we're up to date also see the decayed results
+					epoch = currentEpoch;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds the results collected in the given node (which should be a node in a different, 
+	 * independently grown tree with the same action from parent) to the results collected 
+	 * in this node. Used to merge the trees of Root Parallelization
+	 * 
+	 * <p> This node is considered to be novel if it was novel in any of the merged trees
+	 * 
+	 * @param other
+	 */
+	public synchronized void merge(MctNode other){
+		catchUpWithEpoch();
+		other.catchUpWithEpoch();
 		
-		// for nondeterministic game, get rid of old state that may be incorrect now
-		savedStateObs = null;
+		totalScore += other.totalScore;
+		maxScore = Math.max(maxScore, other.maxScore);
+		numVisits += other.numVisits;
 		
-		immediateLossDetected = false;
+		novel = novel || other.novel;
+		inescapableLossFound = inescapableLossFound || other.inescapableLossFound;
+		immediateLossDetected = immediateLossDetected || other.immediateLossDetected;
+	}
+	
+	/**
+	 * Adds a virtual loss to this node, for an iteration of Tree Parallelization that selected this node
+	 * and has not yet backpropagated its result
+	 */
+	public synchronized void addVirtualLoss(){
+		++numVirtualLosses;
 	}
 	
-	public void decrementDepth(){
-		--depth;
+	/**
+	 * Removes a virtual loss that was previously added by addVirtualLoss()
+	 */
+	public synchronized void removeVirtualLoss(){
+		--numVirtualLosses;
 	}
 	
-	public void addChild(MctNode newChildNode){
+	public synchronized void addChild(MctNode newChildNode){
 		children.add(newChildNode);
 	}
 	
 	public void cacheNoveltyTester(NoveltyTester noveltyTester){
+		catchUpWithEpoch();
 		cachedNoveltyTester = noveltyTester;
 	}
 	
 	public void cacheStateMemory(StateMemory stateMem){
+		catchUpWithEpoch();
 		cachedStateMemory = stateMem;
 	}
 	
-	public void cacheStateObservation(StateObservation stateObs){
-		if(cachedStateObservations == null){
-			cachedStateObservations = new ArrayList<StateObservation>(2);
+	/**
+	 * Caches the given state observation, which will be used once instead of generating a new state when traversing
+	 * the MCTS tree. If the given StateCacheManager is not null, it first needs to admit the state
+	 * 
+	 * @param stateObs
+	 * @param stateCache
+	 */
+	public void cacheStateObservation(StateObservation stateObs, StateCacheManager stateCache){
+		StateCacheManager.Entry admittedEntry = null;
+		if(stateCache != null){
+			admittedEntry = stateCache.admit(this, 1);
+			
+			if(admittedEntry == null){
+				return;
+			}
 		}
 		
-		cachedStateObservations.add(stateObs);
+		synchronized(this){
+			if(isEvicted(admittedEntry)){
+				// evicted right after admitting the state, the manager no longer accounts for it
+				return;
+			}
+			
+			ArrayList<StateObservation> cachedStates = cachedStateObservations;
+			if(cachedStates == null){
+				cachedStates = new ArrayList<StateObservation>(2);
+				cachedStateObservations = cachedStates;
+			}
+			
+			cachedStates.add(stateObs);
+			
+			if(isEvicted(admittedEntry)){
+				// evicted while adding the state, so we may have created a list that the manager doesn't know about
+				cachedStateObservations = null;
+			}
+		}
 	}
 	
 	/**
 	 * Caches the given list of state observations. Every cached state observation will be used once
-	 * instead of generating a new state when traversing the MCTS tree.
+	 * instead of generating a new state when traversing the MCTS tree. If the given StateCacheManager
+	 * is not null, it first needs to admit the states
 	 * 
 	 * @param stateObservations
+	 * @param stateCache
 	 */
-	public void cacheStateObservations(ArrayList<StateObservation> stateObservations){
-		if(cachedStateObservations == null){
-			cachedStateObservations = new ArrayList<StateObservation>(stateObservations);
+	public void cacheStateObservations(ArrayList<StateObservation> stateObservations, StateCacheManager stateCache){
+		StateCacheManager.Entry admittedEntry = null;
+		if(stateCache != null){
+			admittedEntry = stateCache.admit(this, stateObservations.size());
+			
+			if(admittedEntry == null){
+				return;
+			}
 		}
-		else{
-			cachedStateObservations.addAll(stateObservations);
+		
+		synchronized(this){
+			if(isEvicted(admittedEntry)){
+				// evicted right after admitting the states, the manager no longer accounts for them
+				return;
+			}
+			
+			ArrayList<StateObservation> cachedStates = cachedStateObservations;
+			if(cachedStates == null){
+				cachedStateObservations = new ArrayList<StateObservation>(stateObservations);
+			}
+			else{
+				cachedStates.addAll(stateObservations);
+			}
+			
+			if(isEvicted(admittedEntry)){
+				// evicted while adding the states, so we may have created a list that the manager doesn't know about
+				cachedStateObservations = null;
+			}
 		}
 	}
 	
+	/**
+	 * Asks the given StateCacheManager to admit the given state as our saved state, and saves it if it is admitted
+	 * 
+	 * @param state
+	 * @param stateCache
+	 * @return True if the state was saved
+	 */
+	private boolean saveAdmittedState(StateObservation state, StateCacheManager stateCache){
+		StateCacheManager.Entry admittedEntry = stateCache.admit(this, 1);
+		if(admittedEntry == null){
+			return false;
+		}
+		
+		synchronized(this){
+			if(isEvicted(admittedEntry)){
+				// evicted right after admitting the state, the manager no longer accounts for it
+				return false;
+			}
+			
+			if(savedStateObs != null){
+				// another thread saved a state in the meantime
+				stateCache.release(this, 1);
+				return false;
+			}
+			
+			savedStateObs = state;
+			
+			if(isEvicted(admittedEntry)){
+				// evicted while saving the state, so the manager may no longer account for it
+				savedStateObs = null;
+				return false;
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * States are admitted by a StateCacheManager before we store them, without holding our lock. The manager may 
+	 * evict all our states (without our lock) in between, in which case it no longer accounts for the admitted 
+	 * states, and we should not store them. Must be checked while holding our lock, both before and after storing
+	 * the states
+	 * 
+	 * @param admittedEntry The entry under which the manager admitted the states (null if we don't use a manager)
+	 * @return True if the given entry was evicted
+	 */
+	private boolean isEvicted(StateCacheManager.Entry admittedEntry){
+		return (admittedEntry != null && stateCacheEntry != admittedEntry);
+	}
+	
 	public boolean canBeImmediateLoss(){
+		catchUpWithEpoch();
 		return immediateLossDetected;
 	}
 	
@@ -187,6 +460,7 @@ public class MctNode {
 	 * and tells parent to check it's children
 	 */
 	public void checkAllChildrenNotNovel(){
+		catchUpWithEpoch();
 		boolean allChildrenNotNovel = true;
 		for(MctNode child : children){
 			if(child.isNovel()){
@@ -210,44 +484,101 @@ public class MctNode {
 	 * <p> Returns the generated state (which will be the same ''previousState'' object
 	 * again if the method chose to modify it, or a different object otherwise).
 	 * 
+	 * @param mcts
 	 * @param previousState
 	 * @param action
 	 * @return 
 	 */
-	public StateObs generateNewStateObs(StateObs previousState, ACTIONS action){
+	public StateObs generateNewStateObs(MctsController mcts, StateObs previousState, ACTIONS action){
+		catchUpWithEpoch();
 		StateObs returnState;
+		StateCacheManager stateCache = mcts.getStateCacheManager();
+		StateObservation cachedState = pollCachedState(stateCache);
+		StateObservation saved = savedStateObs;
 		
-		if(hasCachedState()){
+		if(cachedState != null){
 			// we still have some unused cached state observations, so use one of them instead
 			// of generating a new state
-			setStateObs(getNextCachedState());
+			mcts.setStateObs(this, cachedState);
 			
 			// the previousState will no longer be used anywhere, so we can let our parent cache it
 			if(!previousState.shouldCopy()){
-				parent.cacheStateObservation(previousState.getStateObsNoCopy());
+				parent.cacheStateObservation(previousState.getStateObsNoCopy(), stateCache);
 			}
 			
-			returnState = new StateObs(stateObs, false);
+			returnState = new StateObs(cachedState, false);
 		}
-		else if(savedStateObs != null){
-			setStateObs(savedStateObs);
-			returnState = new StateObs(savedStateObs, true);
+		else if(saved != null){
+			if(stateCache != null){
+				stateCache.touch(this);
+			}
+			
+			mcts.setStateObs(this, saved, true);
+			returnState = new StateObs(saved, true);
 		}
 		else{
-			StateObservation nextState = previousState.getStateObs();
-			nextState.advance(action);
-			setStateObs(nextState);
-			MctsController.NUM_ADVANCE_OPS += 1;
+			final boolean deterministic = Globals.knowledgeBase.isGameDeterministic();
+			TransitionCache transitionCache = deterministic ? mcts.getTransitionCache() : null;
+			CheckpointPolicy checkpoints = deterministic ? mcts.getCheckpointPolicy() : null;
+			StateObservation nextState = null;
+			long previousFingerprint = 0L;
+			int previousTick = 0;
 			
-			if(savedStateObs == null && Globals.knowledgeBase.isGameDeterministic() && 
-				numVisits + 1.0 >= MctsController.DETERMINISTIC_STATE_CACHE_VISIT_THRESHOLD){
-				// time to start saving this state
-				savedStateObs = nextState;
-				returnState = new StateObs(nextState, true);
+			if(transitionCache != null){
+				previousFingerprint = parent.getStateFingerprint(previousState.getStateObsNoCopy());
+				previousTick = previousState.getStateObsNoCopy().getGameTick();
+				nextState = transitionCache.get(previousFingerprint, previousTick, action);
 			}
-			else{
-				// don't need to copy this
-				returnState = new StateObs(nextState, false);
+			
+			// states in the transition cache are shared, so need to be copied before they are modified
+			boolean shared = (nextState != null);
+			
+			if(nextState == null){
+				if(checkpoints == null){
+					nextState = previousState.getStateObs();
+					nextState.advance(action);
+				}
+				else{
+					// also measures the costs of copying and advancing, to adapt the interval between checkpoints
+					nextState = checkpoints.generateSuccessor(previousState, action);
+				}
+				
+				mcts.NUM_ADVANCE_OPS += 1;
+				
+				if(transitionCache != null){
+					transitionCache.put(previousFingerprint, previousTick, action, nextState);
+					shared = true;
+				}
+			}
+			
+			if(savedStateObs == null && deterministic){
+				if(checkpoints != null && !checkpoints.isCheckpointDepth(depth)){
+					// not a checkpoint, this state will be regenerated by replaying actions from the checkpoint above us
+				}
+				else if(stateCache == null){
+					if(numVisits + 1.0 >= MctsController.DETERMINISTIC_STATE_CACHE_VISIT_THRESHOLD){
+						// time to start saving this state
+						savedStateObs = nextState;
+						shared = true;
+					}
+				}
+				else if(numVisits >= 1.0 && saveAdmittedState(nextState, stateCache)){
+					// only worth saving a state that we have generated before, the manager decided that it fits in the budget
+					shared = true;
+				}
+			}
+			
+			mcts.setStateObs(this, nextState, shared);
+			returnState = new StateObs(nextState, shared);
+		}
+		
+		if(transposition == null){
+			TranspositionTable transpositionTable = mcts.getTranspositionTable();
+			
+			if(transpositionTable != null && Globals.knowledgeBase.isGameDeterministic()){
+				// in deterministic games, the state we generated is the only state this node can ever reach
+				long fingerprint = getStateFingerprint(returnState.getStateObsNoCopy());
+				transposition = transpositionTable.getOrCreate(fingerprint);
 			}
 		}
 		
@@ -258,15 +589,20 @@ public class MctNode {
 		return actionFromParent;
 	}
 	
-	public ActionLocation getActionLocationFromParent(){
-		return new ActionLocation(actionFromParent, parent.getLastAvatarCell());
+	/**
+	 * @return The key of the n-gram (n = 1) consisting of the action from our parent (see ActionNGram.actionKey())
+	 */
+	public long getActionKeyFromParent(){
+		return ActionNGram.actionKey(actionFromParent, parent.getLastAvatarCell());
 	}
 	
 	public NoveltyTester getCachedNoveltyTester(){
+		catchUpWithEpoch();
 		return cachedNoveltyTester;
 	}
 
 	public StateMemory getCachedStateMemory(){
+		catchUpWithEpoch();
 		return cachedStateMemory;
 	}
 	
@@ -274,11 +610,14 @@ public class MctNode {
 		return children;
 	}
 
+	/**
+	 * @return The depth of this node, relative to the current root of the tree
+	 */
 	public int getDepth(){
-		return depth;
+		return depth - treeEpoch.getRootDepth();
 	}
 	
-	public MctNode getExpandedChildForAction(ACTIONS action){
+	public synchronized MctNode getExpandedChildForAction(ACTIONS action){
 		for(MctNode child : children){
 			if(child.getActionFromParent() == action){
 				return child;
@@ -292,26 +631,78 @@ public class MctNode {
 		return lastAvatarCell;
 	}
 	
-	public double getMaxScore(){
-		return maxScore;
+	/**
+	 * Returns the average score of the state reached by this node, which is shared with all the other nodes that
+	 * reach the same state if we use a transposition table. Otherwise, this is simply the average score of all
+	 * scores backpropagated through this node. Nodes that have been decayed no longer use the transposition table
+	 * (see catchUpWithEpoch()), so the shared average is never mixed with decayed visit counts
+	 * 
+	 * @return
+	 */
+	public double getAverageScore(){
+		TranspositionTable.Entry entry = transposition;
+		if(entry != null && entry.getNumVisits() > 0.0){
+			return entry.getAverageScore();
+		}
+		
+		return getTotalScore() / Math.max(getNumVisits(), 0.00001);
 	}
 	
-	public StateObservation getNextCachedState(){
-		return cachedStateObservations.remove(cachedStateObservations.size() - 1);
+	public double getMaxScore(){
+		TranspositionTable.Entry entry = transposition;
+		if(entry != null){
+			return Math.max(maxScore, entry.getMaxScore());
+		}
+		
+		return maxScore;
 	}
 	
 	public double getNumVisits(){
+		catchUpWithEpoch();
 		return numVisits;
 	}
 	
+	/**
+	 * Returns the number of virtual losses currently added to this node by Tree Parallelization
+	 * 
+	 * @return
+	 */
+	public int getNumVirtualLosses(){
+		return numVirtualLosses;
+	}
+	
 	public MctNode getParent(){
 		return parent;
 	}
 	
 	public StateObservation getSavedStateObs(){
+		catchUpWithEpoch();
 		return savedStateObs;
 	}
 
+	/**
+	 * Returns the fingerprint (see StateFingerprint) of the given state, which should be a state generated in this node.
+	 * In deterministic games, this is the only state that this node can reach, so the fingerprint is only computed 
+	 * once and cached
+	 * 
+	 * @param stateObs
+	 * @return
+	 */
+	public long getStateFingerprint(StateObservation stateObs){
+		if(stateFingerprintKnown){
+			return stateFingerprint;
+		}
+		
+		final long fingerprint = StateFingerprint.compute(stateObs);
+		
+		if(Globals.knowledgeBase.isGameDeterministic()){
+			stateFingerprint = fingerprint;
+			stateFingerprintKnown = true;
+		}
+		
+		return fingerprint;
+	}
+
 	public StateObservation getStateObs(){
 		return stateObs;
 	}
@@ -322,6 +713,7 @@ public class MctNode {
 	 * @return
 	 */
 	public double getTotalScore() {
+		catchUpWithEpoch();
 		return totalScore;
 	}
 	
@@ -334,11 +726,12 @@ public class MctNode {
 		return unexpandedActions;
 	}
 	
-	public boolean hasCachedState(){
-		return (cachedStateObservations != null && !cachedStateObservations.isEmpty());
+	public synchronized boolean hasCachedState(){
+		ArrayList<StateObservation> cachedStates = cachedStateObservations;
+		return (cachedStates != null && !cachedStates.isEmpty());
 	}
 	
-	public boolean hasNonImmediateLossChildren(){
+	public synchronized boolean hasNonImmediateLossChildren(){
 		if(unexpandedActions.size() > 0){
 			return true;
 		}
@@ -367,20 +760,23 @@ public class MctNode {
 	}
 	
 	public boolean isNovel(){
+		catchUpWithEpoch();
 		return novel;
 	}
 	
 	public void markNotNovel(){
+		catchUpWithEpoch();
 		novel = false;
 	}
 	
 	/**
 	 * Called right before MCTS selects one of the children of this node in the selection phase
 	 * 
+	 * @param mcts The controller that owns the tree containing this node
 	 * @param stateObs The current state observation in this node
 	 */
-	public void preSelect(StateObservation stateObs){
-		MctsController mcts = (MctsController)Agent.controller;
+	public synchronized void preSelect(MctsController mcts, StateObservation stateObs){
+		catchUpWithEpoch();
 		
 		// TODO this isFullyExpanded() check is currently redundant, but might become necessary if we ever
 		// implement something where we can pass up on selecting some unexpanded nodes (urgency stuff?)
@@ -410,8 +806,8 @@ public class MctNode {
 					if(successorState == null){
 						successorState = stateObs.copy();
 						successorState.advance(action);
-						MctsController.NUM_ADVANCE_OPS += 1;
-						child.cacheStateObservation(successorState);
+						mcts.NUM_ADVANCE_OPS += 1;
+						child.cacheStateObservation(successorState, mcts.getStateCacheManager());
 					}
 					
 					StateMemory childStateMem = new StateMemory(successorState, stateMem);
@@ -486,7 +882,7 @@ public class MctNode {
 		}
 	}
 	
-	public void optimizeChildOrdering(){
+	public synchronized void optimizeChildOrdering(){
 		// TODO can probably optimize this by hardcoding the sorting
 		Collections.sort(children, new Comparator<MctNode>(){
 
@@ -549,8 +945,109 @@ public class MctNode {
 		stateObs = null;
 	}
 	
-	public void removeCachedStates(){
-		cachedStateObservations = null;
+	/**
+	 * Removes and returns one of the cached state observations of this node, or returns null if there are no 
+	 * cached state observations left
+	 * 
+	 * @param stateCache The StateCacheManager that admitted the states (may be null)
+	 * @return
+	 */
+	public StateObservation pollCachedState(StateCacheManager stateCache){
+		StateObservation cachedState;
+		
+		synchronized(this){
+			ArrayList<StateObservation> cachedStates = cachedStateObservations;
+			if(cachedStates == null || cachedStates.isEmpty()){
+				return null;
+			}
+			
+			cachedState = cachedStates.remove(cachedStates.size() - 1);
+		}
+		
+		if(stateCache != null){
+			stateCache.release(this, 1);
+		}
+		
+		return cachedState;
+	}
+	
+	/**
+	 * Removes all cached state observations (not the saved state observation)
+	 * 
+	 * @param stateCache The StateCacheManager that admitted the states (may be null)
+	 */
+	public void removeCachedStates(StateCacheManager stateCache){
+		int numRemoved = 0;
+		
+		synchronized(this){
+			ArrayList<StateObservation> cachedStates = cachedStateObservations;
+			if(cachedStates != null){
+				numRemoved = cachedStates.size();
+			}
+			
+			cachedStateObservations = null;
+		}
+		
+		if(stateCache != null && numRemoved > 0){
+			stateCache.release(this, numRemoved);
+		}
+	}
+	
+	/**
+	 * Drops all the states cached in this node (both the saved state and the list of cached states), if the given
+	 * entry is still the entry of the StateCacheManager for this node. Called by the StateCacheManager (while 
+	 * holding its lock), so this must not require our own lock
+	 * 
+	 * @param entry
+	 */
+	void evictCachedStates(StateCacheManager.Entry entry){
+		if(stateCacheEntry == entry){
+			stateCacheEntry = null;
+			savedStateObs = null;
+			cachedStateObservations = null;
+		}
+	}
+	
+	/**
+	 * Drops the saved states of all nodes in the subtree of this node that are not at checkpoint depths of the
+	 * given policy. Used when the interval between checkpoints changes, such that a reused tree does not keep
+	 * states that would no longer be saved
+	 *
+	 * @param checkpoints
+	 * @param stateCache The StateCacheManager that admitted the states (may be null)
+	 * @return The number of saved states that were dropped
+	 */
+	public int releaseNonCheckpointStates(CheckpointPolicy checkpoints, StateCacheManager stateCache){
+		int numReleased = 0;
+
+		// explicit stack instead of recursion, the tree may be deep
+		ArrayList<MctNode> stack = new ArrayList<MctNode>();
+		stack.add(this);
+
+		while(!stack.isEmpty()){
+			MctNode node = stack.remove(stack.size() - 1);
+
+			if(node.savedStateObs != null && !checkpoints.isCheckpointDepth(node.depth)){
+				node.savedStateObs = null;
+				++numReleased;
+
+				if(stateCache != null){
+					stateCache.release(node, 1);
+				}
+			}
+
+			stack.addAll(node.children);
+		}
+
+		return numReleased;
+	}
+
+	StateCacheManager.Entry getStateCacheEntry(){
+		return stateCacheEntry;
+	}
+	
+	void setStateCacheEntry(StateCacheManager.Entry entry){
+		stateCacheEntry = entry;
 	}
 	
 	public void resetNoveltyTestResults(){
@@ -564,11 +1061,12 @@ public class MctNode {
 		parent = null;
 	}
 	
-	public void setChildren(ArrayList<MctNode> children){
+	public synchronized void setChildren(ArrayList<MctNode> children){
 		this.children.addAll(children);
 	}
 	
 	public void setImmediateLossDetected(){
+		catchUpWithEpoch();
 		immediateLossDetected = true;
 	}
 	
@@ -584,7 +1082,11 @@ public class MctNode {
 			ArrayList<ACTIONS> availableActions = stateObs.getAvailableActions();
 			
 			if(availableActions.size() > 0){
-				unexpandedActions = new ArrayList<ACTIONS>(availableActions);
+				synchronized(this){
+					if(unexpandedActions == null){
+						unexpandedActions = new ArrayList<ACTIONS>(availableActions);
+					}
+				}
 			}
 		}
 	}
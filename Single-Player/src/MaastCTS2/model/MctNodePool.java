@@ -0,0 +1,106 @@
+package MaastCTS2.model;
+
+import java.util.ArrayList;
+
+import ontology.Types.ACTIONS;
+
+/**
+ * Pool of MctNode objects from subtrees that are no longer part of the MCTS tree (for instance all the siblings
+ * of the child that becomes the new root with Tree Reuse), from which new nodes are taken instead of allocating
+ * new ones.
+ *
+ * <p> Discarded subtrees are recycled incrementally: releasing a subtree only remembers its root, and whenever
+ * a node of a discarded subtree is taken from the pool, its children are remembered in turn. This way, the cost
+ * of recycling is spread out over the node creations of the next search, instead of having the garbage collector
+ * deal with all discarded nodes at once at the start of a tick. Discarded nodes (and the states cached in them)
+ * stay in memory until they are recycled or until the pool is cleared.
+ *
+ * <p> Thread-safe, so that Tree Parallelization, Leaf Parallelization and pipeline workers can share the pool of
+ * the tree they expand.
+ *
+ * @author Dennis Soemers
+ */
+public class MctNodePool {
+
+	/** Roots of discarded subtrees of which the nodes have not been recycled yet */
+	private final ArrayList<MctNode> discardedSubtrees = new ArrayList<MctNode>();
+
+	/** The number of nodes taken from the pool since the last call to resetCounters() */
+	private long numRecycledNodes = 0L;
+	/** The number of nodes allocated because the pool was empty since the last call to resetCounters() */
+	private long numAllocatedNodes = 0L;
+
+	/**
+	 * Returns a node with the given parent and action from parent, which is either recycled from a discarded
+	 * subtree or newly allocated. The node is not added to the children of the parent yet
+	 *
+	 * @param parent
+	 * @param action
+	 * @return
+	 */
+	public synchronized MctNode acquire(MctNode parent, ACTIONS action){
+		if(discardedSubtrees.isEmpty()){
+			++numAllocatedNodes;
+			return new MctNode(parent, action);
+		}
+
+		MctNode node = discardedSubtrees.remove(discardedSubtrees.size() - 1);
+
+		// the children of the node will be recycled later
+		discardedSubtrees.addAll(node.getChildren());
+
+		node.reinitialize(parent, action);
+		++numRecycledNodes;
+		return node;
+	}
+
+	/**
+	 * Releases the given subtree, which must no longer be reachable from any tree that is still used, into the pool
+	 *
+	 * @param subtreeRoot
+	 */
+	public synchronized void release(MctNode subtreeRoot){
+		discardedSubtrees.add(subtreeRoot);
+	}
+
+	/**
+	 * Releases all the children of the given node, except for the given child to keep (which may be null), into
+	 * the pool. The given node itself is also released
+	 *
+	 * @param node
+	 * @param childToKeep
+	 */
+	public synchronized void releaseAllExcept(MctNode node, MctNode childToKeep){
+		for(MctNode child : node.getChildren()){
+			if(child != childToKeep){
+				discardedSubtrees.add(child);
+			}
+		}
+
+		// the children that are released have been put in the pool separately, and the child we keep
+		// should not be recycled together with the node
+		node.getChildren().clear();
+		discardedSubtrees.add(node);
+	}
+
+	/**
+	 * Forgets about all discarded subtrees, leaving them to the garbage collector
+	 */
+	public synchronized void clear(){
+		discardedSubtrees.clear();
+	}
+
+	public synchronized long getNumRecycledNodes(){
+		return numRecycledNodes;
+	}
+
+	public synchronized long getNumAllocatedNodes(){
+		return numAllocatedNodes;
+	}
+
+	public synchronized void resetCounters(){
+		numRecycledNodes = 0L;
+		numAllocatedNodes = 0L;
+	}
+
+}
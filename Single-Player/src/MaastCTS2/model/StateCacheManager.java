@@ -0,0 +1,333 @@
+package MaastCTS2.model;
+
+import java.util.ArrayList;
+
+import MaastCTS2.libs.it.unimi.dsi.util.XorShift64StarRandom;
+import core.game.Observation;
+import core.game.StateObservation;
+
+/**
+ * Keeps the state observations cached in the nodes of a tree (saved states in deterministic games, and the lists of
+ * cached states used once instead of generating a new state) within a budget of (estimated) bytes.
+ *
+ * <p> Nodes ask the manager to admit states before caching them. While the budget has room, states are always
+ * admitted. Otherwise, the manager samples a few of the nodes that currently have cached states, and the one with the
+ * lowest priority is evicted (all of its cached states are dropped) if its priority is lower than that of the node
+ * asking for admission. If not, the new state is rejected. The priority of a node is (1 + visits) / (1 + age), where
+ * age is the number of ticks since the node last used (or cached) a state, such that states in frequently visited and
+ * recently used nodes are kept. When Tree Reuse discards a part of a tree, the states cached in the discarded part
+ * are evicted immediately (see evictSubtree()), since they can never be used again. Entries of nodes that were
+ * recycled in the meantime have the lowest priority.
+ *
+ * <p> All states are assumed to use the same number of bytes, estimated from the state at the root of every tick.
+ *
+ * <p> Thread-safe, so that all the threads of an agent can share the same budget. Evicting states does not require
+ * the locks of the nodes that own them.
+ *
+ * @author Dennis Soemers
+ */
+public class StateCacheManager {
+
+	/** Estimated number of bytes used by a state, excluding its observations */
+	private static final long BYTES_PER_STATE = 4096L;
+	/** Estimated number of bytes used by every observation of a state */
+	private static final long BYTES_PER_OBSERVATION = 96L;
+
+	/** The number of nodes with cached states among which we look for a node to evict */
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+	/** The maximum (estimated) number of bytes used by all cached states together */
+	private final long maxBytes;
+
+	/** Estimated number of bytes used by a single state */
+	private volatile long stateBytes = BYTES_PER_STATE;
+
+	/** The total number of cached states */
+	private long numStates = 0L;
+
+	/** All the entries of nodes that currently have cached states */
+	private final ArrayList<Entry> residents = new ArrayList<Entry>();
+
+	/** Used to sample entries for eviction (not the global RNG, such that the search itself is not affected) */
+	private final XorShift64StarRandom rng = new XorShift64StarRandom(0x5EEDL);
+
+	/** The current tick */
+	private volatile int tick = 0;
+
+	/** The number of states admitted since the last call to resetCounters() */
+	private long numAdmittedStates = 0L;
+	/** The number of states rejected since the last call to resetCounters() */
+	private long numRejectedStates = 0L;
+	/** The number of states evicted since the last call to resetCounters() */
+	private long numEvictedStates = 0L;
+
+	/**
+	 * Constructs a manager that keeps the cached states within (approximately) the given number of bytes
+	 *
+	 * @param maxBytes
+	 */
+	public StateCacheManager(long maxBytes){
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Asks for permission for the given node to cache the given number of (additional) states. Evicts the cached
+	 * states of nodes with lower priorities if necessary
+	 *
+	 * <p> The node stores the states after this returns, without our lock. If the returned entry is evicted before
+	 * the node (holding its own lock) has stored them, we no longer account for them, and the node must drop them
+	 *
+	 * @param node
+	 * @param numNewStates
+	 * @return The entry that accounts for the states of the node if it may cache the states, null otherwise
+	 */
+	public synchronized Entry admit(MctNode node, int numNewStates){
+		final long maxStates = Math.max(1L, maxBytes / stateBytes);
+		Entry entry = node.getStateCacheEntry();
+
+		if(numStates + numNewStates > maxStates){
+			final double priority = 1.0 + node.getNumVisits();
+
+			while(numStates + numNewStates > maxStates){
+				Entry victim = sampleVictim(entry);
+
+				if(victim == null || getPriority(victim) >= priority){
+					numRejectedStates += numNewStates;
+					return null;
+				}
+
+				evict(victim);
+			}
+		}
+
+		if(entry == null){
+			entry = new Entry(node);
+			entry.residentIdx = residents.size();
+			residents.add(entry);
+			node.setStateCacheEntry(entry);
+		}
+
+		entry.numStates += numNewStates;
+		entry.lastUseTick = tick;
+		numStates += numNewStates;
+		numAdmittedStates += numNewStates;
+		return entry;
+	}
+
+	/**
+	 * Tells the manager that the given node no longer caches the given number of states
+	 *
+	 * @param node
+	 * @param numReleasedStates
+	 */
+	public synchronized void release(MctNode node, int numReleasedStates){
+		Entry entry = node.getStateCacheEntry();
+
+		if(entry == null){
+			return;
+		}
+
+		final int numReleased = Math.min(numReleasedStates, entry.numStates);
+		entry.numStates -= numReleased;
+		numStates -= numReleased;
+
+		if(entry.numStates == 0){
+			removeResident(entry);
+			node.setStateCacheEntry(null);
+		}
+	}
+
+	/**
+	 * Tells the manager that the given node used one of its cached states in the current tick
+	 *
+	 * @param node
+	 */
+	public void touch(MctNode node){
+		Entry entry = node.getStateCacheEntry();
+
+		if(entry != null){
+			entry.lastUseTick = tick;
+		}
+	}
+
+	/**
+	 * Starts a new tick, with the given state at the root. Updates the estimated number of bytes per state
+	 *
+	 * @param rootState
+	 */
+	public void startNewTick(StateObservation rootState){
+		stateBytes = estimateBytes(rootState);
+		++tick;
+	}
+
+	/**
+	 * Evicts all the states cached in the subtree of the given node, except for the states cached in the subtree of
+	 * the given node to keep. Should be called when Tree Reuse discards (a part of) a tree, since those states can
+	 * never be used again, but their nodes may still have high priorities for a while
+	 *
+	 * @param subtreeRoot
+	 * @param keep Root of a subtree that is not discarded (may be null)
+	 */
+	public synchronized void evictSubtree(MctNode subtreeRoot, MctNode keep){
+		// explicit stack instead of recursion, the tree may be deep
+		ArrayList<MctNode> stack = new ArrayList<MctNode>();
+		stack.add(subtreeRoot);
+
+		while(!stack.isEmpty()){
+			MctNode node = stack.remove(stack.size() - 1);
+
+			if(node == keep){
+				continue;
+			}
+
+			Entry entry = node.getStateCacheEntry();
+			if(entry != null){
+				evict(entry);
+			}
+
+			stack.addAll(node.getChildren());
+		}
+	}
+
+	/**
+	 * Evicts all cached states
+	 */
+	public synchronized void clear(){
+		while(!residents.isEmpty()){
+			evict(residents.get(residents.size() - 1));
+		}
+
+		numStates = 0L;
+	}
+
+	public synchronized long getNumStates(){
+		return numStates;
+	}
+
+	public synchronized long getNumAdmittedStates(){
+		return numAdmittedStates;
+	}
+
+	public synchronized long getNumRejectedStates(){
+		return numRejectedStates;
+	}
+
+	public synchronized long getNumEvictedStates(){
+		return numEvictedStates;
+	}
+
+	public synchronized void resetCounters(){
+		numAdmittedStates = 0L;
+		numRejectedStates = 0L;
+		numEvictedStates = 0L;
+	}
+
+	/**
+	 * @param state
+	 * @return An estimate of the number of bytes used by the given state
+	 */
+	public static long estimateBytes(StateObservation state){
+		long numObservations = 0L;
+
+		ArrayList<Observation>[][] observationGrid = state.getObservationGrid();
+		for(int x = 0; x < observationGrid.length; ++x){
+			for(int y = 0; y < observationGrid[x].length; ++y){
+				numObservations += observationGrid[x][y].size();
+			}
+		}
+
+		return BYTES_PER_STATE + numObservations * BYTES_PER_OBSERVATION;
+	}
+
+	/**
+	 * Evicts all the states cached by the node of the given entry. Only requires our own lock, because
+	 * the node drops its states without locking
+	 *
+	 * @param victim
+	 */
+	private void evict(Entry victim){
+		removeResident(victim);
+		numStates -= victim.numStates;
+		numEvictedStates += victim.numStates;
+		victim.node.evictCachedStates(victim);
+	}
+
+	/**
+	 * @param entry
+	 * @return The priority of keeping the states cached for the given entry
+	 */
+	private double getPriority(Entry entry){
+		if(entry.node.getStateCacheEntry() != entry){
+			// the node has been recycled, so these states will never be used again
+			return -1.0;
+		}
+
+		return (1.0 + entry.node.getNumVisits()) / (1.0 + tick - entry.lastUseTick);
+	}
+
+	/**
+	 * Samples a few entries of nodes that have cached states, and returns the one with the lowest priority
+	 *
+	 * @param exclude Entry that should not be returned (may be null)
+	 * @return The sampled entry with the lowest priority, or null if there are no entries to sample
+	 */
+	private Entry sampleVictim(Entry exclude){
+		final int numResidents = residents.size();
+		if(numResidents == 0 || (numResidents == 1 && residents.get(0) == exclude)){
+			return null;
+		}
+
+		Entry victim = null;
+		double lowestPriority = Double.POSITIVE_INFINITY;
+
+		for(int i = 0; i < EVICTION_SAMPLE_SIZE; ++i){
+			Entry candidate = residents.get(rng.nextInt(numResidents));
+
+			if(candidate == exclude){
+				continue;
+			}
+
+			double priority = getPriority(candidate);
+			if(priority < lowestPriority){
+				lowestPriority = priority;
+				victim = candidate;
+			}
+		}
+
+		return victim;
+	}
+
+	/**
+	 * Removes the given entry from the list of residents (swapping the last resident into its place)
+	 *
+	 * @param entry
+	 */
+	private void removeResident(Entry entry){
+		final int lastIdx = residents.size() - 1;
+		Entry last = residents.remove(lastIdx);
+
+		if(last != entry){
+			residents.set(entry.residentIdx, last);
+			last.residentIdx = entry.residentIdx;
+		}
+	}
+
+	/**
+	 * Bookkeeping for the states cached by a single node
+	 */
+	public static final class Entry {
+		/** The node caching states */
+		private final MctNode node;
+		/** The number of states cached by the node */
+		private int numStates = 0;
+		/** Index of this entry in the list of residents */
+		private int residentIdx;
+		/** The most recent tick in which the node used or cached a state */
+		private volatile int lastUseTick;
+
+		private Entry(MctNode node){
+			this.node = node;
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package MaastCTS2.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import MaastCTS2.libs.it.unimi.dsi.fastutil.HashCommon;
+import core.game.StateObservation;
+import ontology.Types.ACTIONS;
+
+/**
+ * Cache of transitions for deterministic games. Maps triples of (fingerprint of a state, game tick of that state,
+ * action) (see StateFingerprint) to the successor state that was generated by applying that action in that state, such
+ * that we don't need to call advance() again when the same transition is simulated again (in later iterations, or in
+ * later ticks). The game tick is part of the key because fingerprints ignore it, whereas events in games (such as
+ * timed spawns, or the game ending when the time limit is reached) may depend on it. Without it, the same state 
+ * reached through paths of different lengths would share successors of which the game tick (and anything that 
+ * depends on it) is wrong.
+ *
+ * <p> Cached states are shared, and must never be modified. States that are put in the cache can no longer be
+ * modified by the caller, and states obtained from the cache should be copied before modifying them (for instance by
+ * wrapping them in a StateObs that copies them).
+ *
+ * <p> The memory used by the cache is capped by estimating the memory used by every cached state from its number of
+ * observations (see StateCacheManager.estimateBytes()). When the cap is exceeded, the least recently used transitions are evicted.
+ *
+ * <p> Thread-safe, so that all the threads searching a tree can share the same cache.
+ *
+ * @author Dennis Soemers
+ */
+public class TransitionCache {
+
+	/** The cached transitions, in order of access (least recently used first) */
+	private final LinkedHashMap<Long, CachedState> transitions = new LinkedHashMap<Long, CachedState>(256, 0.75f, true);
+
+	/** The maximum (estimated) number of bytes used by all cached states together */
+	private final long maxBytes;
+	/** The estimated number of bytes currently used by all cached states together */
+	private long numBytes = 0L;
+
+	/** The number of lookups that found a cached transition since the last call to resetCounters() */
+	private long numHits = 0L;
+	/** The number of lookups that did not find a cached transition since the last call to resetCounters() */
+	private long numMisses = 0L;
+	/** The number of transitions evicted to respect the memory cap since the last call to resetCounters() */
+	private long numEvictions = 0L;
+
+	/**
+	 * Constructs a cache that uses at most (approximately) the given number of bytes
+	 *
+	 * @param maxBytes
+	 */
+	public TransitionCache(long maxBytes){
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cached successor state of the state with the given fingerprint and game tick when the given action
+	 * is applied, or null if that transition is not cached. The returned state must not be modified
+	 *
+	 * @param fingerprint
+	 * @param tick
+	 * @param action
+	 * @return
+	 */
+	public synchronized StateObservation get(long fingerprint, int tick, ACTIONS action){
+		CachedState cached = transitions.get(transitionKey(fingerprint, tick, action));
+
+		if(cached == null){
+			++numMisses;
+			return null;
+		}
+
+		++numHits;
+		return cached.state;
+	}
+
+	/**
+	 * Caches the given successor state of the state with the given fingerprint and game tick when the given action
+	 * is applied. The successor must not be modified anymore after calling this method
+	 *
+	 * @param fingerprint
+	 * @param tick
+	 * @param action
+	 * @param successor
+	 */
+	public void put(long fingerprint, int tick, ACTIONS action, StateObservation successor){
+		// estimate outside of the lock, only need to look at the state
+		final long bytes = StateCacheManager.estimateBytes(successor);
+
+		synchronized(this){
+			CachedState previous = transitions.put(transitionKey(fingerprint, tick, action), new CachedState(successor, bytes));
+			numBytes += bytes;
+
+			if(previous != null){
+				numBytes -= previous.bytes;
+			}
+
+			Iterator<CachedState> it = transitions.values().iterator();
+			while(numBytes > maxBytes && it.hasNext()){
+				numBytes -= it.next().bytes;
+				it.remove();
+				++numEvictions;
+			}
+		}
+	}
+
+	/**
+	 * Removes all transitions from the cache
+	 */
+	public synchronized void clear(){
+		transitions.clear();
+		numBytes = 0L;
+	}
+
+	public synchronized long getNumBytes(){
+		return numBytes;
+	}
+
+	public synchronized long getNumHits(){
+		return numHits;
+	}
+
+	public synchronized long getNumMisses(){
+		return numMisses;
+	}
+
+	public synchronized long getNumEvictions(){
+		return numEvictions;
+	}
+
+	public synchronized void resetCounters(){
+		numHits = 0L;
+		numMisses = 0L;
+		numEvictions = 0L;
+	}
+
+	/**
+	 * @param fingerprint
+	 * @param tick
+	 * @param action
+	 * @return Key of the transition from the state with the given fingerprint and game tick with the given action
+	 */
+	private static Long transitionKey(long fingerprint, int tick, ACTIONS action){
+		return Long.valueOf(fingerprint ^ HashCommon.murmurHash3((((long) tick) << 8) | (action.ordinal() + 1L)));
+	}
+
+	/**
+	 * A cached successor state, with the estimated number of bytes it uses
+	 */
+	private static final class CachedState {
+		public final StateObservation state;
+		public final long bytes;
+
+		public CachedState(StateObservation state, long bytes){
+			this.state = state;
+			this.bytes = bytes;
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package MaastCTS2.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import MaastCTS2.libs.it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * Transposition table for deterministic games. In deterministic games, different sequences of actions
+ * (for instance LEFT, UP and UP, LEFT) often lead to identical states. Nodes of the tree that reach the same
+ * state (identified by their fingerprint, see StateFingerprint) are linked to the same entry of this table, and share the visit
+ * and score statistics collected in that entry. This effectively turns the tree into a DAG for the purpose of
+ * estimating values, while every node keeps its own visit count for exploration.
+ *
+ * <p> The table has a fixed number of entries, organized in buckets of BUCKET_SIZE entries. When a bucket is
+ * full, the entry that was least recently used (in terms of generations, where a new generation starts for every
+ * search) is replaced, with ties broken in favour of keeping the entry with the most visits. Nodes that are linked
+ * to a replaced entry keep using it, but it is no longer shared with nodes that are linked afterwards.
+ *
+ * <p> A single backup may go through multiple nodes that reach the same state (for instance LEFT, RIGHT returns to
+ * the state in which it started). Every backup therefore has its own ID (see nextBackupId()), and entries only count
+ * the first time they are reached by the same backup, such that the result is not counted multiple times in the
+ * shared average score.
+ *
+ * <p> Entries are not decayed by Tree Reuse. Trees are only decayed in stochastic games, in which nodes no longer use
+ * the table (see MctNode), so the statistics of nodes that do use the table are never decayed either.
+ *
+ * <p> Thread-safe, so that all the threads searching a tree can share the same table.
+ *
+ * @author Dennis Soemers
+ */
+public class TranspositionTable {
+
+	/** The number of entries per bucket */
+	private static final int BUCKET_SIZE = 4;
+
+	/** Buckets of entries. The entries of the bucket with index b are stored at indices [b * BUCKET_SIZE, (b + 1) * BUCKET_SIZE) */
+	private final Entry[] entries;
+
+	/** Mask to compute the index of a bucket from a fingerprint (number of buckets is a power of 2) */
+	private final int bucketMask;
+
+	/** The current generation, used to determine which entries were least recently used */
+	private int generation = 0;
+
+	/** The ID of the next backup (0 is used for backups that are not identified) */
+	private final AtomicLong nextBackupId = new AtomicLong(1L);
+
+	/** The number of entries that are currently stored */
+	private int size = 0;
+
+	/** The number of lookups since the last call to resetCounters() */
+	private long numLookups = 0L;
+	/** The number of lookups that found an existing entry (transpositions) since the last call to resetCounters() */
+	private long numHits = 0L;
+	/** The number of entries that were replaced by new entries since the last call to resetCounters() */
+	private long numReplacements = 0L;
+
+	/**
+	 * Constructs a table with room for (at least) the given number of entries
+	 *
+	 * @param capacity
+	 */
+	public TranspositionTable(int capacity){
+		int numBuckets = 1;
+		while(numBuckets * BUCKET_SIZE < capacity){
+			numBuckets <<= 1;
+		}
+
+		entries = new Entry[numBuckets * BUCKET_SIZE];
+		bucketMask = numBuckets - 1;
+	}
+
+	/**
+	 * Returns the entry for the state with the given fingerprint, creating it (and possibly replacing another
+	 * entry) if the table does not contain one yet
+	 *
+	 * @param fingerprint
+	 * @return
+	 */
+	public synchronized Entry getOrCreate(long fingerprint){
+		++numLookups;
+
+		final int bucketStart = ((int) HashCommon.mix(fingerprint) & bucketMask) * BUCKET_SIZE;
+		int replaceIdx = -1;
+
+		for(int i = bucketStart; i < bucketStart + BUCKET_SIZE; ++i){
+			Entry entry = entries[i];
+
+			if(entry == null){
+				if(replaceIdx < 0 || entries[replaceIdx] != null){
+					replaceIdx = i;
+				}
+			}
+			else if(entry.fingerprint == fingerprint){
+				++numHits;
+				entry.generation = generation;
+				return entry;
+			}
+			else if(replaceIdx < 0 || (entries[replaceIdx] != null && isBetterToReplace(entry, entries[replaceIdx]))){
+				replaceIdx = i;
+			}
+		}
+
+		if(entries[replaceIdx] == null){
+			++size;
+		}
+		else{
+			++numReplacements;
+		}
+
+		Entry newEntry = new Entry(fingerprint, generation);
+		entries[replaceIdx] = newEntry;
+		return newEntry;
+	}
+
+	/**
+	 * @return A new ID for a backup, which should be passed to all the entries that the backup goes through
+	 */
+	public long nextBackupId(){
+		return nextBackupId.getAndIncrement();
+	}
+
+	/**
+	 * Starts a new generation. Entries that have not been used since previous generations are replaced first
+	 */
+	public synchronized void startNewGeneration(){
+		++generation;
+	}
+
+	/**
+	 * Removes all entries from the table
+	 */
+	public synchronized void clear(){
+		for(int i = 0; i < entries.length; ++i){
+			entries[i] = null;
+		}
+
+		size = 0;
+		generation = 0;
+	}
+
+	public synchronized int size(){
+		return size;
+	}
+
+	public synchronized long getNumLookups(){
+		return numLookups;
+	}
+
+	public synchronized long getNumHits(){
+		return numHits;
+	}
+
+	public synchronized long getNumReplacements(){
+		return numReplacements;
+	}
+
+	public synchronized void resetCounters(){
+		numLookups = 0L;
+		numHits = 0L;
+		numReplacements = 0L;
+	}
+
+	/**
+	 * @param entry
+	 * @param other
+	 * @return True if the given entry should rather be replaced than the other entry
+	 */
+	private static boolean isBetterToReplace(Entry entry, Entry other){
+		if(entry.generation != other.generation){
+			return (entry.generation < other.generation);
+		}
+
+		return (entry.getNumVisits() < other.getNumVisits());
+	}
+
+	/**
+	 * Statistics shared by all the nodes that reach the same state
+	 */
+	public static final class Entry {
+
+		/** Fingerprint of the state */
+		private final long fingerprint;
+
+		/** The number of visits of nodes that reach the state */
+		private double numVisits = 0.0;
+		/** The sum of all the scores backpropagated through nodes that reach the state */
+		private double totalScore = 0.0;
+		/** The highest score backpropagated through nodes that reach the state */
+		private double maxScore = Double.NEGATIVE_INFINITY;
+
+		/** The ID of the most recent backup that went through this entry (0 if none) */
+		private long lastBackupId = 0L;
+
+		/** The most recent generation in which the entry was used. Only accessed while holding the lock of the table */
+		private int generation;
+
+		private Entry(long fingerprint, int generation){
+			this.fingerprint = fingerprint;
+			this.generation = generation;
+		}
+
+		/**
+		 * Backpropagates the given score with the given number of visits, unless the backup with the given
+		 * ID already went through this entry
+		 *
+		 * @param score
+		 * @param visits
+		 * @param backupId ID of the backup (see nextBackupId()), or 0 if the backup should always be counted
+		 */
+		public synchronized void backpropagate(double score, double visits, long backupId){
+			if(backupId != 0L){
+				if(backupId == lastBackupId){
+					return;
+				}
+
+				lastBackupId = backupId;
+			}
+
+			totalScore += score * visits;
+			maxScore = Math.max(maxScore, score);
+			numVisits += visits;
+		}
+
+		public synchronized double getAverageScore(){
+			return totalScore / numVisits;
+		}
+
+		public synchronized double getMaxScore(){
+			return maxScore;
+		}
+
+		public synchronized double getNumVisits(){
+			return numVisits;
+		}
+
+	}
+
+}
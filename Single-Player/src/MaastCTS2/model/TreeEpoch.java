@@ -0,0 +1,93 @@
+package MaastCTS2.model;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the epochs of an MCTS tree, shared by all the nodes of that tree. A new epoch starts whenever
+ * Tree Reuse makes a node the new root of the tree. Instead of immediately decaying all the nodes of the tree
+ * and decrementing their depths, every node remembers the epoch in which it was last brought up to date, and
+ * catches up with all the decay of the epochs it missed the first time it is touched again (see MctNode). Depths
+ * of nodes are stored relative to the root of the first epoch, and converted to depths relative to the
+ * current root using the depth of the current root.
+ *
+ * <p> Epochs should only be advanced while no other thread is using the tree.
+ *
+ * @author Dennis Soemers
+ */
+public class TreeEpoch {
+
+	/** The current epoch */
+	private volatile int epoch = 0;
+
+	/** Depth of the current root, relative to the root of the first epoch */
+	private int rootDepth = 0;
+
+	/**
+	 * For every epoch, the sum of the logarithms of the decay factors of all the epochs up to and including it.
+	 * Logarithms, because the product of the decay factors would underflow in long games
+	 */
+	private double[] cumulativeLogDecay = new double[64];
+
+	/** The most recent epoch that started with decaying the tree (stochastic games) */
+	private int lastDecayEpoch = 0;
+
+	/**
+	 * Starts a new epoch in which the given node, at the given depth relative to the root of the first epoch,
+	 * is the root
+	 *
+	 * @param newRootDepth The depth of the new root, relative to the root of the first epoch
+	 * @param decay If true, all the nodes are decayed when they catch up with the new epoch (see MctNode)
+	 * @param decayFactor The factor by which visits and scores are decayed (only used if decay is true)
+	 */
+	public void advance(int newRootDepth, boolean decay, double decayFactor){
+		final int newEpoch = epoch + 1;
+
+		if(newEpoch == cumulativeLogDecay.length){
+			cumulativeLogDecay = Arrays.copyOf(cumulativeLogDecay, cumulativeLogDecay.length << 1);
+		}
+
+		double logDecay = 0.0;
+		if(decay){
+			// avoid infinities for decay factors of 0
+			logDecay = Math.log(Math.max(decayFactor, Double.MIN_NORMAL));
+			lastDecayEpoch = newEpoch;
+		}
+
+		cumulativeLogDecay[newEpoch] = cumulativeLogDecay[epoch] + logDecay;
+		rootDepth = newRootDepth;
+
+		// volatile write last, such that threads that see the new epoch also see everything above
+		epoch = newEpoch;
+	}
+
+	/**
+	 * @return The current epoch
+	 */
+	public int getEpoch(){
+		return epoch;
+	}
+
+	/**
+	 * @return Depth of the current root, relative to the root of the first epoch
+	 */
+	public int getRootDepth(){
+		return rootDepth;
+	}
+
+	/**
+	 * @param oldEpoch
+	 * @return True if the tree has been decayed in any epoch after the given epoch
+	 */
+	public boolean decayedSince(int oldEpoch){
+		return lastDecayEpoch > oldEpoch;
+	}
+
+	/**
+	 * @param oldEpoch
+	 * @return The product of the decay factors of all epochs after the given epoch
+	 */
+	public double getDecayFactorSince(int oldEpoch){
+		return Math.exp(cumulativeLogDecay[epoch] - cumulativeLogDecay[oldEpoch]);
+	}
+
+}
@@ -2,7 +2,6 @@ package MaastCTS2.move_selection;
 
 import java.util.ArrayList;
 
-import MaastCTS2.Agent;
 import MaastCTS2.Globals;
 import MaastCTS2.controller.MctsController;
 import MaastCTS2.model.MctNode;
@@ -23,9 +22,8 @@ import ontology.Types.ACTIONS;
 public class MaxAvgScore implements IMoveSelectionStrategy {
 
 	@Override
-	public ACTIONS selectMove(MctNode root){
+	public ACTIONS selectMove(MctNode root, MctsController controller){
 		ArrayList<MctNode> children = root.getChildren();	
-		MctsController controller = ((MctsController)Agent.controller);
 		
 		double minScore = controller.MIN_SCORE;
 		double maxScore = controller.MAX_SCORE;
@@ -10,9 +10,10 @@ public interface IPlayoutStrategy extends IPrintableConfig {
 	/**
 	 * 
 	 * @param node
+	 * @param mcts The controller that owns the tree being searched
 	 * @return the final node of the playout
 	 */
-	public MctNode runPlayout(MctNode node, ElapsedCpuTimer elapsedTimer);
+	public MctNode runPlayout(MctNode node, MctsController mcts, ElapsedCpuTimer elapsedTimer);
 
 	/**
 	 * optional method that is called when the agent is initialized.
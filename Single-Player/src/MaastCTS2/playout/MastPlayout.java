@@ -3,12 +3,11 @@ package MaastCTS2.playout;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import MaastCTS2.Agent;
 import MaastCTS2.Globals;
 import MaastCTS2.controller.MctsController;
-import MaastCTS2.model.ActionLocation;
+import MaastCTS2.model.ActionNGram;
+import MaastCTS2.model.ActionStatisticsTable;
 import MaastCTS2.model.MctNode;
-import MaastCTS2.model.Score;
 import MaastCTS2.model.StateObs;
 import core.game.StateObservation;
 import ontology.Types.ACTIONS;
@@ -36,11 +35,12 @@ public class MastPlayout implements IPlayoutStrategy {
 	}
 	
 	@Override
-	public MctNode runPlayout(MctNode node, ElapsedCpuTimer elapsedTimer) {
-		StateObservation state = node.getStateObs();
+	public MctNode runPlayout(MctNode node, MctsController mcts, ElapsedCpuTimer elapsedTimer) {
+		StateObservation state = mcts.getStateObs(node);
+		final ActionStatisticsTable actionStatistics = mcts.getActionStatistics();
 		StateObs stateObs;
-		if(state == node.getSavedStateObs()){
-			stateObs = new StateObs(state, true);	// last node of selection step has a closed-loop-style saved state
+		if(mcts.isStateObsShared(node)){
+			stateObs = new StateObs(state, true);	// last node of selection step has a shared (saved or cached) state
 		}
 		else{	// doing normal open-loop stuff
 			stateObs = new StateObs(state, false);
@@ -56,50 +56,56 @@ public class MastPlayout implements IPlayoutStrategy {
 				break;
 			}
 			
+			if (mcts.shouldAbortIteration()) {
+				// out of time, so the state we reached so far will be evaluated
+				break;
+			}
+			
 			double previousScore = state.getGameScore();
 			int previousNumEvents = state.getEventsHistory().size();
 			Vector2d previousAvatarPos = state.getAvatarPosition();
 			Vector2d previousAvatarOrientation = state.getAvatarOrientation();
 			
 			ACTIONS actionToPlay = ACTIONS.ACTION_NIL;
-			ArrayList<ACTIONS> unexpandedActions = node.getUnexpandedActions();
-			int avatarCell = node.getLastAvatarCell();
-			
-			if(Globals.RNG.nextDouble() < epsilon){
-				// play random action with probability epsilon
-				actionToPlay = unexpandedActions.remove(Globals.RNG.nextInt(unexpandedActions.size()));
-			}
-			else{
-				// play ''best'' action with probability (1 - epsilon)
-				MctsController mcts = (MctsController) Agent.controller;
-				double bestAvgScore = Double.NEGATIVE_INFINITY;
-				int bestActionIdx = -1;
-				for(int idx = 0; idx < unexpandedActions.size(); ++idx){
-					ActionLocation action = new ActionLocation(unexpandedActions.get(idx), avatarCell);
-					Score actionScore = mcts.getActionScore(action);
-					
-					double avgScore;
-					if(actionScore.timesVisited == 0.0){
-						// if we've never played this action yet, we'll use the max score (to reward exploration of unknown actions)
-						avgScore = mcts.MAX_SCORE;
-					}
-					else{
-						avgScore = actionScore.score / actionScore.timesVisited;
+			synchronized(node){
+				ArrayList<ACTIONS> unexpandedActions = node.getUnexpandedActions();
+				if(unexpandedActions.isEmpty()){
+					// another thread (Tree Parallelization) has expanded the remaining actions in the meantime
+					break;
+				}
+				
+				int avatarCell = node.getLastAvatarCell();
+				
+				if(Globals.getRNG().nextDouble() < epsilon){
+					// play random action with probability epsilon
+					actionToPlay = unexpandedActions.remove(Globals.getRNG().nextInt(unexpandedActions.size()));
+				}
+				else{
+					// play ''best'' action with probability (1 - epsilon)
+					double bestAvgScore = Double.NEGATIVE_INFINITY;
+					int bestActionIdx = -1;
+					for(int idx = 0; idx < unexpandedActions.size(); ++idx){
+						double avgScore = actionStatistics.getAverageScore(ActionNGram.actionKey(unexpandedActions.get(idx), avatarCell));
+						
+						if(Double.isNaN(avgScore)){
+							// if we've never played this action yet, we'll use the max score (to reward exploration of unknown actions)
+							avgScore = mcts.MAX_SCORE;
+						}
+						
+						avgScore += Globals.smallNoise();
+						
+						if(avgScore > bestAvgScore){
+							bestAvgScore = avgScore;
+							bestActionIdx = idx;
+						}
 					}
 					
-					avgScore += Globals.smallNoise();
-					
-					if(avgScore > bestAvgScore){
-						bestAvgScore = avgScore;
-						bestActionIdx = idx;
-					}
+					actionToPlay = unexpandedActions.remove(bestActionIdx);
 				}
-				
-				actionToPlay = unexpandedActions.remove(bestActionIdx);
 			}
 
-			MctNode newNode = new MctNode(node, actionToPlay);
-			stateObs = newNode.generateNewStateObs(stateObs, actionToPlay);
+			MctNode newNode = mcts.createNode(node, actionToPlay);
+			stateObs = newNode.generateNewStateObs(mcts, stateObs, actionToPlay);
 			state = stateObs.getStateObsNoCopy();
 			
 			node.addChild(newNode);
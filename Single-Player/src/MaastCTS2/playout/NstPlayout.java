@@ -3,13 +3,12 @@ package MaastCTS2.playout;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import MaastCTS2.Agent;
 import MaastCTS2.Globals;
 import MaastCTS2.controller.MctsController;
-import MaastCTS2.model.ActionLocation;
 import MaastCTS2.model.ActionNGram;
+import MaastCTS2.model.ActionNGramTrie;
+import MaastCTS2.model.ActionStatisticsTable;
 import MaastCTS2.model.MctNode;
-import MaastCTS2.model.Score;
 import MaastCTS2.model.StateObs;
 import core.game.StateObservation;
 import ontology.Types.ACTIONS;
@@ -41,11 +40,13 @@ public class NstPlayout implements IPlayoutStrategy {
 	}
 	
 	@Override
-	public MctNode runPlayout(MctNode node, ElapsedCpuTimer elapsedTimer) {
-		StateObservation state = node.getStateObs();
+	public MctNode runPlayout(MctNode node, MctsController mcts, ElapsedCpuTimer elapsedTimer) {
+		StateObservation state = mcts.getStateObs(node);
+		final ActionStatisticsTable actionStatistics = mcts.getActionStatistics();
+		final ActionNGramTrie actionNGramStatistics = mcts.getActionNGramStatistics();
 		StateObs stateObs;
-		if(state == node.getSavedStateObs()){
-			stateObs = new StateObs(state, true);	// last node of selection step has a closed-loop-style saved state
+		if(mcts.isStateObsShared(node)){
+			stateObs = new StateObs(state, true);	// last node of selection step has a shared (saved or cached) state
 		}
 		else{	// doing normal open-loop stuff
 			stateObs = new StateObs(state, false);
@@ -61,78 +62,86 @@ public class NstPlayout implements IPlayoutStrategy {
 				break;
 			}
 			
+			if (mcts.shouldAbortIteration()) {
+				// out of time, so the state we reached so far will be evaluated
+				break;
+			}
+			
 			double previousScore = state.getGameScore();
 			int previousNumEvents = state.getEventsHistory().size();
 			Vector2d previousAvatarPos = state.getAvatarPosition();
 			Vector2d previousAvatarOrientation = state.getAvatarOrientation();
 			
 			ACTIONS actionToPlay = ACTIONS.ACTION_NIL;
-			ArrayList<ACTIONS> unexpandedActions = node.getUnexpandedActions();
-			int avatarCell = node.getLastAvatarCell();
-			
-			if(Globals.RNG.nextDouble() < epsilon){
-				// play random action with probability epsilon
-				actionToPlay = unexpandedActions.remove(Globals.RNG.nextInt(unexpandedActions.size()));
-			}
-			else{
-				// play ''best'' action with probability (1 - epsilon)
-				MctsController mcts = (MctsController) Agent.controller;
-				double bestAvgScore = Double.NEGATIVE_INFINITY;
-				int bestActionIdx = -1;
-				for(int idx = 0; idx < unexpandedActions.size(); ++idx){
-					ActionLocation action = new ActionLocation(unexpandedActions.get(idx), avatarCell);
-					Score actionScore = mcts.getActionScore(action);
-					
-					double sumAvgScores = 0.0;
-					int numNGramsConsidered = 0;
-					if(actionScore.timesVisited == 0.0){
-						// if we've never played this action yet, we'll use the max score (to reward exploration of unknown actions)
-						sumAvgScores += mcts.MAX_SCORE;
-						++numNGramsConsidered;
-					}
-					else{
-						sumAvgScores += actionScore.score / actionScore.timesVisited;
-						++numNGramsConsidered;
-						
-						ArrayList<ActionLocation> actionSequence = new ArrayList<ActionLocation>(maxNGramSize);
-						actionSequence.add(action);
-						MctNode currentActionNode = node;
+			synchronized(node){
+				ArrayList<ACTIONS> unexpandedActions = node.getUnexpandedActions();
+				if(unexpandedActions.isEmpty()){
+					// another thread (Tree Parallelization) has expanded the remaining actions in the meantime
+					break;
+				}
+				
+				int avatarCell = node.getLastAvatarCell();
+				
+				if(Globals.getRNG().nextDouble() < epsilon){
+					// play random action with probability epsilon
+					actionToPlay = unexpandedActions.remove(Globals.getRNG().nextInt(unexpandedActions.size()));
+				}
+				else{
+					// play ''best'' action with probability (1 - epsilon)
+					double bestAvgScore = Double.NEGATIVE_INFINITY;
+					int bestActionIdx = -1;
+					for(int idx = 0; idx < unexpandedActions.size(); ++idx){
+						long actionKey = ActionNGram.actionKey(unexpandedActions.get(idx), avatarCell);
+						double actionAvgScore = actionStatistics.getAverageScore(actionKey);
 						
-						while(currentActionNode.getParent() != null && actionSequence.size() < maxNGramSize){
-							actionSequence.add(currentActionNode.getActionLocationFromParent());
-							ActionLocation[] nGram = new ActionLocation[actionSequence.size()];
+						double sumAvgScores = 0.0;
+						int numNGramsConsidered = 0;
+						if(Double.isNaN(actionAvgScore)){
+							// if we've never played this action yet, we'll use the max score (to reward exploration of unknown actions)
+							sumAvgScores += mcts.MAX_SCORE;
+							++numNGramsConsidered;
+						}
+						else{
+							sumAvgScores += actionAvgScore;
+							++numNGramsConsidered;
 							
-							for(int i = 0; i < actionSequence.size(); ++i){
-								nGram[i] = actionSequence.get(actionSequence.size() - 1 - i);
-							}
+							// n-grams ending with this action, built by putting the actions leading to this node in front of it
+							// (every such action takes us one level deeper in the trie)
+							int trieNode = actionNGramStatistics.getChild(ActionNGramTrie.ROOT, actionKey);
+							int nGramSize = 1;
+							MctNode currentActionNode = node;
 							
-							Score actionNGramScore = mcts.getActionNGramScore(new ActionNGram(nGram));
-							if(actionNGramScore.timesVisited < minNGramVisitCount){
-								// don't have enough samples anymore to take into account this n-gram or any bigger ones
-								// that this one is a part of
-								break;
+							while(currentActionNode.getParent() != null && nGramSize < maxNGramSize){
+								trieNode = actionNGramStatistics.getChild(trieNode, currentActionNode.getActionKeyFromParent());
+								++nGramSize;
+								
+								if(actionNGramStatistics.getVisits(trieNode) < minNGramVisitCount){
+									// don't have enough samples anymore to take into account this n-gram or any bigger ones
+									// that this one is a part of
+									break;
+								}
+								
+								sumAvgScores += actionNGramStatistics.getAverageScore(trieNode);
+								++numNGramsConsidered;
+								currentActionNode = currentActionNode.getParent();
 							}
-							
-							sumAvgScores += actionNGramScore.score / actionNGramScore.timesVisited;
-							++numNGramsConsidered;
-							currentActionNode = currentActionNode.getParent();
+						}
+						
+						double avgScore = sumAvgScores / numNGramsConsidered;
+						avgScore += Globals.smallNoise();
+						
+						if(avgScore > bestAvgScore){
+							bestAvgScore = avgScore;
+							bestActionIdx = idx;
 						}
 					}
 					
-					double avgScore = sumAvgScores / numNGramsConsidered;
-					avgScore += Globals.smallNoise();
-					
-					if(avgScore > bestAvgScore){
-						bestAvgScore = avgScore;
-						bestActionIdx = idx;
-					}
+					actionToPlay = unexpandedActions.remove(bestActionIdx);
 				}
-				
-				actionToPlay = unexpandedActions.remove(bestActionIdx);
 			}
 			
-			MctNode newNode = new MctNode(node, actionToPlay);
-			stateObs = newNode.generateNewStateObs(stateObs, actionToPlay);
+			MctNode newNode = mcts.createNode(node, actionToPlay);
+			stateObs = newNode.generateNewStateObs(mcts, stateObs, actionToPlay);
 			state = stateObs.getStateObsNoCopy();
 			
 			node.addChild(newNode);
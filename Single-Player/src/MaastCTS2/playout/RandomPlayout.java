@@ -29,11 +29,11 @@ public class RandomPlayout implements IPlayoutStrategy {
 	}
 
 	@Override
-	public MctNode runPlayout(MctNode node, ElapsedCpuTimer elapsedTimer) {
-		StateObservation state = node.getStateObs();
+	public MctNode runPlayout(MctNode node, MctsController mcts, ElapsedCpuTimer elapsedTimer) {
+		StateObservation state = mcts.getStateObs(node);
 		StateObs stateObs;
-		if(state == node.getSavedStateObs()){
-			stateObs = new StateObs(state, true);	// last node of selection step has a closed-loop-style saved state
+		if(mcts.isStateObsShared(node)){
+			stateObs = new StateObs(state, true);	// last node of selection step has a shared (saved or cached) state
 		}
 		else{	// doing normal open-loop stuff
 			stateObs = new StateObs(state, false);
@@ -49,16 +49,29 @@ public class RandomPlayout implements IPlayoutStrategy {
 				break;
 			}
 			
+			if (mcts.shouldAbortIteration()) {
+				// out of time, so the state we reached so far will be evaluated
+				break;
+			}
+			
 			double previousScore = state.getGameScore();
 			int previousNumEvents = state.getEventsHistory().size();
 			Vector2d previousAvatarPos = state.getAvatarPosition();
 			Vector2d previousAvatarOrientation = state.getAvatarOrientation();
 			
-			ArrayList<ACTIONS> unexpandedActions = node.getUnexpandedActions();
-			ACTIONS randomAction = unexpandedActions.remove(Globals.RNG.nextInt(unexpandedActions.size()));
+			ACTIONS randomAction;
+			synchronized(node){
+				ArrayList<ACTIONS> unexpandedActions = node.getUnexpandedActions();
+				if(unexpandedActions.isEmpty()){
+					// another thread (Tree Parallelization) has expanded the remaining actions in the meantime
+					break;
+				}
+				
+				randomAction = unexpandedActions.remove(Globals.getRNG().nextInt(unexpandedActions.size()));
+			}
 
-			MctNode newNode = new MctNode(node, randomAction);
-			stateObs = newNode.generateNewStateObs(stateObs, randomAction);
+			MctNode newNode = mcts.createNode(node, randomAction);
+			stateObs = newNode.generateNewStateObs(mcts, stateObs, randomAction);
 			state = stateObs.getStateObsNoCopy();
 			
 			node.addChild(newNode);
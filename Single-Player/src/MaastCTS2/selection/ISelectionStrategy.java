@@ -1,12 +1,21 @@
 package MaastCTS2.selection;
 
+import MaastCTS2.controller.MctsController;
 import MaastCTS2.model.MctNode;
 import MaastCTS2.test.IPrintableConfig;
 import core.game.StateObservation;
 import tools.ElapsedCpuTimer;
 
 public interface ISelectionStrategy extends IPrintableConfig {
-	public MctNode select(MctNode rootNode, ElapsedCpuTimer timer);
+	/**
+	 * Selects a node in the tree of the given controller, starting from the given root node
+	 * 
+	 * @param rootNode
+	 * @param mcts The controller that owns the tree being searched
+	 * @param timer
+	 * @return
+	 */
+	public MctNode select(MctNode rootNode, MctsController mcts, ElapsedCpuTimer timer);
 
 	/**
 	 * optional method that is called when the agent is initialized.
@@ -3,7 +3,6 @@ package MaastCTS2.selection.ol;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import MaastCTS2.Agent;
 import MaastCTS2.Globals;
 import MaastCTS2.controller.MctsController;
 import MaastCTS2.model.MctNode;
@@ -32,26 +31,28 @@ public class OlUctSelection implements ISelectionStrategy {
 	}
 
 	@Override
-	public MctNode select(MctNode rootNode, ElapsedCpuTimer timer) {
+	public MctNode select(MctNode rootNode, MctsController mcts, ElapsedCpuTimer timer) {
 		MctNode node = rootNode;
-		StateObservation state = rootNode.getStateObs();
+		StateObservation state = mcts.getStateObs(rootNode);
 		
 		HashMap<Integer, Integer> previousResources = state.getAvatarResources();
 		HashMap<Integer, Integer> nextResources;
 		
 		StateObs stateObs = new StateObs(state, true);
 		
-		// use uct to select child
-		while (!state.isGameOver() && node.isFullyExpanded() && !node.getChildren().isEmpty()) {
+		// use uct to select child (stops early if we run out of time, in which case the play-out will also stop 
+		// immediately and the state of the last selected node will be evaluated)
+		while (!state.isGameOver() && node.isFullyExpanded() && !node.getChildren().isEmpty() && !mcts.shouldAbortIteration()) {
 			double previousScore = state.getGameScore();
 			int previousNumEvents = state.getEventsHistory().size();
 			Vector2d previousAvatarPos = state.getAvatarPosition();
 			Vector2d previousAvatarOrientation = state.getAvatarOrientation();
 			
-			node.preSelect(state);
-			node = getNextNodeByUct(node);
+			node.preSelect(mcts, state);
+			node = getNextNodeByUct(node, mcts);
+			mcts.addVirtualLoss(node);
 			
-			stateObs = node.generateNewStateObs(stateObs, node.getActionFromParent());
+			stateObs = node.generateNewStateObs(mcts, stateObs, node.getActionFromParent());
 			state = stateObs.getStateObsNoCopy();
 			
 			nextResources = state.getAvatarResources();
@@ -64,47 +65,57 @@ public class OlUctSelection implements ISelectionStrategy {
 		return node;
 	}
 
-	private MctNode getNextNodeByUct(MctNode node) {	
-		MctsController controller = (MctsController) Agent.controller;
+	private MctNode getNextNodeByUct(MctNode node, MctsController controller) {	
 		final double MIN_SCORE = controller.MIN_SCORE;
 		final double MAX_SCORE = controller.MAX_SCORE;
 		
 		double n = node.getNumVisits();
-		double log_n = Math.max(0.0, Math.log(n));
-		
-		ArrayList<MctNode> children = node.getChildren();
-		int numChildren = children.size();
+		double n_virtual = n + node.getNumVirtualLosses();
+		double log_n = Math.max(0.0, Math.log(n_virtual));
 		
 		// initialize best node as the first child
 		MctNode bestNode = null;
 		double bestUctVal = Double.NEGATIVE_INFINITY;
 		
-		for(int i = 0; i < numChildren; ++i){
-			MctNode child = children.get(i);
-			double n_i = Math.max(child.getNumVisits(), 0.00001);
+		// other threads may still be adding children to this node (Tree Parallelization)
+		synchronized(node){
+			ArrayList<MctNode> children = node.getChildren();
+			int numChildren = children.size();
 			
-			double avgScore = child.getTotalScore() / n_i;
-			avgScore = Globals.normalise(avgScore, MIN_SCORE, MAX_SCORE);
+			for(int i = 0; i < numChildren; ++i){
+				MctNode child = children.get(i);
+				double n_i = Math.max(child.getNumVisits(), 0.00001);
 			
-			double uctVal;
-			if(Globals.knowledgeBase.isGameDeterministic()/* && !controller.allowsTdBackups()*/){
-				// mixmax for deterministic games
-				uctVal = 0.75 * avgScore + 0.25 * Globals.normalise(child.getMaxScore(), MIN_SCORE, MAX_SCORE) + c * Math.sqrt(log_n / n_i);
-			}
-			else{
-				uctVal = avgScore + c * Math.sqrt(log_n / n_i);
-			}
-			uctVal += Globals.smallNoise();
+				double avgScore = child.getAverageScore();
+				avgScore = Globals.normalise(avgScore, MIN_SCORE, MAX_SCORE);
 			
-			if(controller.allowsNoveltyBasedPruning() && !node.isInescapableLossFound()){
-				if(!child.isNovel() && Globals.normalise(node.getTotalScore() / n, controller.MIN_SCORE, controller.MAX_SCORE) >= 0.5){
-					uctVal -= 100.0;		// this makes sure we basically never select non-novel nodes
+				int numVirtualLosses = child.getNumVirtualLosses();
+				if(numVirtualLosses > 0){
+					// iterations of other threads that are still running through this child count as visits with the minimum score
+					avgScore *= n_i / (n_i + numVirtualLosses);
+					n_i += numVirtualLosses;
+				}
+			
+				double uctVal;
+				if(Globals.knowledgeBase.isGameDeterministic()/* && !controller.allowsTdBackups()*/){
+					// mixmax for deterministic games
+					uctVal = 0.75 * avgScore + 0.25 * Globals.normalise(child.getMaxScore(), MIN_SCORE, MAX_SCORE) + c * Math.sqrt(log_n / n_i);
+				}
+				else{
+					uctVal = avgScore + c * Math.sqrt(log_n / n_i);
+				}
+				uctVal += Globals.smallNoise();
+			
+				if(controller.allowsNoveltyBasedPruning() && !node.isInescapableLossFound()){
+					if(!child.isNovel() && Globals.normalise(node.getTotalScore() / n, controller.MIN_SCORE, controller.MAX_SCORE) >= 0.5){
+						uctVal -= 100.0;		// this makes sure we basically never select non-novel nodes
+					}
 				}
-			}
 
-			if (uctVal > bestUctVal) {
-				bestUctVal = uctVal;
-				bestNode = child;
+				if (uctVal > bestUctVal) {
+					bestUctVal = uctVal;
+					bestNode = child;
+				}
 			}
 		}
 		
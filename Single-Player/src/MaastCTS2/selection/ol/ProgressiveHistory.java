@@ -3,12 +3,11 @@ package MaastCTS2.selection.ol;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import MaastCTS2.Agent;
 import MaastCTS2.Globals;
 import MaastCTS2.KnowledgeBase;
 import MaastCTS2.controller.MctsController;
+import MaastCTS2.model.ActionStatisticsTable;
 import MaastCTS2.model.MctNode;
-import MaastCTS2.model.Score;
 import MaastCTS2.model.StateObs;
 import MaastCTS2.selection.ISelectionStrategy;
 import core.game.StateObservation;
@@ -36,9 +35,9 @@ public class ProgressiveHistory implements ISelectionStrategy {
 	}
 
 	@Override
-	public MctNode select(MctNode rootNode, ElapsedCpuTimer timer) {
+	public MctNode select(MctNode rootNode, MctsController mcts, ElapsedCpuTimer timer) {
 		MctNode node = rootNode;
-		StateObservation state = rootNode.getStateObs();
+		StateObservation state = mcts.getStateObs(rootNode);
 		
 		HashMap<Integer, Integer> previousResources = state.getAvatarResources();
 		HashMap<Integer, Integer> nextResources;
@@ -47,17 +46,19 @@ public class ProgressiveHistory implements ISelectionStrategy {
 		
 		boolean firstStateGenerated = false;
 		
-		// use uct to select child
-		while (!state.isGameOver() && node.isFullyExpanded() && !node.getChildren().isEmpty()) {
+		// use uct to select child (stops early if we run out of time, in which case the play-out will also stop 
+		// immediately and the state of the last selected node will be evaluated)
+		while (!state.isGameOver() && node.isFullyExpanded() && !node.getChildren().isEmpty() && !mcts.shouldAbortIteration()) {
 			double previousScore = state.getGameScore();
 			int previousNumEvents = state.getEventsHistory().size();
 			Vector2d previousAvatarPos = state.getAvatarPosition();
 			Vector2d previousAvatarOrientation = state.getAvatarOrientation();
 			
-			node.preSelect(state);
-			node = getNextNode(node);
+			node.preSelect(mcts, state);
+			node = getNextNode(node, mcts);
+			mcts.addVirtualLoss(node);
 			
-			stateObs = node.generateNewStateObs(stateObs, node.getActionFromParent());
+			stateObs = node.generateNewStateObs(mcts, stateObs, node.getActionFromParent());
 			state = stateObs.getStateObsNoCopy();
 			
 			if(!firstStateGenerated){
@@ -66,13 +67,13 @@ public class ProgressiveHistory implements ISelectionStrategy {
 				int pheromoneStrength = kb.getPheromoneStrength(kb.positionToCell(state.getAvatarPosition()));
 				
 				if(pheromoneStrength > 0){
-					MctsController.ONE_STEP_EVAL -= 0.005 * pheromoneStrength;
+					mcts.ONE_STEP_EVAL -= 0.005 * pheromoneStrength;
 				}
 				
 				if(node.getActionFromParent() == ACTIONS.ACTION_USE){
 					// slight punishment for using the USE action 
 					// (only want to use this action when it serves an observable purpose)
-					MctsController.ONE_STEP_EVAL -= 0.01;
+					mcts.ONE_STEP_EVAL -= 0.01;
 				}
 			}
 			
@@ -86,77 +87,88 @@ public class ProgressiveHistory implements ISelectionStrategy {
 		return node;
 	}
 
-	private MctNode getNextNode(MctNode node) {	
-		MctsController controller = (MctsController) Agent.controller;
+	private MctNode getNextNode(MctNode node, MctsController controller) {	
 		final double MIN_SCORE = controller.MIN_SCORE;
 		final double MAX_SCORE = controller.MAX_SCORE;
+		final ActionStatisticsTable actionStatistics = controller.getActionStatistics();
 		
 		double n = node.getNumVisits();
+		double n_virtual = n + node.getNumVirtualLosses();
 		
 		// using Math.max() here to avoid getting a negative value when 0.0 < n < 1.0
 		// (which is possible due to tree decay)
-		double log_n = Math.max(0.0, Math.log(n));
-		
-		ArrayList<MctNode> children = node.getChildren();
-		int numChildren = children.size();
+		double log_n = Math.max(0.0, Math.log(n_virtual));
 		
 		MctNode bestNode = null;
 		double bestVal = Double.NEGATIVE_INFINITY;
 		
-		//System.out.println("numChildren = " + numChildren);
+		// other threads may still be adding children to this node (Tree Parallelization)
+		synchronized(node){
+			ArrayList<MctNode> children = node.getChildren();
+			int numChildren = children.size();
+			
+			//System.out.println("numChildren = " + numChildren);
 
-		for(int i = 0; i < numChildren; ++i){
-			MctNode child = children.get(i);
-			double n_i = Math.max(child.getNumVisits(), 0.00001);
+			for(int i = 0; i < numChildren; ++i){
+				MctNode child = children.get(i);
+				double n_i = Math.max(child.getNumVisits(), 0.00001);
 			
-			double avgScore = child.getTotalScore() / n_i;
-			avgScore = Globals.normalise(avgScore, MIN_SCORE, MAX_SCORE);
+				double avgScore = child.getAverageScore();
+				avgScore = Globals.normalise(avgScore, MIN_SCORE, MAX_SCORE);
 			
-			// play less scared as time passes
-			//if(avgScore < 0.0){
-			//	avgScore *= (((double)CompetitionParameters.MAX_TIMESTEPS - controller.rootTick) / CompetitionParameters.MAX_TIMESTEPS);
-			//}
+				int numVirtualLosses = child.getNumVirtualLosses();
+				if(numVirtualLosses > 0){
+					// iterations of other threads that are still running through this child count as visits with the minimum score
+					avgScore *= n_i / (n_i + numVirtualLosses);
+					n_i += numVirtualLosses;
+				}
 			
-			double uctVal;
-			if(Globals.knowledgeBase.isGameDeterministic()/* && !controller.allowsTdBackups()*/){
-				// mixmax for deterministic games
-				double maxScore = Globals.normalise(child.getMaxScore(), MIN_SCORE, MAX_SCORE);
-				uctVal = 0.75 * avgScore + 0.25 * maxScore + c * Math.sqrt(log_n / n_i);
-			}
-			else{
-				uctVal = avgScore + c * Math.sqrt(log_n / n_i);
-			}
-			Score actionScore = controller.getActionScore(child.getActionLocationFromParent());
-			double historyHeuristic;
+				// play less scared as time passes
+				//if(avgScore < 0.0){
+				//	avgScore *= (((double)CompetitionParameters.MAX_TIMESTEPS - controller.rootTick) / CompetitionParameters.MAX_TIMESTEPS);
+				//}
 			
-			if(actionScore.timesVisited == 0.0){
-				historyHeuristic = 1.0;
-			}
-			else{
-				historyHeuristic = Globals.normalise(actionScore.getAverageScore(), controller.MIN_ACTION_SCORE, controller.MAX_ACTION_SCORE);
-			}
+				double uctVal;
+				if(Globals.knowledgeBase.isGameDeterministic()/* && !controller.allowsTdBackups()*/){
+					// mixmax for deterministic games
+					double maxScore = Globals.normalise(child.getMaxScore(), MIN_SCORE, MAX_SCORE);
+					uctVal = 0.75 * avgScore + 0.25 * maxScore + c * Math.sqrt(log_n / n_i);
+				}
+				else{
+					uctVal = avgScore + c * Math.sqrt(log_n / n_i);
+				}
+				double actionAvgScore = actionStatistics.getAverageScore(child.getActionKeyFromParent());
+				double historyHeuristic;
+			
+				if(Double.isNaN(actionAvgScore)){
+					historyHeuristic = 1.0;
+				}
+				else{
+					historyHeuristic = Globals.normalise(actionAvgScore, controller.MIN_ACTION_SCORE, controller.MAX_ACTION_SCORE);
+				}
 			
-			//System.out.println("historyHeuristic = " + historyHeuristic + " (normalized between " + controller.MIN_ACTION_SCORE + " and " + controller.MAX_ACTION_SCORE + ")");
+				//System.out.println("historyHeuristic = " + historyHeuristic + " (normalized between " + controller.MIN_ACTION_SCORE + " and " + controller.MAX_ACTION_SCORE + ")");
 			
-			// the ''avgScore * n_i'' transforms the normalized average back into a normalized sum
-			//System.out.println("progressiveBias = w / (n_i - (avgScore * n_i) + 1.0 = " + w + " / (" + n_i + " - (" + avgScore + " * " + n_i + ") + 1.0)");
-			double progressiveBias = w / (n_i - (avgScore * n_i) + 1.0);
+				// the ''avgScore * n_i'' transforms the normalized average back into a normalized sum
+				//System.out.println("progressiveBias = w / (n_i - (avgScore * n_i) + 1.0 = " + w + " / (" + n_i + " - (" + avgScore + " * " + n_i + ") + 1.0)");
+				double progressiveBias = w / (n_i - (avgScore * n_i) + 1.0);
 			
-			double value = (uctVal + historyHeuristic * progressiveBias) + Globals.smallNoise();
+				double value = (uctVal + historyHeuristic * progressiveBias) + Globals.smallNoise();
 			
-			if(controller.allowsNoveltyBasedPruning() && !node.isInescapableLossFound()){
-				if(!child.isNovel() && Globals.normalise(node.getTotalScore() / n, controller.MIN_SCORE, controller.MAX_SCORE) >= 0.5){
-					value -= 100.0;		// this makes sure we basically never select non-novel nodes
+				if(controller.allowsNoveltyBasedPruning() && !node.isInescapableLossFound()){
+					if(!child.isNovel() && Globals.normalise(node.getTotalScore() / n, controller.MIN_SCORE, controller.MAX_SCORE) >= 0.5){
+						value -= 100.0;		// this makes sure we basically never select non-novel nodes
+					}
 				}
-			}
 			
-			if(node.canBeImmediateLoss()){
-				value -= 100.0;
-			}
+				if(node.canBeImmediateLoss()){
+					value -= 100.0;
+				}
 
-			if (value > bestVal) {
-				bestVal = value;
-				bestNode = child;
+				if (value > bestVal) {
+					bestVal = value;
+					bestNode = child;
+				}
 			}
 		}
 		
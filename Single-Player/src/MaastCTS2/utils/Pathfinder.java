@@ -117,7 +117,7 @@ public class Pathfinder {
 	 * <br> Should only be false in cases where we didn't detect any obstacles at all except for
 	 * the outside boundaries of the map
 	 */
-	private boolean pathfinderNecessary;
+	private volatile boolean pathfinderNecessary;
 	
 	/** Useful for drawing when debugging */
 	//static ArrayList<Color> randomColors = new ArrayList<Color>();
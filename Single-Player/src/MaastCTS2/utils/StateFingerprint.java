@@ -0,0 +1,153 @@
+package MaastCTS2.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import MaastCTS2.libs.it.unimi.dsi.fastutil.HashCommon;
+import core.game.Observation;
+import core.game.StateObservation;
+import tools.Vector2d;
+
+/**
+ * Computes 64-bit fingerprints of game states, that can be used to (almost certainly) identify identical states.
+ *
+ * <p> Fingerprints are computed Zobrist-style: every combination of an observation type and a cell of the observation
+ * grid has a fixed pseudo-random 64-bit key, and the fingerprint combines the keys of all observations in the state. Keys
+ * are summed rather than XOR-ed, such that two observations of the same type in the same cell do not cancel each other
+ * out. Observations that are not exactly aligned with their cell (moving sprites), the avatar's state (position,
+ * orientation, type, health points and resources), the game score and the winner of finished games are mixed in
+ * through MurmurHash3.
+ *
+ * <p> The game tick is deliberately ignored, such that states reached through different paths (of different lengths)
+ * can be recognized as transpositions. Users for which the game tick matters (for instance because events in the game
+ * depend on it, see TransitionCache) should combine the fingerprint with the game tick themselves.
+ *
+ * <p> Computing a fingerprint requires a pass over the entire observation grid, so it should be computed at most once
+ * for every state (MctNode caches the fingerprint of its state in deterministic games). The keys only depend on the
+ * type and the cell (not on the order in which we encounter them), so fingerprints are identical across runs, and
+ * the class is thread-safe.
+ *
+ * @author Dennis Soemers
+ */
+public class StateFingerprint {
+
+	/** Seed from which the keys are generated */
+	private static final long KEYS_SEED = 0x5DEECE66DL;
+
+	/**
+	 * Keys for observations, indexed by [observation type][cell]. Grown lazily (copy-on-write) when we encounter
+	 * new types or bigger grids
+	 */
+	private static volatile long[][] observationKeys = new long[0][];
+
+	private StateFingerprint(){
+		// should not be instantiated
+	}
+
+	/**
+	 * Computes the fingerprint of the given state
+	 *
+	 * @param stateObs
+	 * @return
+	 */
+	public static long compute(StateObservation stateObs){
+		ArrayList<Observation>[][] observationGrid = stateObs.getObservationGrid();
+		final int width = observationGrid.length;
+		final int height = (width > 0) ? observationGrid[0].length : 0;
+		final int numCells = width * height;
+		final int blockSize = stateObs.getBlockSize();
+
+		long[][] keys = observationKeys;
+		long fingerprint = 0L;
+
+		for(int x = 0; x < width; ++x){
+			for(int y = 0; y < height; ++y){
+				ArrayList<Observation> observations = observationGrid[x][y];
+				int numObservations = observations.size();
+
+				for(int i = 0; i < numObservations; ++i){
+					Observation observation = observations.get(i);
+					final int itype = observation.itype;
+
+					if(itype >= keys.length || keys[itype].length < numCells){
+						keys = growKeys(itype, numCells);
+					}
+
+					long key = keys[itype][x * height + y];
+
+					Vector2d position = observation.position;
+					if(position.x != x * blockSize || position.y != y * blockSize){
+						// not exactly in the cell, so the exact position also matters
+						key = HashCommon.murmurHash3(key ^ positionKey(position));
+					}
+
+					fingerprint += key;
+				}
+			}
+		}
+
+		fingerprint = HashCommon.murmurHash3(fingerprint ^ positionKey(stateObs.getAvatarPosition()));
+		fingerprint = HashCommon.murmurHash3(fingerprint ^ positionKey(stateObs.getAvatarOrientation()));
+		fingerprint = HashCommon.murmurHash3(fingerprint ^ (((long) stateObs.getAvatarType() << 32) |
+																(stateObs.getAvatarHealthPoints() & 0xFFFFFFFFL)));
+
+		long resourcesKey = 0L;
+		for(Map.Entry<Integer, Integer> resource : stateObs.getAvatarResources().entrySet()){
+			resourcesKey += HashCommon.murmurHash3(((long) resource.getKey() << 32) | (resource.getValue() & 0xFFFFFFFFL));
+		}
+		fingerprint = HashCommon.murmurHash3(fingerprint ^ resourcesKey);
+
+		fingerprint = HashCommon.murmurHash3(fingerprint ^ Double.doubleToLongBits(stateObs.getGameScore()));
+
+		if(stateObs.isGameOver()){
+			fingerprint = HashCommon.murmurHash3(fingerprint ^ (stateObs.getGameWinner().ordinal() + 1L));
+		}
+
+		return fingerprint;
+	}
+
+	/**
+	 * Makes sure that we have keys for the given observation type in the given number of cells
+	 *
+	 * @param itype
+	 * @param numCells
+	 * @return The (possibly new) array of keys
+	 */
+	private static synchronized long[][] growKeys(int itype, int numCells){
+		long[][] keys = observationKeys;
+
+		if(itype < keys.length && keys[itype].length >= numCells){
+			// another thread already did it
+			return keys;
+		}
+
+		long[][] newKeys = Arrays.copyOf(keys, Math.max(keys.length, itype + 1));
+		for(int type = 0; type < newKeys.length; ++type){
+			long[] typeKeys = (newKeys[type] == null) ? new long[0] : newKeys[type];
+
+			if(type == itype && typeKeys.length < numCells){
+				int oldLength = typeKeys.length;
+				typeKeys = Arrays.copyOf(typeKeys, numCells);
+
+				for(int cell = oldLength; cell < numCells; ++cell){
+					typeKeys[cell] = HashCommon.murmurHash3((((long) itype << 32) | cell) + KEYS_SEED);
+				}
+			}
+
+			newKeys[type] = typeKeys;
+		}
+
+		observationKeys = newKeys;
+		return newKeys;
+	}
+
+	/**
+	 * @param position
+	 * @return A 64-bit integer representation of the given (exact) position
+	 */
+	private static long positionKey(Vector2d position){
+		return Double.doubleToLongBits(position.x) * 31L + Double.doubleToLongBits(position.y);
+	}
+
+}
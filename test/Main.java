@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Date;
 
 import MaastCTS2.controller.MctsController;
+import MaastCTS2.controller.TimeBufferCalibrator;
 import core.competition.CompetitionParameters;
 import test.config.TestConfig;
 import test.lists.ConfigList;
@@ -70,6 +71,13 @@ public class Main {
 			numLevelRepeats = 15;
 		}
 
+		// calibrates the time buffer for this machine (across runs of this program), starting from the default if not yet calibrated
+		boolean calibrateTimeBuffer = true;
+		if(calibrateTimeBuffer){
+			MctsController.setTimeBufferCalibrator(new TimeBufferCalibrator(MctsController.TIME_BUFFER_MILLISEC, 
+														TimeBufferCalibrator.getDefaultPersistenceFile()));
+		}
+
 		ArrayList<TestConfig> tests = configList.getTests(configs);
 		if (args != null && tests.size() != configs.length) {
 			System.err.println("not all configs for \"" + Arrays.toString(configs)
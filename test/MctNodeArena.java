@@ -0,0 +1,410 @@
+package test;
+
+import java.util.Arrays;
+
+import MaastCTS2.Globals;
+import ontology.Types.ACTIONS;
+
+/**
+ * Struct-of-arrays version of the MCTS tree, only used by TreeStoreBenchmark to measure what the agent could gain
+ * by storing its tree in primitive arrays instead of MctNode objects. Nodes are ints indexing into parallel 
+ * primitive arrays. Children of a node form a linked list through the first child and next sibling of every node, 
+ * so creating a node never allocates anything as long as the arrays are large enough. Re-rooting the tree compacts
+ * the subtree that is kept to the front of the arrays, and the space of all discarded nodes is immediately available
+ * for new nodes again, without creating any garbage.
+ *
+ * <p> Only stores the statistics and the structure of the tree, which is all the synthetic workload of the benchmark
+ * needs. The agent itself (MctsController and its strategies) does not use this class. Not thread-safe.
+ *
+ * @author Dennis Soemers
+ */
+public class MctNodeArena {
+
+	/** Used as node index to indicate the absence of a node */
+	public static final int NONE = -1;
+
+	/** Flag set for nodes that are novel (see MctNode.isNovel()) */
+	public static final int FLAG_NOVEL = 1;
+	/** Flag set for nodes through which Loss Avoidance backpropagated a loss (see MctNode.isInescapableLossFound()) */
+	public static final int FLAG_INESCAPABLE_LOSS = 1 << 1;
+	/** Flag set for nodes in which an immediate loss was observed (see MctNode.canBeImmediateLoss()) */
+	public static final int FLAG_IMMEDIATE_LOSS = 1 << 2;
+
+	private static final ACTIONS[] ALL_ACTIONS = ACTIONS.values();
+
+	private double[] numVisits;
+	private double[] totalScores;
+	private double[] maxScores;
+	private int[] parents;
+	private int[] firstChildren;
+	private int[] nextSiblings;
+	private int[] numChildren;
+	private int[] depths;
+	private byte[] actions;
+	private byte[] flags;
+
+	/** Scratch space for re-rooting: new index -> old index */
+	private int[] oldIndices;
+
+	/** Spare arrays into which re-rooting copies the subtree that is kept, allocated when first needed */
+	private double[] spareNumVisits;
+	private double[] spareTotalScores;
+	private double[] spareMaxScores;
+	private int[] spareParents;
+	private int[] spareFirstChildren;
+	private int[] spareNextSiblings;
+	private int[] spareNumChildren;
+	private int[] spareDepths;
+	private byte[] spareActions;
+	private byte[] spareFlags;
+
+	/** The number of nodes currently in use */
+	private int size;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialCapacity The number of nodes that fit in the arena before its arrays need to grow
+	 */
+	public MctNodeArena(int initialCapacity){
+		allocateArrays(Math.max(16, initialCapacity));
+		size = 0;
+	}
+
+	/**
+	 * Removes all nodes from the arena (without shrinking the arrays), and creates a new root
+	 *
+	 * @return The root node (always 0)
+	 */
+	public int reset(){
+		size = 0;
+		return createNode(NONE, ACTIONS.ACTION_NIL);
+	}
+
+	/**
+	 * Creates a new child for the given node
+	 *
+	 * @param parent
+	 * @param action The action that, when applied to the parent, results in the new child
+	 * @return The new child node
+	 */
+	public int addChild(int parent, ACTIONS action){
+		return createNode(parent, action);
+	}
+
+	/**
+	 * Backpropagates the given score from a Monte-Carlo simulation through the given node and all its ancestors
+	 *
+	 * @param node
+	 * @param score
+	 */
+	public void backpropagate(int node, double score){
+		while(node != NONE){
+			totalScores[node] += score;
+			maxScores[node] = Math.max(maxScores[node], score);
+			numVisits[node] += 1.0;
+			node = parents[node];
+		}
+	}
+
+	/**
+	 * Finds the child of the given node with the given action
+	 *
+	 * @param node
+	 * @param action
+	 * @return The child, or NONE if it has not been expanded
+	 */
+	public int getExpandedChildForAction(int node, ACTIONS action){
+		final byte ordinal = (byte) action.ordinal();
+
+		for(int child = firstChildren[node]; child != NONE; child = nextSiblings[child]){
+			if(actions[child] == ordinal){
+				return child;
+			}
+		}
+
+		return NONE;
+	}
+
+	/**
+	 * Selects the child of the given node that maximizes the UCB1 value, with average scores normalized to [0, 1]
+	 * (unvisited children are selected first)
+	 *
+	 * @param node
+	 * @param c Exploration constant
+	 * @param minScore The lowest score observed so far
+	 * @param maxScore The highest score observed so far
+	 * @return The selected child, or NONE if the node has no children
+	 */
+	public int selectUctChild(int node, double c, double minScore, double maxScore){
+		final double log_n = Math.max(0.0, Math.log(numVisits[node]));
+		double bestValue = Double.NEGATIVE_INFINITY;
+		int bestChild = NONE;
+
+		for(int child = firstChildren[node]; child != NONE; child = nextSiblings[child]){
+			final double n_i = numVisits[child];
+
+			if(n_i == 0.0){
+				return child;
+			}
+
+			final double avgScore = Globals.normalise(totalScores[child] / n_i, minScore, maxScore);
+			final double uctValue = avgScore + c * Math.sqrt(log_n / n_i) + Globals.smallNoise();
+
+			if(uctValue > bestValue){
+				bestValue = uctValue;
+				bestChild = child;
+			}
+		}
+
+		return bestChild;
+	}
+
+	/**
+	 * Makes the given node the new root of the tree, discarding all nodes outside of its subtree. The subtree
+	 * is compacted to the front of the arrays (in breadth-first order), and its statistics are decayed by
+	 * the given factor. The subtree is copied into a second set of arrays (allocated once, and re-used
+	 * afterwards), which then become the current arrays.
+	 *
+	 * @param newRoot
+	 * @param decayFactor
+	 * @return The new root node (always 0)
+	 */
+	public int reroot(int newRoot, double decayFactor){
+		// breadth-first traversal of the subtree, where the position in the traversal is the new index
+		oldIndices[0] = newRoot;
+		int newSize = 1;
+
+		for(int newIdx = 0; newIdx < newSize; ++newIdx){
+			for(int child = firstChildren[oldIndices[newIdx]]; child != NONE; child = nextSiblings[child]){
+				oldIndices[newSize++] = child;
+			}
+		}
+
+		// copy every node to its new index in the spare arrays, and then swap the spare arrays with the current ones
+		if(spareNumVisits == null || spareNumVisits.length != numVisits.length){
+			allocateSpareArrays(numVisits.length);
+		}
+
+		final int depthOffset = depths[newRoot];
+		int nextChildIdx = 1;
+		for(int newIdx = 0; newIdx < newSize; ++newIdx){
+			final int oldIdx = oldIndices[newIdx];
+			final int numChildrenOfNode = numChildren[oldIdx];
+
+			spareNumVisits[newIdx] = numVisits[oldIdx] * decayFactor;
+			spareTotalScores[newIdx] = totalScores[oldIdx] * decayFactor;
+			spareMaxScores[newIdx] = maxScores[oldIdx];
+			spareNumChildren[newIdx] = numChildrenOfNode;
+			spareDepths[newIdx] = depths[oldIdx] - depthOffset;
+			spareActions[newIdx] = actions[oldIdx];
+			spareFlags[newIdx] = flags[oldIdx];
+
+			// the children of every node are contiguous in the traversal
+			if(numChildrenOfNode == 0){
+				spareFirstChildren[newIdx] = NONE;
+			}
+			else{
+				spareFirstChildren[newIdx] = nextChildIdx;
+
+				for(int i = 0; i < numChildrenOfNode; ++i){
+					final int child = nextChildIdx + i;
+					spareParents[child] = newIdx;
+					spareNextSiblings[child] = (i == numChildrenOfNode - 1) ? NONE : child + 1;
+				}
+
+				nextChildIdx += numChildrenOfNode;
+			}
+		}
+
+		spareParents[0] = NONE;
+		spareNextSiblings[0] = NONE;
+		swapArrays();
+
+		size = newSize;
+		return 0;
+	}
+
+	public ACTIONS getActionFromParent(int node){
+		return ALL_ACTIONS[actions[node]];
+	}
+
+	public int getDepth(int node){
+		return depths[node];
+	}
+
+	public int getFirstChild(int node){
+		return firstChildren[node];
+	}
+
+	public double getMaxScore(int node){
+		return maxScores[node];
+	}
+
+	public int getNextSibling(int node){
+		return nextSiblings[node];
+	}
+
+	public int getNumChildren(int node){
+		return numChildren[node];
+	}
+
+	public double getNumVisits(int node){
+		return numVisits[node];
+	}
+
+	public int getParent(int node){
+		return parents[node];
+	}
+
+	public double getTotalScore(int node){
+		return totalScores[node];
+	}
+
+	public boolean hasFlag(int node, int flag){
+		return (flags[node] & flag) != 0;
+	}
+
+	public void setFlag(int node, int flag){
+		flags[node] |= flag;
+	}
+
+	public void clearFlag(int node, int flag){
+		flags[node] &= ~flag;
+	}
+
+	/**
+	 * @return The number of nodes currently in the tree
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return The number of nodes that fit in the arena before its arrays need to grow
+	 */
+	public int getCapacity(){
+		return numVisits.length;
+	}
+
+	private int createNode(int parent, ACTIONS action){
+		if(size == numVisits.length){
+			growArrays();
+		}
+
+		final int node = size++;
+
+		numVisits[node] = 0.0;
+		totalScores[node] = 0.0;
+		maxScores[node] = 0.0;
+		parents[node] = parent;
+		firstChildren[node] = NONE;
+		numChildren[node] = 0;
+		actions[node] = (byte) action.ordinal();
+		flags[node] = FLAG_NOVEL;
+
+		if(parent == NONE){
+			depths[node] = 0;
+			nextSiblings[node] = NONE;
+		}
+		else{
+			depths[node] = depths[parent] + 1;
+
+			// children are prepended to the linked list of children of their parent
+			nextSiblings[node] = firstChildren[parent];
+			firstChildren[parent] = node;
+			++numChildren[parent];
+		}
+
+		return node;
+	}
+
+	private void allocateArrays(int capacity){
+		numVisits = new double[capacity];
+		totalScores = new double[capacity];
+		maxScores = new double[capacity];
+		parents = new int[capacity];
+		firstChildren = new int[capacity];
+		nextSiblings = new int[capacity];
+		numChildren = new int[capacity];
+		depths = new int[capacity];
+		actions = new byte[capacity];
+		flags = new byte[capacity];
+		oldIndices = new int[capacity];
+	}
+
+	private void growArrays(){
+		final int capacity = numVisits.length << 1;
+
+		numVisits = Arrays.copyOf(numVisits, capacity);
+		totalScores = Arrays.copyOf(totalScores, capacity);
+		maxScores = Arrays.copyOf(maxScores, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+		firstChildren = Arrays.copyOf(firstChildren, capacity);
+		nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+		numChildren = Arrays.copyOf(numChildren, capacity);
+		depths = Arrays.copyOf(depths, capacity);
+		actions = Arrays.copyOf(actions, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		oldIndices = new int[capacity];
+		
+		// spare arrays will be re-allocated with the new capacity when needed
+		spareNumVisits = null;
+	}
+
+	private void allocateSpareArrays(int capacity){
+		spareNumVisits = new double[capacity];
+		spareTotalScores = new double[capacity];
+		spareMaxScores = new double[capacity];
+		spareParents = new int[capacity];
+		spareFirstChildren = new int[capacity];
+		spareNextSiblings = new int[capacity];
+		spareNumChildren = new int[capacity];
+		spareDepths = new int[capacity];
+		spareActions = new byte[capacity];
+		spareFlags = new byte[capacity];
+	}
+
+	private void swapArrays(){
+		double[] tempDoubles = numVisits;
+		numVisits = spareNumVisits;
+		spareNumVisits = tempDoubles;
+
+		tempDoubles = totalScores;
+		totalScores = spareTotalScores;
+		spareTotalScores = tempDoubles;
+
+		tempDoubles = maxScores;
+		maxScores = spareMaxScores;
+		spareMaxScores = tempDoubles;
+
+		int[] tempInts = parents;
+		parents = spareParents;
+		spareParents = tempInts;
+
+		tempInts = firstChildren;
+		firstChildren = spareFirstChildren;
+		spareFirstChildren = tempInts;
+
+		tempInts = nextSiblings;
+		nextSiblings = spareNextSiblings;
+		spareNextSiblings = tempInts;
+
+		tempInts = numChildren;
+		numChildren = spareNumChildren;
+		spareNumChildren = tempInts;
+
+		tempInts = depths;
+		depths = spareDepths;
+		spareDepths = tempInts;
+
+		byte[] tempBytes = actions;
+		actions = spareActions;
+		spareActions = tempBytes;
+
+		tempBytes = flags;
+		flags = spareFlags;
+		spareFlags = tempBytes;
+	}
+
+}
@@ -0,0 +1,216 @@
+package test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import MaastCTS2.Globals;
+import MaastCTS2.model.MctNode;
+import ontology.Types.ACTIONS;
+
+/**
+ * Compares the tree of MctNode objects used by the agent to the struct-of-arrays MctNodeArena (which only exists
+ * for this benchmark), by running the same synthetic MCTS workload (UCT selection, expansion of one node per 
+ * iteration, random play-out scores, backpropagation, and tree reuse with decay after every tick) on both of them. Prints the number of nodes created per second,
+ * the time spent in garbage collection, and the heap retained by the tree at the end.
+ *
+ * <p> Usage: TreeStoreBenchmark [numTicks] [iterationsPerTick] [numRepeats]
+ *
+ * @author Dennis Soemers
+ */
+public class TreeStoreBenchmark {
+
+	private static final ACTIONS[] ACTIONS_TO_EXPAND = {
+			ACTIONS.ACTION_UP, ACTIONS.ACTION_DOWN, ACTIONS.ACTION_LEFT, ACTIONS.ACTION_RIGHT, ACTIONS.ACTION_USE
+	};
+
+	private static final double C = Math.sqrt(2.0);
+	private static final double TREE_DECAY_FACTOR = 0.6;
+
+	/** Keeps the last tree of a run reachable, so that we can measure how much heap it retains */
+	private static Object retainedTree;
+
+	public static void main(String[] args) {
+		int numTicks = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int iterationsPerTick = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int numRepeats = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		// first repeat of every store is a warm-up for the JIT compiler
+		for(int repeat = 0; repeat <= numRepeats; ++repeat){
+			String prefix = (repeat == 0) ? "[warm-up] " : "";
+			System.out.println(prefix + runBenchmark(false, numTicks, iterationsPerTick));
+			System.out.println(prefix + runBenchmark(true, numTicks, iterationsPerTick));
+		}
+	}
+
+	private static String runBenchmark(boolean arena, int numTicks, int iterationsPerTick){
+		retainedTree = null;
+		long baselineBytes = getUsedHeapAfterGc();
+
+		Globals.seedRNG(1234L);
+		Random scores = new Random(5678L);
+
+		long gcMillisBefore = getTotalGcMillis();
+		long gcCountBefore = getTotalGcCount();
+		long start = System.nanoTime();
+
+		long numNodesCreated = arena ?
+				runArenaTicks(numTicks, iterationsPerTick, scores) : runObjectTicks(numTicks, iterationsPerTick, scores);
+
+		long elapsedNanos = System.nanoTime() - start;
+		long gcMillis = getTotalGcMillis() - gcMillisBefore;
+		long gcCount = getTotalGcCount() - gcCountBefore;
+
+		long retainedBytes = getUsedHeapAfterGc() - baselineBytes;
+
+		return (arena ? "MctNodeArena" : "MctNode     ")
+				+ ": nodes/sec = " + (long) (numNodesCreated / (elapsedNanos / 1.0e9))
+				+ ", nodes created = " + numNodesCreated
+				+ ", GC count = " + gcCount
+				+ ", GC ms = " + gcMillis
+				+ ", heap retained by tree (KB) = " + (retainedBytes / 1024L);
+	}
+
+	private static long runObjectTicks(int numTicks, int iterationsPerTick, Random scores){
+		MctNode root = new MctNode();
+		long numNodesCreated = 1L;
+
+		for(int tick = 0; tick < numTicks; ++tick){
+			for(int iteration = 0; iteration < iterationsPerTick; ++iteration){
+				// selection
+				MctNode node = root;
+				while(node.getChildren().size() == ACTIONS_TO_EXPAND.length){
+					node = selectUctChild(node);
+				}
+
+				// expansion
+				MctNode newNode = new MctNode(node, ACTIONS_TO_EXPAND[node.getChildren().size()]);
+				node.addChild(newNode);
+				++numNodesCreated;
+
+				// backpropagation of a random play-out score
+				double score = scores.nextDouble();
+				while(newNode != null){
+					newNode.backpropagate(score);
+					newNode = newNode.getParent();
+				}
+			}
+
+			// tree reuse
+			MctNode bestChild = null;
+			for(MctNode child : root.getChildren()){
+				if(bestChild == null || child.getNumVisits() > bestChild.getNumVisits()){
+					bestChild = child;
+				}
+			}
+
+			root = bestChild;
+			root.resetParent();
+			root.startNewEpochAsRoot(true, TREE_DECAY_FACTOR);
+		}
+
+		retainedTree = root;
+		return numNodesCreated;
+	}
+
+	private static long runArenaTicks(int numTicks, int iterationsPerTick, Random scores){
+		MctNodeArena arena = new MctNodeArena(1024);
+		int root = arena.reset();
+		long numNodesCreated = 1L;
+
+		for(int tick = 0; tick < numTicks; ++tick){
+			for(int iteration = 0; iteration < iterationsPerTick; ++iteration){
+				// selection
+				int node = root;
+				while(arena.getNumChildren(node) == ACTIONS_TO_EXPAND.length){
+					node = arena.selectUctChild(node, C, 0.0, 1.0);
+				}
+
+				// expansion
+				int newNode = arena.addChild(node, ACTIONS_TO_EXPAND[arena.getNumChildren(node)]);
+				++numNodesCreated;
+
+				// backpropagation of a random play-out score
+				arena.backpropagate(newNode, scores.nextDouble());
+			}
+
+			// tree reuse
+			int bestChild = MctNodeArena.NONE;
+			for(int child = arena.getFirstChild(root); child != MctNodeArena.NONE; child = arena.getNextSibling(child)){
+				if(bestChild == MctNodeArena.NONE || arena.getNumVisits(child) > arena.getNumVisits(bestChild)){
+					bestChild = child;
+				}
+			}
+
+			root = arena.reroot(bestChild, TREE_DECAY_FACTOR);
+		}
+
+		retainedTree = arena;
+		return numNodesCreated;
+	}
+
+	/**
+	 * Same UCB1 selection as MctNodeArena.selectUctChild()
+	 *
+	 * @param node
+	 * @return
+	 */
+	private static MctNode selectUctChild(MctNode node){
+		final double log_n = Math.max(0.0, Math.log(node.getNumVisits()));
+		double bestValue = Double.NEGATIVE_INFINITY;
+		MctNode bestChild = null;
+
+		for(MctNode child : node.getChildren()){
+			final double n_i = child.getNumVisits();
+
+			if(n_i == 0.0){
+				return child;
+			}
+
+			final double avgScore = Globals.normalise(child.getTotalScore() / n_i, 0.0, 1.0);
+			final double uctValue = avgScore + C * Math.sqrt(log_n / n_i) + Globals.smallNoise();
+
+			if(uctValue > bestValue){
+				bestValue = uctValue;
+				bestChild = child;
+			}
+		}
+
+		return bestChild;
+	}
+
+	private static long getUsedHeapAfterGc(){
+		Runtime runtime = Runtime.getRuntime();
+		
+		// a single call to System.gc() does not always collect everything
+		for(int i = 0; i < 3; ++i){
+			System.gc();
+			
+			try {
+				Thread.sleep(50L);
+			} 
+			catch (InterruptedException e) {
+				// doesn't matter
+			}
+		}
+		
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long getTotalGcCount(){
+		long count = 0L;
+		for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()){
+			count += Math.max(0L, gcBean.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getTotalGcMillis(){
+		long millis = 0L;
+		for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()){
+			millis += Math.max(0L, gcBean.getCollectionTime());
+		}
+		return millis;
+	}
+
+}
@@ -66,11 +66,13 @@ public class DennisMctsTestConfig extends TestConfig {
 			ElapsedCpuTimer ect = new ElapsedCpuTimer(CompetitionParameters.TIMER_TYPE);
 			ect.setMaxTimeMillis(CompetitionParameters.INITIALIZATION_TIME);
 
-			player = new Agent(stateObs, ect.copy(), selectionStrategy, playoutStrategy, 
+			MctsController controller = new MctsController(selectionStrategy, playoutStrategy, 
 								moveSelectionStrategy, playoutEval, initBreadthFirst,
 								noveltyBasedPruning, exploreLosses, knowledgeBasedEval,
-								detectDeterministicGames, treeReuse, treeReuseGamma,
-								maxNumSafetyChecks, alwaysKB, noTreeReuseBFTI);
+								treeReuse, treeReuseGamma, maxNumSafetyChecks, alwaysKB, noTreeReuseBFTI);
+			configureController(controller);
+			
+			player = new Agent(stateObs, ect.copy(), controller);
 
 			// Check if we returned on time, and act in consequence.
 			long timeTaken = ect.elapsedMillis();
@@ -102,6 +104,16 @@ public class DennisMctsTestConfig extends TestConfig {
 		return player;
 	}
 
+	/**
+	 * Called after constructing a controller, before the agent gets to initialize it. Can be
+	 * overridden to configure settings that are not passed into the constructor
+	 * 
+	 * @param controller
+	 */
+	protected void configureController(MctsController controller){
+		// default settings
+	}
+
 	@Override
 	public String getName() {
 		return this.name;
@@ -109,6 +121,81 @@ public class DennisMctsTestConfig extends TestConfig {
 
 	@Override
 	public String getAdditionalLogData(char c) {
+		String pipelineLogData = "";
+		if(MctsController.PIPELINE_STATISTICS.getNumIterations() > 0L){
+			pipelineLogData = c + MctsController.PIPELINE_STATISTICS.getLogData(c);
+		}
+		
+		String ponderingLogData = "";
+		if(MctsController.TOTAL_PONDERING_ITERATIONS > 0){
+			ponderingLogData = c + "Total_Pondering_Iterations=" + MctsController.TOTAL_PONDERING_ITERATIONS;
+		}
+		
+		String settledLogData = "";
+		if(MctsController.TOTAL_SETTLED_SEARCHES > 0){
+			settledLogData = c + "Total_Settled_Searches=" + MctsController.TOTAL_SETTLED_SEARCHES + c 
+								+ "Total_Spare_Ms=" + MctsController.TOTAL_SPARE_MILLISEC;
+		}
+		
+		String nodeRecyclingLogData = "";
+		if(MctsController.TOTAL_RECYCLED_NODES + MctsController.TOTAL_ALLOCATED_NODES > 0L){
+			nodeRecyclingLogData = c + "Total_Recycled_Nodes=" + MctsController.TOTAL_RECYCLED_NODES + c 
+									+ "Total_Allocated_Nodes=" + MctsController.TOTAL_ALLOCATED_NODES;
+		}
+		
+		String transpositionLogData = "";
+		if(MctsController.TOTAL_TRANSPOSITION_LOOKUPS > 0L){
+			transpositionLogData = c + "Total_Transposition_Lookups=" + MctsController.TOTAL_TRANSPOSITION_LOOKUPS + c
+									+ "Total_Transposition_Hits=" + MctsController.TOTAL_TRANSPOSITION_HITS + c
+									+ "Total_Transposition_Replacements=" + MctsController.TOTAL_TRANSPOSITION_REPLACEMENTS;
+		}
+		
+		String transitionCacheLogData = "";
+		if(MctsController.TOTAL_TRANSITION_CACHE_HITS + MctsController.TOTAL_TRANSITION_CACHE_MISSES > 0L){
+			transitionCacheLogData = c + "Total_Transition_Cache_Hits=" + MctsController.TOTAL_TRANSITION_CACHE_HITS + c
+									+ "Total_Transition_Cache_Misses=" + MctsController.TOTAL_TRANSITION_CACHE_MISSES + c
+									+ "Total_Transition_Cache_Evictions=" + MctsController.TOTAL_TRANSITION_CACHE_EVICTIONS;
+		}
+		
+		String stateCacheLogData = "";
+		if(MctsController.TOTAL_STATE_CACHE_ADMISSIONS + MctsController.TOTAL_STATE_CACHE_REJECTIONS > 0L){
+			stateCacheLogData = c + "Total_State_Cache_Admissions=" + MctsController.TOTAL_STATE_CACHE_ADMISSIONS + c
+								+ "Total_State_Cache_Rejections=" + MctsController.TOTAL_STATE_CACHE_REJECTIONS + c
+								+ "Total_State_Cache_Evictions=" + MctsController.TOTAL_STATE_CACHE_EVICTIONS;
+		}
+		
+		String sequentialSafetyTestingLogData = "";
+		if(MctsController.TOTAL_SEQUENTIAL_SAFETY_TESTS > 0){
+			sequentialSafetyTestingLogData = c + "Total_Skipped_Safety_Checks=" + MctsController.TOTAL_SKIPPED_SAFETY_CHECKS + c
+											+ "Avg_Skipped_Safety_Checks=" 
+											+ ((double) MctsController.TOTAL_SKIPPED_SAFETY_CHECKS / MctsController.TOTAL_SEQUENTIAL_SAFETY_TESTS);
+		}
+		
+		String depth2InitLogData = "";
+		if(MctsController.NUM_DEPTH2_INIT_EXPANSIONS > 0){
+			depth2InitLogData = c + "Depth2_Init_Expansions=" + MctsController.NUM_DEPTH2_INIT_EXPANSIONS;
+		}
+		
+		String lossAvoidanceLogData = "";
+		if(MctsController.TOTAL_SKIPPED_REPLAY_STEPS > 0L){
+			lossAvoidanceLogData = c + "Total_Skipped_Replay_Steps=" + MctsController.TOTAL_SKIPPED_REPLAY_STEPS;
+		}
+		
+		String checkpointLogData = "";
+		if(MctsController.TOTAL_CHECKPOINT_TICKS > 0){
+			checkpointLogData = c + "Avg_Checkpoint_Interval=" 
+								+ ((double) MctsController.TOTAL_CHECKPOINT_INTERVALS / MctsController.TOTAL_CHECKPOINT_TICKS) + c
+								+ "Checkpoint_Released_States=" + MctsController.TOTAL_CHECKPOINT_RELEASED_STATES + c
+								+ "Checkpoint_Copy_Nanos=" + MctsController.CHECKPOINT_COPY_NANOS + c
+								+ "Checkpoint_Advance_Nanos=" + MctsController.CHECKPOINT_ADVANCE_NANOS;
+		}
+		
+		String timeBufferLogData = "";
+		if(MctsController.TIME_BUFFER_CALIBRATOR != null){
+			timeBufferLogData = c + "Time_Buffer=" + MctsController.TIME_BUFFER_MILLISEC + c 
+								+ "Time_Overruns=" + MctsController.TIME_BUFFER_CALIBRATOR.getNumOverruns();
+		}
+		
 		return this.selectionStrategy.getName() + c
 				+ this.selectionStrategy.getConfigDataString() + c
 				+ this.playoutStrategy.getName() + c
@@ -119,7 +206,20 @@ public class DennisMctsTestConfig extends TestConfig {
 				+ this.playoutEval.getConfigDataString() + c
 				+ "Total_Iterations=" + MctsController.TOTAL_ITERATIONS + c
 				+ "Min_Iterations=" + MctsController.MIN_ITERATIONS_PER_GAME + c
-				+ "Max_Iterations=" + MctsController.MAX_ITERATIONS_PER_GAME;/* + c
+				+ "Max_Iterations=" + MctsController.MAX_ITERATIONS_PER_GAME + c
+				+ "Total_GC_Ms=" + MctsController.TOTAL_GC_MILLISEC
+				+ pipelineLogData
+				+ ponderingLogData
+				+ settledLogData
+				+ nodeRecyclingLogData
+				+ transpositionLogData
+				+ transitionCacheLogData
+				+ stateCacheLogData
+				+ sequentialSafetyTestingLogData
+				+ depth2InitLogData
+				+ lossAvoidanceLogData
+				+ checkpointLogData
+				+ timeBufferLogData;/* + c
 				+ "Total_Loss_Iterations=" + MctsController.TOTAL_LOSS_ITERATIONS;*/
 	}
 }
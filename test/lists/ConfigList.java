@@ -3,6 +3,8 @@ package test.lists;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import MaastCTS2.controller.MctsController;
+import MaastCTS2.controller.SubtreeSearchHook;
 import MaastCTS2.heuristics.states.GvgAiEvaluation;
 import MaastCTS2.move_selection.MaxAvgScore;
 import MaastCTS2.playout.NstPlayout;
@@ -364,6 +366,270 @@ public class ConfigList {
 				new GvgAiEvaluation(),
 				true, false, false, false, false, true, 1.0, 3, false, false));
 		
+		// same as MaastCTS2, but with Root Parallelization. Compare Total_Iterations per game tick
+		// (see ResultsProcessor.INCLUDE_AVG_ITERATIONS) to measure how the merged iteration count scales
+		for(final int numThreads : new int[]{1, 2, 4, 8, 16}){
+			this.addConfig(new DennisMctsTestConfig("MaastCTS2_RootParallel_" + numThreads,
+					new ProgressiveHistory(0.6, 1.0),
+					new NstPlayout(10, 0.5, 7.0, 3),
+					new MaxAvgScore(),
+					new GvgAiEvaluation(),
+					true, true, true, true, true, true, 0.6, 3, true, false){
+				
+				@Override
+				protected void configureController(MctsController controller){
+					controller.setNumRootParallelThreads(numThreads);
+				}
+				
+			});
+		}
+		
+		// same as MaastCTS2, but with Tree Parallelization (all threads share one tree, using virtual losses)
+		for(final int numThreads : new int[]{2, 4, 8, 16}){
+			this.addConfig(new DennisMctsTestConfig("MaastCTS2_TreeParallel_" + numThreads,
+					new ProgressiveHistory(0.6, 1.0),
+					new NstPlayout(10, 0.5, 7.0, 3),
+					new MaxAvgScore(),
+					new GvgAiEvaluation(),
+					true, true, true, true, true, true, 0.6, 3, true, false){
+				
+				@Override
+				protected void configureController(MctsController controller){
+					controller.setNumTreeParallelThreads(numThreads);
+				}
+				
+			});
+		}
+		
+		// same as MaastCTS2, but with Leaf Parallelization (batches of play-outs from every selected node)
+		for(final int numPlayouts : new int[]{2, 4, 8}){
+			this.addConfig(new DennisMctsTestConfig("MaastCTS2_LeafParallel_" + numPlayouts,
+					new ProgressiveHistory(0.6, 1.0),
+					new NstPlayout(10, 0.5, 7.0, 3),
+					new MaxAvgScore(),
+					new GvgAiEvaluation(),
+					true, true, true, true, true, true, 0.6, 3, true, false){
+				
+				@Override
+				protected void configureController(MctsController controller){
+					controller.setNumLeafParallelPlayouts(numPlayouts);
+				}
+				
+			});
+		}
+		
+		// same as MaastCTS2, but with pipelined MCTS (selection and backups in one thread, play-outs and evaluations in workers)
+		for(final int numWorkers : new int[]{1, 2, 4, 8}){
+			this.addConfig(new DennisMctsTestConfig("MaastCTS2_Pipelined_" + numWorkers,
+					new ProgressiveHistory(0.6, 1.0),
+					new NstPlayout(10, 0.5, 7.0, 3),
+					new MaxAvgScore(),
+					new GvgAiEvaluation(),
+					true, true, true, true, true, true, 0.6, 3, true, false){
+				
+				@Override
+				protected void configureController(MctsController controller){
+					controller.setNumPipelineWorkers(numWorkers);
+				}
+				
+			});
+		}
+		
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_Pondering",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setPondering(true);
+			}
+			
+		});
+		
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_EarlyTermination",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setEarlyTermination(true);
+			}
+			
+		});
+		
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_EarlyTermination_SubtreeSearch",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setEarlyTermination(true);
+				controller.setSpareTimeHook(new SubtreeSearchHook());
+			}
+			
+		});
+		
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_NodeRecycling",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setNodeRecycling(true);
+			}
+			
+		});
+		
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_TranspositionTable",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setTranspositionTable(true);
+			}
+			
+		});
+		
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_TransitionCache",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setTransitionCache(true);
+			}
+			
+		});
+		
+		// budget of 64 MB for states cached in nodes
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_StateCacheBudget",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setStateCacheBudget(64L * 1024L * 1024L);
+			}
+			
+		});
+		
+		// states in deterministic games only saved at checkpoints, spending at most 10% more CPU time on replaying actions
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_Checkpoints",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setCheckpoints(0.1);
+			}
+			
+		});
+		
+		// simulations of safety prepruning divided among 4 threads
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_ParallelSafetyChecks",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setNumSafetyCheckThreads(4);
+			}
+			
+		});
+		
+		// safety checks only run for actions of which the outcome of safety prepruning is not decided yet
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_SequentialSafetyTesting",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setSequentialSafetyTesting(true);
+			}
+			
+		});
+		
+		// safety-checked tree of depth 2 built in init(), with the simulations divided among 4 threads
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_Depth2Init",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setDepth2Initialization(true);
+				controller.setNumSafetyCheckThreads(4);
+			}
+			
+		});
+		
+		// Loss Avoidance reuses saved states along losing paths, and generates the siblings of losing nodes in parallel
+		this.addConfig(new DennisMctsTestConfig("MaastCTS2_LossAvoidanceStateReuse",
+				new ProgressiveHistory(0.6, 1.0),
+				new NstPlayout(10, 0.5, 7.0, 3),
+				new MaxAvgScore(),
+				new GvgAiEvaluation(),
+				true, true, true, true, true, true, 0.6, 3, true, false){
+			
+			@Override
+			protected void configureController(MctsController controller){
+				controller.setLossAvoidanceStateReuse(true);
+				controller.setNumSafetyCheckThreads(4);
+			}
+			
+		});
+		
+		// fixed search budgets (with a fixed seed) instead of time limits, for comparisons across machines
+		for(final int budget : new int[]{500, 1000, 2000}){
+			this.addConfig(new DennisMctsTestConfig("MaastCTS2_Budget_" + budget,
+					new ProgressiveHistory(0.6, 1.0),
+					new NstPlayout(10, 0.5, 7.0, 3),
+					new MaxAvgScore(),
+					new GvgAiEvaluation(),
+					true, true, true, true, true, true, 0.6, 3, true, false){
+				
+				@Override
+				protected void configureController(MctsController controller){
+					controller.setSearchBudget(budget, 0L);
+					controller.setRandomSeed(12345L);
+				}
+				
+			});
+		}
+		
 		/*this.addConfig(new DennisNonMctsTestConfig("dennisBfs", 
 				new BreadthFirstSearchController(new DennisSoemers.heuristics.states.GvgAiEvaluation())));
 		